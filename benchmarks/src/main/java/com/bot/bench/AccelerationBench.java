@@ -0,0 +1,215 @@
+package com.bot.bench;
+
+import com.bot.downloader.DownloadAccelerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares fragment download strategies of {@link DownloadAccelerator} against a local fixture
+ * server. The server serves an HLS playlist and a DASH manifest whose segments are sent at a fixed
+ * rate per connection, like a throttling video site, and answers 429 above a connection limit.
+ * Each strategy downloads the stream several times through yt-dlp; fixed strategies always use the
+ * same fragment count, the adaptive one starts at 1 and tunes itself from run to run.
+ * <pre>
+ *   YTDLP_BINARY=yt-dlp java -cp target/benchmarks.jar com.bot.bench.AccelerationBench \
+ *       [hls|dash] [segments] [segmentKb] [connectionKbps] [maxConnections] [runs]
+ * </pre>
+ */
+public class AccelerationBench {
+
+    private static final int SEGMENT_SECONDS = 4;
+
+    public static void main(String[] args) throws Exception {
+        String protocol = args.length > 0 ? args[0] : "hls";
+        int segments = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int segmentKb = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        int connectionKbps = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+        int maxConnections = args.length > 4 ? Integer.parseInt(args[4]) : 6;
+        int runs = args.length > 5 ? Integer.parseInt(args[5]) : 6;
+        String binary = System.getenv().getOrDefault("YTDLP_BINARY", "yt-dlp");
+
+        // Each strategy is a site of its own; Env reads system properties first
+        for (int n : new int[]{1, 4, 8}) {
+            System.setProperty("ACCEL_FIXED" + n + "_FRAGMENTS", String.valueOf(n));
+            System.setProperty("ACCEL_FIXED" + n + "_MAX_FRAGMENTS", String.valueOf(n));
+            System.setProperty("ACCEL_FIXED" + n + "_ADAPTIVE", "false");
+        }
+        System.setProperty("ACCEL_ADAPTIVE_FRAGMENTS", "1");
+        System.setProperty("ACCEL_ADAPTIVE_MAX_FRAGMENTS", "16");
+
+        Fixture fixture = new Fixture(segments, segmentKb * 1024, connectionKbps, maxConnections);
+        DownloadAccelerator accelerator = new DownloadAccelerator(0, 1, 0);
+        String url = fixture.url(protocol);
+        System.out.printf("%s stream: %d segments of %d KB, %d KB/s per connection, %d connections max%n",
+                protocol, segments, segmentKb, connectionKbps, maxConnections);
+        try {
+            for (String strategy : List.of("fixed1", "fixed4", "fixed8", "adaptive")) {
+                double[] mbps = new double[runs];
+                StringBuilder levels = new StringBuilder();
+                for (int run = 0; run < runs; run++) {
+                    try (DownloadAccelerator.Plan plan = accelerator.plan(strategy, 0)) {
+                        levels.append(run == 0 ? "" : ",").append(plan.fragments());
+                        long started = System.nanoTime();
+                        long bytes = download(binary, url, plan);
+                        long millis = Math.max(1, (System.nanoTime() - started) / 1_000_000);
+                        plan.finished(bytes, millis);
+                        mbps[run] = bytes / 1024.0 / 1024.0 / (millis / 1000.0);
+                    }
+                }
+                Arrays.sort(mbps);
+                System.out.printf("%-9s median %6.2f MB/s  best %6.2f MB/s  fragments per run %s  429s %d%n",
+                        strategy, mbps[runs / 2], mbps[runs - 1], levels, fixture.rejected.getAndSet(0));
+            }
+        } finally {
+            fixture.stop();
+        }
+    }
+
+    // Runs yt-dlp with the plan's arguments and returns the size of the downloaded file
+    private static long download(String binary, String url, DownloadAccelerator.Plan plan)
+            throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("accel-bench");
+        try {
+            List<String> command = new ArrayList<>(List.of(binary, "--newline", "--no-part", "--fixup", "never",
+                    "-o", dir.resolve("out.%(ext)s").toString()));
+            command.addAll(plan.args());
+            command.add(url);
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    plan.observe(line);
+                }
+            }
+            if (process.waitFor() != 0) {
+                throw new IOException("yt-dlp exited with code " + process.exitValue());
+            }
+            File[] files = dir.toFile().listFiles();
+            return files == null ? 0 : Arrays.stream(files).mapToLong(File::length).sum();
+        } finally {
+            File[] files = dir.toFile().listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static final class Fixture {
+        final HttpServer server;
+        final byte[] segment;
+        final int segments;
+        final int connectionKbps;
+        final int maxConnections;
+        final AtomicInteger connections = new AtomicInteger();
+        final AtomicInteger rejected = new AtomicInteger();
+
+        Fixture(int segments, int segmentBytes, int connectionKbps, int maxConnections) throws IOException {
+            this.segments = segments;
+            this.connectionKbps = connectionKbps;
+            this.maxConnections = maxConnections;
+            this.segment = new byte[segmentBytes];
+            new Random(1).nextBytes(segment);
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/hls/index.m3u8", ex -> respond(ex, "application/vnd.apple.mpegurl", playlist()));
+            server.createContext("/dash/manifest.mpd", ex -> respond(ex, "application/dash+xml", manifest()));
+            server.createContext("/hls/seg", this::serveSegment);
+            server.createContext("/dash/seg", this::serveSegment);
+            server.createContext("/dash/init.mp4", this::serveSegment);
+            server.start();
+        }
+
+        String url(String protocol) {
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+            return protocol.equals("dash") ? base + "/dash/manifest.mpd" : base + "/hls/index.m3u8";
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private String playlist() {
+            StringBuilder sb = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n#EXT-X-TARGETDURATION:")
+                    .append(SEGMENT_SECONDS).append("\n#EXT-X-MEDIA-SEQUENCE:0\n");
+            for (int i = 0; i < segments; i++) {
+                sb.append("#EXTINF:").append(SEGMENT_SECONDS).append(".0,\nseg").append(i).append(".ts\n");
+            }
+            return sb.append("#EXT-X-ENDLIST\n").toString();
+        }
+
+        private String manifest() {
+            return """
+                    <?xml version="1.0" encoding="UTF-8"?>
+                    <MPD xmlns="urn:mpeg:dash:schema:mpd:2011" type="static" minBufferTime="PT2S"
+                         mediaPresentationDuration="PT%dS" profiles="urn:mpeg:dash:profile:isoff-live:2011">
+                      <Period>
+                        <AdaptationSet mimeType="video/mp4" contentType="video">
+                          <Representation id="video" bandwidth="2000000" width="1280" height="720" codecs="avc1.64001f">
+                            <SegmentTemplate timescale="1" duration="%d" startNumber="0"
+                                             initialization="init.mp4" media="seg$Number$.m4s"/>
+                          </Representation>
+                        </AdaptationSet>
+                      </Period>
+                    </MPD>
+                    """.formatted(segments * SEGMENT_SECONDS, SEGMENT_SECONDS);
+        }
+
+        private void respond(HttpExchange exchange, String type, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", type);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+
+        // Sends a segment at connectionKbps, or 429 when too many are being sent already
+        private void serveSegment(HttpExchange exchange) throws IOException {
+            if (connections.incrementAndGet() > maxConnections) {
+                connections.decrementAndGet();
+                rejected.incrementAndGet();
+                exchange.sendResponseHeaders(429, -1);
+                exchange.close();
+                return;
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                exchange.getResponseHeaders().set("Content-Type", "video/mp2t");
+                exchange.sendResponseHeaders(200, segment.length);
+                int chunk = 16 * 1024;
+                long started = System.nanoTime();
+                // Paces before each write, so the connection is closed as soon as the last byte is out
+                for (int off = 0; off < segment.length; off += chunk) {
+                    long dueMs = (long) off * 1000 / 1024 / connectionKbps;
+                    long sleepMs = dueMs - (System.nanoTime() - started) / 1_000_000;
+                    if (sleepMs > 0) {
+                        Thread.sleep(sleepMs);
+                    }
+                    out.write(segment, off, Math.min(chunk, segment.length - off));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connections.decrementAndGet();
+            }
+        }
+    }
+}
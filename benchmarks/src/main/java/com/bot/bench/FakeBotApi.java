@@ -0,0 +1,317 @@
+package com.bot.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-process stand-in for the Telegram Bot API, for {@code DefaultBotOptions.setBaseUrl(baseUrl())}.
+ * Serves getUpdates as a long poll over the updates pushed by the test, answers sendMessage,
+ * editMessageText and sendVideo with plausible messages and every other method with true. Each
+ * call is reported to a {@link Listener} along with the message it returned, which is how the test
+ * sees what the bot sent. An optional latency is added to every call except getUpdates. After
+ * setWebhook the updates are posted to the registered URL instead, one at a time and in order, with
+ * the secret token; an answer other than 200 is retried, as Telegram does.
+ */
+public final class FakeBotApi implements AutoCloseable {
+
+    public interface Listener {
+        // result is the message the call returned, or null for methods that return true
+        void onCall(String method, JSONObject params, JSONObject result);
+    }
+
+    // The bot library posts to lower-case paths (sendmessage); reported and matched under the Bot API names
+    private static final Map<String, String> METHODS = Stream.of(
+                    "getUpdates", "getMe", "deleteWebhook", "sendMessage", "editMessageText", "sendVideo",
+                    "answerCallbackQuery", "setWebhook")
+            .collect(Collectors.toMap(name -> name.toLowerCase(Locale.ROOT), name -> name));
+
+    private final HttpServer server;
+    private final Listener listener;
+    private final long latencyMs;
+    private final LinkedBlockingQueue<JSONObject> updates = new LinkedBlockingQueue<>();
+    private final AtomicLong nextUpdateId = new AtomicLong(1);
+    private final AtomicLong nextCallbackId = new AtomicLong();
+    private final Map<Long, AtomicInteger> messageIds = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> calls = new ConcurrentHashMap<>();
+    private final LongAdder requestBytes = new LongAdder();
+    private final LongAdder webhookRetries = new LongAdder();
+    private final HttpClient webhookClient = HttpClient.newHttpClient();
+    private volatile String webhookUrl;
+    private volatile String webhookSecret;
+    private Thread webhookDelivery;
+
+    public FakeBotApi(long latencyMs, Listener listener) throws IOException {
+        this.latencyMs = latencyMs;
+        this.listener = listener;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        // Long polls and slow calls each hold a thread; daemons, so a stuck poll does not keep the JVM up
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "fake-bot-api");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    // The token and method name are appended by the bot library
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot";
+    }
+
+    // A text message from a user in their private chat; returns its message id
+    public int pushMessage(long chatId, String text) {
+        int messageId = nextMessageId(chatId);
+        push(new JSONObject().put("message", message(chatId, messageId).put("from", user(chatId)).put("text", text)));
+        return messageId;
+    }
+
+    // A tap on an inline button of the bot's message
+    public void pushCallback(long chatId, int messageId, String data) {
+        push(new JSONObject().put("callback_query", new JSONObject()
+                .put("id", String.valueOf(nextCallbackId.incrementAndGet()))
+                .put("from", user(chatId))
+                .put("chat_instance", String.valueOf(chatId))
+                .put("message", message(chatId, messageId))
+                .put("data", data)));
+    }
+
+    public long updatesPending() {
+        return updates.size();
+    }
+
+    // Calls received so far per method
+    public Map<String, Long> callCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        calls.forEach((method, count) -> counts.put(method, count.sum()));
+        return counts;
+    }
+
+    public long requestBytes() {
+        return requestBytes.sum();
+    }
+
+    // Webhook posts the bot did not answer with 200
+    public long webhookRetries() {
+        return webhookRetries.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        synchronized (this) {
+            if (webhookDelivery != null) {
+                webhookDelivery.interrupt();
+            }
+        }
+    }
+
+    private void push(JSONObject update) {
+        synchronized (updates) {
+            // Ids must grow in queue order; the bot library drops updates older than the last one it saw
+            updates.add(update.put("update_id", nextUpdateId.getAndIncrement()));
+        }
+    }
+
+    private int nextMessageId(long chatId) {
+        return messageIds.computeIfAbsent(chatId, c -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String method = methodName(path.substring(path.lastIndexOf('/') + 1));
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            requestBytes.add(body.length);
+            calls.computeIfAbsent(method, m -> new LongAdder()).increment();
+            JSONObject params = params(exchange.getRequestHeaders().getFirst("Content-Type"), body);
+
+            Object result;
+            if (method.equals("getUpdates")) {
+                result = poll(params.optInt("limit", 100), params.optInt("timeout", 0));
+            } else {
+                if (latencyMs > 0) {
+                    Thread.sleep(latencyMs);
+                }
+                result = answer(method, params);
+                listener.onCall(method, params, result instanceof JSONObject message ? message : null);
+            }
+            byte[] response = new JSONObject().put("ok", true).put("result", result).toString()
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            // The JDK server can leave a request on a reused connection unread under load
+            exchange.getResponseHeaders().set("Connection", "close");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // A listener bug must not look like a Bot API outage
+            e.printStackTrace();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String methodName(String pathPart) {
+        return METHODS.getOrDefault(pathPart.toLowerCase(Locale.ROOT), pathPart);
+    }
+
+    private JSONArray poll(int limit, int timeoutSeconds) throws InterruptedException {
+        JSONArray result = new JSONArray();
+        JSONObject first = updates.poll(timeoutSeconds, TimeUnit.SECONDS);
+        if (first == null) {
+            return result;
+        }
+        List<JSONObject> batch = new ArrayList<>(List.of(first));
+        updates.drainTo(batch, Math.max(0, limit - 1));
+        batch.forEach(result::put);
+        return result;
+    }
+
+    private Object answer(String method, JSONObject params) {
+        long chatId = Long.parseLong(params.optString("chat_id", "0"));
+        switch (method) {
+            case "sendMessage":
+                return message(chatId, nextMessageId(chatId)).put("text", params.optString("text"));
+            case "editMessageText": {
+                JSONObject message = message(chatId, params.optInt("message_id")).put("text", params.optString("text"));
+                JSONObject markup = params.optJSONObject("reply_markup");
+                return markup != null ? message.put("reply_markup", markup) : message;
+            }
+            case "sendVideo":
+                return message(chatId, nextMessageId(chatId)).put("video", new JSONObject()
+                        .put("file_id", "fake-file-" + chatId + "-" + System.nanoTime())
+                        .put("file_unique_id", "fake-" + chatId + "-" + System.nanoTime())
+                        .put("width", params.optInt("width", 1280))
+                        .put("height", params.optInt("height", 720))
+                        .put("duration", params.optInt("duration", 10)));
+            case "setWebhook":
+                webhookSecret = params.optString("secret_token", null);
+                webhookUrl = params.getString("url");
+                startWebhookDelivery();
+                return true;
+            case "deleteWebhook":
+                webhookUrl = null;
+                return true;
+            case "getMe":
+                return new JSONObject().put("id", 1).put("is_bot", true).put("first_name", "Load Test")
+                        .put("username", "load_test_bot");
+            default:
+                return true;
+        }
+    }
+
+    private synchronized void startWebhookDelivery() {
+        if (webhookDelivery == null) {
+            webhookDelivery = new Thread(this::deliverLoop, "fake-bot-api-webhook");
+            webhookDelivery.setDaemon(true);
+            webhookDelivery.start();
+        }
+    }
+
+    private void deliverLoop() {
+        JSONObject update = null;
+        try {
+            while (true) {
+                if (update == null) {
+                    update = updates.take();
+                }
+                String url = webhookUrl;
+                if (url != null && deliver(url, update)) {
+                    update = null;
+                } else {
+                    webhookRetries.increment();
+                    Thread.sleep(100);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private boolean deliver(String url, JSONObject update) throws InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(update.toString()));
+        String secret = webhookSecret;
+        if (secret != null) {
+            request.header("X-Telegram-Bot-Api-Secret-Token", secret);
+        }
+        try {
+            return webhookClient.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static JSONObject message(long chatId, int messageId) {
+        return new JSONObject()
+                .put("message_id", messageId)
+                .put("date", System.currentTimeMillis() / 1000)
+                .put("chat", new JSONObject().put("id", chatId).put("type", "private"));
+    }
+
+    private static JSONObject user(long chatId) {
+        return new JSONObject().put("id", chatId).put("is_bot", false).put("first_name", "user" + chatId);
+    }
+
+    // JSON for most methods; sendVideo is multipart, where only the text fields matter here
+    private static JSONObject params(String contentType, byte[] body) {
+        if (contentType == null || body.length == 0) {
+            return new JSONObject();
+        }
+        if (contentType.startsWith("application/json")) {
+            return new JSONObject(new String(body, StandardCharsets.UTF_8));
+        }
+        JSONObject params = new JSONObject();
+        int boundaryAt = contentType.indexOf("boundary=");
+        if (!contentType.startsWith("multipart/form-data") || boundaryAt < 0) {
+            return params;
+        }
+        // ISO-8859-1 maps bytes one to one, so binary parts cannot break the split
+        // The library appends "; charset=UTF-8" after the boundary
+        String boundary = "--" + contentType.substring(boundaryAt + "boundary=".length()).split(";")[0]
+                .replace("\"", "").trim();
+        for (String part : new String(body, StandardCharsets.ISO_8859_1).split(boundary)) {
+            int headersEnd = part.indexOf("\r\n\r\n");
+            int nameAt = part.indexOf("name=\"");
+            if (headersEnd < 0 || nameAt < 0 || nameAt > headersEnd) {
+                continue;
+            }
+            String headers = part.substring(0, headersEnd);
+            String name = headers.substring(nameAt + 6, headers.indexOf('"', nameAt + 6));
+            String value = part.substring(headersEnd + 4, Math.max(headersEnd + 4, part.length() - 2));
+            params.put(name, headers.contains("filename=\"") ? "<" + value.length() + " bytes>"
+                    : new String(value.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+}
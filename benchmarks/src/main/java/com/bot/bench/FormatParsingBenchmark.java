@@ -0,0 +1,45 @@
+package com.bot.bench;
+
+import com.bot.downloader.FormatInfoParser;
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The parsing step of fetchAvailableFormats, fed recorded --dump-json output instead of a yt-dlp process
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatParsingBenchmark {
+
+    @Param({"tiktok-small", "youtube-medium", "youtube-large"})
+    public String fixture;
+
+    private String json;
+
+    @Setup
+    public void setup() {
+        json = Fixtures.load(fixture + ".json");
+    }
+
+    @Benchmark
+    public List<FormatInfo> parse() throws IOException {
+        return FormatInfoParser.parse(new StringReader(json));
+    }
+}
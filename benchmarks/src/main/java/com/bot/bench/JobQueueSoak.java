@@ -0,0 +1,163 @@
+package com.bot.bench;
+
+import com.bot.job.JobQueue;
+import com.bot.job.SharedDirJobQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Multi-process check of {@link SharedDirJobQueue}: starts several worker JVMs on one queue
+ * directory, enqueues jobs, kills one worker while it holds claims and verifies that every job
+ * was completed exactly once. Exits with status 1 on a lost or duplicated job.
+ * <pre>
+ *   java -cp target/benchmarks.jar com.bot.bench.JobQueueSoak [workers] [jobs]
+ * </pre>
+ */
+public class JobQueueSoak {
+
+    private static final long LEASE_MS = 1500;
+    private static final long POLL_MS = 50;
+    private static final int MAX_ATTEMPTS = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("worker")) {
+            runWorker(Path.of(args[1]), args[2]);
+            return;
+        }
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int jobs = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        System.exit(runCoordinator(workers, jobs) ? 0 : 1);
+    }
+
+    private static boolean runCoordinator(int workerCount, int jobCount) throws Exception {
+        Path dir = Files.createTempDirectory("job-queue-soak");
+        Path results = Files.createDirectories(dir.resolve("results"));
+        List<Process> workers = new ArrayList<>();
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(startWorker(dir, "w" + i));
+        }
+
+        try (SharedDirJobQueue queue = new SharedDirJobQueue(dir.resolve("queue"), "coordinator",
+                LEASE_MS, POLL_MS, MAX_ATTEMPTS)) {
+            for (int i = 0; i < jobCount; i++) {
+                queue.enqueue("chat" + i % 7, i, "Downloading...", "job-" + i, null, 0);
+            }
+            System.out.printf("Enqueued %d jobs for %d workers in %s%n", jobCount, workerCount, dir);
+
+            // Kill a worker midway; its claims must come back after the lease expires
+            waitForResults(results, jobCount / 2, TimeUnit.MINUTES.toMillis(2));
+            workers.get(0).destroyForcibly().waitFor();
+            System.out.println("Killed worker w0");
+
+            waitForResults(results, jobCount, TimeUnit.MINUTES.toMillis(5));
+        } finally {
+            for (Process worker : workers) {
+                worker.destroyForcibly();
+            }
+        }
+
+        Map<String, Integer> completions = new HashMap<>();
+        int reassigned = 0;
+        for (String line : readResults(results)) {
+            String[] parts = line.split(" ");
+            completions.merge(parts[0], 1, Integer::sum);
+            if (Integer.parseInt(parts[1]) > 1) {
+                reassigned++;
+            }
+        }
+        int lost = 0;
+        int duplicated = 0;
+        for (int i = 0; i < jobCount; i++) {
+            int count = completions.getOrDefault("job-" + i, 0);
+            if (count == 0) {
+                lost++;
+            } else if (count > 1) {
+                duplicated++;
+            }
+        }
+        System.out.printf("Completed %d distinct jobs, %d after reassignment, %d lost, %d duplicated%n",
+                completions.size(), reassigned, lost, duplicated);
+        return lost == 0 && duplicated == 0;
+    }
+
+    private static Process startWorker(Path dir, String workerId) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                JobQueueSoak.class.getName(), "worker", dir.toString(), workerId)
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve(workerId + ".log").toFile())
+                .start();
+    }
+
+    private static void waitForResults(Path results, int expected, long timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (readResults(results).size() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                System.out.println("Timed out waiting for " + expected + " completions");
+                return;
+            }
+            Thread.sleep(200);
+        }
+    }
+
+    private static List<String> readResults(Path results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (Stream<Path> files = Files.list(results)) {
+            for (Path file : files.toList()) {
+                lines.addAll(Files.readAllLines(file, StandardCharsets.UTF_8));
+            }
+        }
+        lines.removeIf(String::isEmpty);
+        return lines;
+    }
+
+    // Claims on two threads like a bot replica would, "working" 20-200 ms per job
+    private static void runWorker(Path dir, String workerId) throws Exception {
+        File results = dir.resolve("results").resolve(workerId + ".txt").toFile();
+        SharedDirJobQueue queue = new SharedDirJobQueue(dir.resolve("queue"), workerId, LEASE_MS, POLL_MS, MAX_ATTEMPTS);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        JobQueue.Claim claim = queue.claim(1000);
+                        if (claim == null) {
+                            continue;
+                        }
+                        AtomicBoolean lost = new AtomicBoolean();
+                        claim.onLost(() -> lost.set(true));
+                        Thread.sleep(ThreadLocalRandom.current().nextLong(20, 200));
+                        if (lost.get()) {
+                            continue;
+                        }
+                        claim.complete();
+                        synchronized (results) {
+                            Files.writeString(results.toPath(), claim.job().url() + " " + claim.attempt() + "\n",
+                                    StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
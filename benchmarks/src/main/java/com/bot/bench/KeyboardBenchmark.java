@@ -0,0 +1,62 @@
+package com.bot.bench;
+
+import com.bot.downloader.FormatInfoParser;
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import com.bot.selection.CallbackData;
+import com.bot.selection.QualityKeyboard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyboardBenchmark {
+
+    private static final String TOKEN = "k41b";
+
+    private List<FormatInfo> formats;
+    private String[] callbacks;
+
+    @Setup
+    public void setup() throws IOException {
+        formats = FormatInfoParser.parse(new StringReader(Fixtures.load("youtube-medium.json")));
+        callbacks = new String[] {
+                CallbackData.format(TOKEN, "720"),
+                CallbackData.format(TOKEN, CallbackData.BEST),
+                CallbackData.format(TOKEN, CallbackData.CANCEL),
+                "q:" + TOKEN + ":99999999999",
+                "something-else"
+        };
+    }
+
+    @Benchmark
+    public InlineKeyboardMarkup buildQualityKeyboard() {
+        return QualityKeyboard.build(TOKEN, formats);
+    }
+
+    @Benchmark
+    public void parseCallbackData(Blackhole bh) {
+        for (String data : callbacks) {
+            CallbackData parsed = CallbackData.parse(data);
+            bh.consume(parsed != null ? parsed.height() : 0);
+        }
+    }
+}
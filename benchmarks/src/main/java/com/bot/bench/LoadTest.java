@@ -0,0 +1,426 @@
+package com.bot.bench;
+
+import com.bot.VideoDownloaderBot;
+import com.bot.metrics.Histogram;
+import com.bot.selection.CallbackData;
+import com.bot.telegram.WebhookReceiver;
+import com.bot.util.Env;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.telegram.telegrambots.bots.DefaultBotOptions;
+import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
+import org.telegram.telegrambots.meta.generics.BotSession;
+import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load test: runs {@link VideoDownloaderBot} in this JVM against {@link FakeBotApi} and
+ * scripts/fake_ytdlp.py. Simulated users send links one after another, some messages carrying
+ * several, some links pointing at a few popular videos; they tap a quality as soon as the keyboard
+ * shows up, several times in a row. Reports throughput, latency per stage as the user sees it, and
+ * peak heap, threads, yt-dlp processes and disk usage. The bot is configured through the
+ * environment as usual (JOB_WORKERS, DOWNLOAD_CONCURRENCY, TELEGRAM_GLOBAL_RATE, FAKE_YTDLP_DELAY_MS,
+ * ...); files go to a temp SHARED_DIR and post-processing is off unless set otherwise. UPDATE_MODE=webhook
+ * delivers updates through a {@link com.bot.telegram.WebhookReceiver} instead of long polling.
+ * Exits with status 1 if a job got no final answer.
+ * <pre>
+ *   java -cp target/benchmarks.jar com.bot.bench.LoadTest [users] [linksPerUser] [tapsPerKeyboard] \
+ *       [rampSeconds] [apiLatencyMs]
+ * </pre>
+ */
+public class LoadTest {
+
+    private static final long TIMEOUT_MINUTES = 30;
+    private static final int HOT_VIDEOS = 20;
+    private static final double HOT_SHARE = 0.2;
+    private static final double MULTI_URL_SHARE = 0.25;
+    private static final double TIKTOK_SHARE = 0.3;
+    // Final status texts; anything else is an intermediate state
+    private static final String[] FAILURES = {"Failed", "The bot is busy", "The bot is out of disk space",
+            "The download stalled", "This video is too large", "Video is ", "Selection expired", "Download cancelled"};
+
+    private enum Stage {
+        ACK("message -> status reply"),
+        PROBE("status reply -> keyboard"),
+        QUEUE("tap -> download starts"),
+        DOWNLOAD("download -> upload starts"),
+        UPLOAD("upload -> video received"),
+        TOTAL("message -> video, without think time");
+
+        final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    // A link being processed for a user; times are System.nanoTime(), 0 until reached
+    private static final class Job {
+        final long sentAt = System.nanoTime();
+        int statusMessageId;
+        long ackAt;
+        long offeredAt;
+        long tappedAt;
+        long startedAt;
+        long uploadingAt;
+        long videoAt;
+    }
+
+    private static final class User {
+        final long chatId;
+        int linksLeft;
+        Job job;
+        // Status message of the last finished job, to spot edits that arrive after its final answer
+        int finishedMessageId;
+
+        User(long chatId, int links) {
+            this.chatId = chatId;
+            this.linksLeft = links;
+        }
+    }
+
+    private final Map<Long, User> users = new ConcurrentHashMap<>();
+    private final Map<Stage, Histogram> latencies = new ConcurrentHashMap<>();
+    private final Map<Stage, AtomicLong> maxLatencies = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final AtomicInteger videoCounter = new AtomicInteger();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder queuedReplies = new LongAdder();
+    private final LongAdder lateEdits = new LongAdder();
+    private final LongAdder taps = new LongAdder();
+    private final ScheduledExecutorService clock = Executors.newScheduledThreadPool(2, r -> {
+        Thread t = new Thread(r, "load-test-users");
+        t.setDaemon(true);
+        return t;
+    });
+    private final int linksPerUser;
+    private final int tapsPerKeyboard;
+    private final CountDownLatch remaining;
+    private FakeBotApi api;
+
+    private LoadTest(int userCount, int linksPerUser, int tapsPerKeyboard) {
+        this.linksPerUser = linksPerUser;
+        this.tapsPerKeyboard = tapsPerKeyboard;
+        this.remaining = new CountDownLatch(userCount * linksPerUser);
+        for (int i = 0; i < userCount; i++) {
+            long chatId = 100_000 + i;
+            users.put(chatId, new User(chatId, linksPerUser));
+        }
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new Histogram(1));
+            maxLatencies.put(stage, new AtomicLong());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int linksPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int tapsPerKeyboard = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int rampSeconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        long apiLatencyMs = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        // Env reads system properties first; set before the bot's components read them
+        Path shared = Files.createTempDirectory("load-test");
+        setDefault("SHARED_DIR", shared.toString());
+        setDefault("FILE_ID_CACHE_PATH", shared.resolve("cache").resolve("file-ids.log").toString());
+        setDefault("YTDLP_BINARY", fakeYtDlp());
+        setDefault("POSTPROCESS_ENABLED", "false");
+        setDefault("LOG_LEVEL", "warn");
+
+        LoadTest test = new LoadTest(userCount, linksPerUser, tapsPerKeyboard);
+        System.exit(test.run(shared, rampSeconds, apiLatencyMs) ? 0 : 1);
+    }
+
+    private boolean run(Path shared, int rampSeconds, long apiLatencyMs) throws Exception {
+        api = new FakeBotApi(apiLatencyMs, this::onCall);
+        DefaultBotOptions options = new DefaultBotOptions();
+        options.setBaseUrl(api.baseUrl());
+        VideoDownloaderBot bot = new VideoDownloaderBot(options, "load-test-token", "load_test_bot", true);
+        AutoCloseable updates = receiveUpdates(bot);
+        Resources resources = new Resources(shared);
+
+        System.out.printf("%d users x %d links, %d taps per keyboard, ramp %d s, API latency %d ms, files in %s%n",
+                users.size(), linksPerUser, tapsPerKeyboard, rampSeconds, apiLatencyMs, shared);
+        long started = System.nanoTime();
+        List<User> all = new ArrayList<>(users.values());
+        for (int i = 0; i < all.size(); i++) {
+            User user = all.get(i);
+            clock.schedule(() -> sendNext(user), rampSeconds * 1000L * i / all.size(), TimeUnit.MILLISECONDS);
+        }
+        boolean finished = remaining.await(TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - started) / 1e9;
+        resources.stop();
+        updates.close();
+        report(seconds, resources);
+        if (!finished) {
+            System.out.printf("Timed out after %d min with %d jobs unanswered%n", TIMEOUT_MINUTES, remaining.getCount());
+        }
+        api.close();
+        return finished;
+    }
+
+    // UPDATE_MODE=webhook has the fake API post updates to a receiver, as App does with the real one
+    private static AutoCloseable receiveUpdates(VideoDownloaderBot bot) throws Exception {
+        if (!"webhook".equalsIgnoreCase(Env.get("UPDATE_MODE", "polling"))) {
+            BotSession session = new TelegramBotsApi(DefaultBotSession.class).registerBot(bot);
+            return session::stop;
+        }
+        String secret = WebhookReceiver.randomSecret();
+        WebhookReceiver receiver = new WebhookReceiver(0, "/telegram/webhook", secret,
+                Env.getInt("WEBHOOK_QUEUE_CAPACITY", 1000), Env.getInt("WEBHOOK_HTTP_THREADS", 4),
+                Env.getInt("WEBHOOK_DISPATCH_THREADS", 1), bot::onUpdateReceived);
+        bot.execute(SetWebhook.builder()
+                .url("http://127.0.0.1:" + receiver.port() + "/telegram/webhook")
+                .secretToken(secret)
+                .build());
+        return receiver;
+    }
+
+    private void sendNext(User user) {
+        synchronized (user) {
+            if (user.linksLeft == 0) {
+                return;
+            }
+            user.linksLeft--;
+            user.job = new Job();
+            api.pushMessage(user.chatId, messageText());
+        }
+    }
+
+    // What the bot sent, as the users see it; calls run on the fake API's threads
+    private void onCall(String method, JSONObject params, JSONObject result) {
+        User user = users.get(Long.parseLong(params.optString("chat_id", "0")));
+        if (user == null || result == null) {
+            return;
+        }
+        synchronized (user) {
+            Job job = user.job;
+            if (method.equals("editMessageText") && user.finishedMessageId != 0
+                    && params.optInt("message_id") == user.finishedMessageId) {
+                lateEdits.increment();
+                return;
+            }
+            if (job == null) {
+                return;
+            }
+            long now = System.nanoTime();
+            String text = params.optString("text", "");
+            if (method.equals("sendMessage") && job.statusMessageId == 0) {
+                job.statusMessageId = result.getInt("message_id");
+                job.ackAt = now;
+                return;
+            }
+            if (method.equals("sendVideo")) {
+                job.videoAt = now;
+                return;
+            }
+            if (!method.equals("editMessageText") || params.optInt("message_id") != job.statusMessageId) {
+                return;
+            }
+            List<String> choices = qualityButtons(params.optJSONObject("reply_markup"));
+            if (!choices.isEmpty() && job.offeredAt == 0) {
+                job.offeredAt = now;
+                tapStorm(user, job, choices.get(ThreadLocalRandom.current().nextInt(choices.size())));
+            } else if (text.startsWith("Queued, position")) {
+                queuedReplies.increment();
+            } else if (text.startsWith("Downloading") && job.tappedAt > 0 && job.startedAt == 0) {
+                job.startedAt = now;
+            } else if (text.startsWith("Uploading") && job.uploadingAt == 0) {
+                job.uploadingAt = now;
+            } else if (text.startsWith("Video sent")) {
+                finish(user, job, null);
+            } else {
+                for (String failure : FAILURES) {
+                    if (text.startsWith(failure)) {
+                        finish(user, job, failure.trim());
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // Impatient users tap the same button several times before the bot reacts
+    private void tapStorm(User user, Job job, String data) {
+        long thinkMs = ThreadLocalRandom.current().nextLong(100, 1000);
+        clock.schedule(() -> {
+            synchronized (user) {
+                job.tappedAt = System.nanoTime();
+            }
+            for (int i = 0; i < tapsPerKeyboard; i++) {
+                api.pushCallback(user.chatId, job.statusMessageId, data);
+                taps.increment();
+            }
+        }, thinkMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Called with the user's lock held
+    private void finish(User user, Job job, String failure) {
+        user.job = null;
+        user.finishedMessageId = job.statusMessageId;
+        if (failure != null) {
+            failures.computeIfAbsent(failure, f -> new LongAdder()).increment();
+        } else {
+            succeeded.increment();
+            record(Stage.ACK, job.sentAt, job.ackAt);
+            record(Stage.PROBE, job.ackAt, job.offeredAt);
+            record(Stage.QUEUE, job.tappedAt, job.startedAt);
+            // Edits replaced by a newer one before they were sent never show up
+            record(Stage.DOWNLOAD, job.startedAt, job.uploadingAt);
+            record(Stage.UPLOAD, job.uploadingAt, job.videoAt);
+            long think = job.tappedAt > 0 && job.offeredAt > 0 ? job.tappedAt - job.offeredAt : 0;
+            record(Stage.TOTAL, job.sentAt + think, System.nanoTime());
+        }
+        remaining.countDown();
+        clock.schedule(() -> sendNext(user), ThreadLocalRandom.current().nextLong(200, 2000), TimeUnit.MILLISECONDS);
+    }
+
+    private void record(Stage stage, long from, long to) {
+        if (from > 0 && to >= from) {
+            long millis = (to - from) / 1_000_000;
+            latencies.get(stage).record(millis);
+            maxLatencies.get(stage).accumulateAndGet(millis, Math::max);
+        }
+    }
+
+    private String messageText() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String text = "look at this " + link(random);
+        return random.nextDouble() < MULTI_URL_SHARE ? text + " and this one " + link(random) : text;
+    }
+
+    // Distinct videos, except a share of links to a few popular ones, which exercises the caches
+    private String link(ThreadLocalRandom random) {
+        int video = random.nextDouble() < HOT_SHARE ? random.nextInt(HOT_VIDEOS) : HOT_VIDEOS + videoCounter.incrementAndGet();
+        return random.nextDouble() < TIKTOK_SHARE
+                ? "https://www.tiktok.com/@loadtest/video/" + (7_000_000_000_000_000_000L + video)
+                : String.format("https://youtu.be/lt%09d", video);
+    }
+
+    private static List<String> qualityButtons(JSONObject markup) {
+        List<String> choices = new ArrayList<>();
+        JSONArray rows = markup != null ? markup.optJSONArray("inline_keyboard") : null;
+        for (int r = 0; rows != null && r < rows.length(); r++) {
+            JSONArray row = rows.optJSONArray(r);
+            for (int b = 0; row != null && b < row.length(); b++) {
+                JSONObject button = row.optJSONObject(b);
+                CallbackData data = button != null ? CallbackData.parse(button.optString("callback_data", null)) : null;
+                if (data != null && !CallbackData.CANCEL.equals(data.choice())) {
+                    choices.add(button.getString("callback_data"));
+                }
+            }
+        }
+        return choices;
+    }
+
+    private void report(double seconds, Resources resources) {
+        long done = succeeded.sum();
+        long failed = failures.values().stream().mapToLong(LongAdder::sum).sum();
+        System.out.printf("%nFinished %d jobs in %.1f s: %.1f videos/s, %d failed, %d answered with a queue position%n",
+                done + failed, seconds, done / seconds, failed, queuedReplies.sum());
+        failures.forEach((reason, count) -> System.out.printf("  %-30s %d%n", reason, count.sum()));
+        if (lateEdits.sum() > 0) {
+            System.out.printf("  %d status edits arrived after the job's final answer%n", lateEdits.sum());
+        }
+        System.out.printf("%nLatency per stage in ms (bucket upper bounds, within 25%%):%n");
+        System.out.printf("  %-40s %7s %7s %7s %7s %7s%n", "", "count", "p50", "p90", "p99", "max");
+        for (Stage stage : Stage.values()) {
+            Histogram h = latencies.get(stage);
+            System.out.printf("  %-40s %7d %7.0f %7.0f %7.0f %7d%n", stage.label, h.count(), h.quantile(0.5),
+                    h.quantile(0.9), h.quantile(0.99), maxLatencies.get(stage).get());
+        }
+        long calls = api.callCounts().values().stream().mapToLong(Long::longValue).sum();
+        System.out.printf("%nBot API: %d calls, %.1f/s, %d taps sent, %.1f MB received%n", calls, calls / seconds,
+                taps.sum(), api.requestBytes() / 1024.0 / 1024.0);
+        api.callCounts().forEach((method, count) -> System.out.printf("  %-22s %d%n", method, count));
+        if (api.webhookRetries() > 0) {
+            System.out.printf("  %d webhook posts redelivered%n", api.webhookRetries());
+        }
+        System.out.printf("%nPeak heap used %d MB (max %d MB), peak threads %d, peak yt-dlp processes %d, "
+                        + "peak disk usage %.1f MB%n",
+                resources.peakHeap.get() / (1024 * 1024),
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax() / (1024 * 1024),
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), resources.peakProcesses.get(),
+                resources.peakDisk.get() / 1024.0 / 1024.0);
+    }
+
+    // Samples the JVM every 200 ms and the shared directory every second
+    private static final class Resources {
+        final AtomicLong peakHeap = new AtomicLong();
+        final AtomicLong peakProcesses = new AtomicLong();
+        final AtomicLong peakDisk = new AtomicLong();
+        private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "load-test-sampler");
+            t.setDaemon(true);
+            return t;
+        });
+
+        Resources(Path shared) {
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            sampler.scheduleAtFixedRate(() -> {
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                peakProcesses.accumulateAndGet(ProcessHandle.current().descendants().count(), Math::max);
+            }, 0, 200, TimeUnit.MILLISECONDS);
+            sampler.scheduleWithFixedDelay(() -> peakDisk.accumulateAndGet(du(shared), Math::max),
+                    0, 1, TimeUnit.SECONDS);
+        }
+
+        void stop() {
+            sampler.shutdownNow();
+        }
+
+        // Files come and go during the walk; a vanished one just counts as empty
+        private static long du(Path dir) {
+            try (Stream<Path> files = Files.walk(dir)) {
+                return files.mapToLong(file -> {
+                    try {
+                        return Files.isRegularFile(file) ? Files.size(file) : 0;
+                    } catch (IOException e) {
+                        return 0;
+                    }
+                }).sum();
+            } catch (IOException | UncheckedIOException e) {
+                return 0;
+            }
+        }
+    }
+
+    private static void setDefault(String key, String value) {
+        if (System.getenv(key) == null && System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    // Run from the project root or from benchmarks/
+    private static String fakeYtDlp() {
+        for (String candidate : List.of("scripts/fake_ytdlp.py", "../scripts/fake_ytdlp.py")) {
+            if (Files.isExecutable(Path.of(candidate))) {
+                return Path.of(candidate).toAbsolutePath().toString();
+            }
+        }
+        return "scripts/fake_ytdlp.py";
+    }
+}
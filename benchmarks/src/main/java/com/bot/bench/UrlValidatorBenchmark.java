@@ -0,0 +1,74 @@
+package com.bot.bench;
+
+import com.bot.util.UrlValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UrlValidatorBenchmark {
+
+    /**
+     * realistic: recorded chat messages, one link or none each.
+     * long: a few paragraphs of chatter with the link near the end.
+     * adversarial: near-miss hosts and very long URL-like tokens that keep the regexes busy.
+     */
+    @Param({"realistic", "long", "adversarial"})
+    public String messages;
+
+    private String[] texts;
+    private String[] words;
+
+    @Setup
+    public void setup() {
+        texts = switch (messages) {
+            case "realistic" -> Fixtures.load("chat-messages.txt").split("\n");
+            case "long" -> new String[] {
+                    "so I was thinking about what you said yesterday ".repeat(40)
+                            + "https://www.youtube.com/watch?v=dQw4w9WgXcQ anyway",
+                    "no links here, just a long message ".repeat(60)
+            };
+            case "adversarial" -> new String[] {
+                    "https://www.youtube.com/watch?" + "v=a&".repeat(2000),
+                    "https://youtube.com.evil.example/" + "x".repeat(4000),
+                    "https://www.tiktok.com/@" + "-".repeat(4000) + " https://vm.tiktok.com/ZM/",
+                    "https://" + "youtu.".repeat(1000) + "be",
+                    "a ".repeat(5000)
+            };
+            default -> throw new IllegalArgumentException(messages);
+        };
+        words = Arrays.stream(texts).flatMap(t -> Arrays.stream(t.trim().split("\\s+")))
+                .toArray(String[]::new);
+    }
+
+    @Benchmark
+    public void extractUrl(Blackhole bh) {
+        for (String text : texts) {
+            bh.consume(UrlValidator.extractUrl(text));
+        }
+    }
+
+    @Benchmark
+    public void isSupportedUrl(Blackhole bh) {
+        for (String word : words) {
+            bh.consume(UrlValidator.isSupportedUrl(word));
+        }
+    }
+}
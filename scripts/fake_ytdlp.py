@@ -0,0 +1,159 @@
+#!/usr/bin/env python3
+"""Stand-in for the yt-dlp binary (YTDLP_MODE=process) for exercising process supervision offline.
+
+Run the bot or ProcessYtDlpRunner against it with:
+  YTDLP_BINARY=scripts/fake_ytdlp.py
+The load test (benchmarks, com.bot.bench.LoadTest) uses it by default.
+
+Tunables (environment):
+  FAKE_YTDLP_BEHAVIOR  ok     probe or download normally (default)
+                       hang   start a child process ("ffmpeg"), print one line, then block forever
+                       stall  print progress for a while, then stop printing but keep running; a
+                              download stalls halfway, with its .part file on disk
+                       flood  print progress lines as fast as possible, forever
+  FAKE_YTDLP_DELAY_MS        time a download takes (default 200)
+  FAKE_YTDLP_PROBE_DELAY_MS  time a probe takes (default FAKE_YTDLP_DELAY_MS)
+  FAKE_YTDLP_SIZE_KB         size of the file written by a download (default 512)
+  FAKE_YTDLP_JITTER          random spread of delays and sizes, 0.5 = +-50% (default 0)
+  FAKE_YTDLP_FAIL_RATE       share of downloads that fail like an unavailable video (default 0)
+
+Probes print info JSON shaped like YouTube's (format ids, codecs, sizes scaled by duration);
+the same URL always gets the same duration and formats. Downloads write <file>.part and rename it
+when done; like yt-dlp, a download continues a .part file left in place by an interrupted run.
+--limit-rate slows a download down to the given rate.
+"""
+import json
+import os
+import random
+import subprocess
+import sys
+import time
+import zlib
+
+BEHAVIOR = os.environ.get("FAKE_YTDLP_BEHAVIOR", "ok")
+DELAY = int(os.environ.get("FAKE_YTDLP_DELAY_MS", "200")) / 1000.0
+PROBE_DELAY = int(os.environ.get("FAKE_YTDLP_PROBE_DELAY_MS", str(int(DELAY * 1000)))) / 1000.0
+SIZE_KB = int(os.environ.get("FAKE_YTDLP_SIZE_KB", "512"))
+JITTER = float(os.environ.get("FAKE_YTDLP_JITTER", "0"))
+FAIL_RATE = float(os.environ.get("FAKE_YTDLP_FAIL_RATE", "0"))
+
+# (format_id, height, fps, vcodec, video kbit/s); sizes follow from the bitrate and the duration
+VIDEO_FORMATS = ((160, 144, 30, "avc1.4d400c", 110), (133, 240, 30, "avc1.4d4015", 250),
+                 (134, 360, 30, "avc1.4d401e", 650), (135, 480, 30, "avc1.4d401f", 1200),
+                 (136, 720, 30, "avc1.4d401f", 2500), (137, 1080, 30, "avc1.640028", 4500),
+                 (299, 1080, 60, "avc1.64002a", 7000))
+
+
+def option(args, name, default=None):
+    return args[args.index(name) + 1] if name in args else default
+
+
+def jittered(value):
+    return value * random.uniform(1 - JITTER, 1 + JITTER) if JITTER > 0 else value
+
+
+def rate_limit(args):
+    value = option(args, "--limit-rate")
+    if not value:
+        return 0
+    units = {"K": 1024, "M": 1024 * 1024}
+    return float(value[:-1]) * units[value[-1].upper()] if value[-1].upper() in units else float(value)
+
+
+def progress(percent, size_kb=SIZE_KB):
+    print("[download] %5.1f%% of %dKiB at 1.00MiB/s ETA 00:01" % (percent, size_kb), flush=True)
+
+
+def misbehave():
+    if BEHAVIOR == "hang":
+        # Mimics yt-dlp waiting on ffmpeg; the supervisor must kill both
+        child = subprocess.Popen(["sleep", "100000"])
+        print("[Merger] Merging formats (ffmpeg pid %d)" % child.pid, flush=True)
+        child.wait()
+    elif BEHAVIOR == "stall":
+        for step in range(5):
+            progress(step * 10.0)
+            time.sleep(DELAY / 10)
+        stall()
+    elif BEHAVIOR == "flood":
+        percent = 0.0
+        while True:
+            progress(percent)
+            percent = (percent + 0.1) % 100
+
+
+def probe(args):
+    url = args[-1]
+    video = random.Random(zlib.crc32(url.encode()))
+    video_id = "%011x" % zlib.crc32(url.encode())
+    duration = video.randint(15, 1200)
+    formats = [{"format_id": "140", "ext": "m4a", "protocol": "https", "vcodec": "none", "acodec": "mp4a.40.2",
+                "abr": 129.5, "asr": 44100, "height": None, "width": None,
+                "filesize": duration * 130 * 1000 // 8, "filesize_approx": None,
+                "url": "https://rr1---sn-fake.googlevideo.com/videoplayback?itag=140&id=" + video_id}]
+    for format_id, height, fps, vcodec, kbps in VIDEO_FORMATS[:video.randint(4, len(VIDEO_FORMATS))]:
+        size = duration * kbps * 1000 // 8
+        formats.append({"format_id": str(format_id), "ext": "mp4", "protocol": "https", "vcodec": vcodec,
+                        "acodec": "none", "height": height, "width": height * 16 // 9, "fps": fps, "tbr": kbps,
+                        # yt-dlp only knows the exact size for some formats
+                        "filesize": size if video.random() < 0.5 else None,
+                        "filesize_approx": size,
+                        "url": "https://rr1---sn-fake.googlevideo.com/videoplayback?itag=%d&id=%s"
+                               % (format_id, video_id)})
+    time.sleep(jittered(PROBE_DELAY))
+    print(json.dumps({"id": video_id, "title": "fake-video-" + video_id, "duration": duration,
+                      "webpage_url": url, "extractor": "youtube", "extractor_key": "Youtube",
+                      "uploader": "Load Test", "view_count": video.randint(0, 10 ** 7),
+                      "thumbnail": "https://i.ytimg.com/vi/%s/maxresdefault.jpg" % video_id,
+                      "formats": formats}), flush=True)
+
+
+def stall():
+    while True:
+        time.sleep(60)
+
+
+def download(args):
+    template = option(args, "-o", "fake.%(ext)s")
+    path = template.replace("%(title).80s", "fake-video").replace("%(ext)s", "mp4")
+    part = path + ".part"
+    steps = 10
+    delay = jittered(DELAY)
+    size_kb = max(1, int(jittered(SIZE_KB)))
+    chunk = size_kb * 1024 // steps
+    limit = rate_limit(args)
+    step_delay = max(delay / steps, chunk / limit if limit else 0)
+    done = min(steps, os.path.getsize(part) // chunk) if chunk and os.path.exists(part) else 0
+    if done:
+        print("[download] Resuming download at byte %d" % (done * chunk), flush=True)
+    fail_at = random.randint(1, steps) if random.random() < FAIL_RATE else None
+    with open(part, "r+b" if done else "wb") as f:
+        f.seek(done * chunk)
+        f.truncate()
+        for step in range(done + 1, steps + 1):
+            if BEHAVIOR == "stall" and step > steps // 2:
+                stall()
+            time.sleep(step_delay)
+            if step == fail_at:
+                print("ERROR: [youtube] fake: Video unavailable. This video is not available", file=sys.stderr,
+                      flush=True)
+                sys.exit(1)
+            f.write(os.urandom(chunk))
+            # A kill leaves what was written so far, for the next run to resume
+            f.flush()
+            progress(step * 100.0 / steps, size_kb)
+    os.replace(part, path)
+
+
+def main():
+    args = sys.argv[1:]
+    if BEHAVIOR in ("hang", "flood") or (BEHAVIOR == "stall" and "--dump-json" in args):
+        misbehave()
+    elif "--dump-json" in args:
+        probe(args)
+    else:
+        download(args)
+
+
+if __name__ == "__main__":
+    main()
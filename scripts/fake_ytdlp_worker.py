@@ -0,0 +1,119 @@
+"""Stand-in for src/main/resources/ytdlp_worker.py that needs neither yt-dlp nor network access.
+
+Run the bot or YtDlpWorkerPool against it with:
+  YTDLP_MODE=pool YTDLP_WORKER_COMMAND="python3 scripts/fake_ytdlp_worker.py"
+
+Tunables (environment):
+  FAKE_YTDLP_DELAY_MS    time a probe or download takes (default 200)
+  FAKE_YTDLP_SIZE_KB     size of the file written by a download (default 512)
+  FAKE_YTDLP_CRASH_EVERY exit the process after this many requests, 0 = never (default 0)
+
+Downloads write <file>.part and rename it when done. A cancelled download leaves its .part file,
+and the next download to the same path continues it, as yt-dlp does.
+"""
+import json
+import os
+import sys
+import threading
+import time
+
+DELAY = int(os.environ.get("FAKE_YTDLP_DELAY_MS", "200")) / 1000.0
+SIZE_KB = int(os.environ.get("FAKE_YTDLP_SIZE_KB", "512"))
+CRASH_EVERY = int(os.environ.get("FAKE_YTDLP_CRASH_EVERY", "0"))
+
+out_lock = threading.Lock()
+cancelled = set()
+pending = []
+pending_ready = threading.Condition()
+
+
+def emit(event):
+    with out_lock:
+        sys.stdout.write(json.dumps(event) + "\n")
+        sys.stdout.flush()
+
+
+def read_requests():
+    for line in sys.stdin:
+        request = json.loads(line)
+        if request.get("op") == "cancel":
+            cancelled.add(request.get("target"))
+            continue
+        with pending_ready:
+            pending.append(request)
+            pending_ready.notify()
+    with pending_ready:
+        pending.append(None)
+        pending_ready.notify()
+
+
+def option(args, name, default=None):
+    return args[args.index(name) + 1] if name in args else default
+
+
+def probe(request_id, args, info_path=None):
+    time.sleep(DELAY)
+    formats = [{"vcodec": "none", "acodec": "mp4a.40.2", "height": None, "filesize": 3 * 1024 * 1024,
+                "filesize_approx": None}]
+    for height, mb in ((360, 10), (720, 40), (1080, 90)):
+        formats.append({"vcodec": "avc1", "acodec": "none", "height": height, "filesize": None,
+                        "filesize_approx": mb * 1024 * 1024})
+    if info_path:
+        with open(info_path, "w") as f:
+            json.dump({"id": "fake", "title": "fake-video", "formats": formats}, f)
+    emit({"id": request_id, "type": "result", "info": {"formats": formats}})
+
+
+def download(request_id, args):
+    template = option(args, "-o", "fake.%(ext)s")
+    path = template.replace("%(title).80s", "fake-video").replace("%(ext)s", "mp4")
+    part = path + ".part"
+    steps = 10
+    chunk = SIZE_KB * 1024 // steps
+    done = min(steps, os.path.getsize(part) // chunk) if chunk and os.path.exists(part) else 0
+    if done:
+        emit({"id": request_id, "type": "output", "data": "[download] Resuming download at byte %d" % (done * chunk)})
+    with open(part, "r+b" if done else "wb") as f:
+        f.seek(done * chunk)
+        f.truncate()
+        for step in range(done + 1, steps + 1):
+            if request_id in cancelled:
+                emit({"id": request_id, "type": "exit", "code": 130})
+                return
+            time.sleep(DELAY / steps)
+            f.write(os.urandom(chunk))
+            f.flush()
+            emit({"id": request_id, "type": "output",
+                  "data": "[download] %5.1f%% of %dKiB at 1.00MiB/s ETA 00:01" % (step * 100.0 / steps, SIZE_KB)})
+    os.replace(part, path)
+    emit({"id": request_id, "type": "exit", "code": 0})
+
+
+def main():
+    threading.Thread(target=read_requests, daemon=True).start()
+    served = 0
+    while True:
+        with pending_ready:
+            while not pending:
+                pending_ready.wait()
+            request = pending.pop(0)
+        if request is None:
+            return
+        request_id = request.get("id")
+        op = request.get("op")
+        if op == "ping":
+            emit({"id": request_id, "type": "result"})
+            continue
+        served += 1
+        if CRASH_EVERY and served % CRASH_EVERY == 0:
+            os._exit(1)
+        if op == "probe":
+            probe(request_id, request.get("args", []), request.get("info_path"))
+        elif op == "download":
+            download(request_id, request.get("args", []))
+        else:
+            emit({"id": request_id, "type": "error", "message": "unknown op: %s" % op})
+
+
+if __name__ == "__main__":
+    main()
@@ -1,12 +1,20 @@
 package com.bot;
 
+import com.bot.metrics.MetricsServer;
+import com.bot.telegram.WebhookReceiver;
+import com.bot.util.Env;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class App {
 
     private static final Logger log = LoggerFactory.getLogger(App.class);
@@ -15,6 +23,13 @@ public class App {
         String botToken = requireEnv("BOT_TOKEN");
         String botUsername = requireEnv("BOT_USERNAME");
         String apiBaseUrl = System.getenv("TELEGRAM_API_BASE_URL");
+        AtomicBoolean ready = new AtomicBoolean();
+
+        try {
+            MetricsServer.fromEnv(ready::get);
+        } catch (IOException e) {
+            log.error("Failed to start metrics endpoint", e);
+        }
 
         try {
             DefaultBotOptions options = new DefaultBotOptions();
@@ -23,15 +38,53 @@ public class App {
                 log.info("Using local API server: {}", apiBaseUrl);
             }
 
-            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-            botsApi.registerBot(new VideoDownloaderBot(options, botToken, botUsername));
+            // BOT_ROLE=worker only runs downloads from the shared queue; "receiver" only handles updates
+            String role = Env.get("BOT_ROLE", "all").toLowerCase();
+            VideoDownloaderBot bot = new VideoDownloaderBot(options, botToken, botUsername, !role.equals("receiver"));
+            if (role.equals("worker")) {
+                if (!bot.hasSharedQueue()) {
+                    log.error("BOT_ROLE=worker needs JOB_QUEUE=shared");
+                    System.exit(1);
+                }
+                log.info("Running as a queue worker, not receiving updates");
+            } else if ("webhook".equalsIgnoreCase(Env.get("UPDATE_MODE", "polling"))) {
+                startWebhook(bot);
+            } else {
+                // Registering a long polling bot also removes any webhook left from webhook mode
+                TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+                botsApi.registerBot(bot);
+            }
+            ready.set(true);
             log.info("Bot started successfully");
-        } catch (TelegramApiException e) {
+        } catch (TelegramApiException | IOException e) {
             log.error("Failed to start bot", e);
             System.exit(1);
         }
     }
 
+    private static void startWebhook(VideoDownloaderBot bot) throws IOException, TelegramApiException {
+        String url = requireEnv("WEBHOOK_URL");
+        String secret = Env.get("WEBHOOK_SECRET");
+        if (secret == null) {
+            // Each replica re-registers the webhook on start; with per-process secrets all but the last get 401s
+            if (bot.hasSharedQueue()) {
+                log.error("UPDATE_MODE=webhook with JOB_QUEUE=shared needs WEBHOOK_SECRET, the same on every instance");
+                System.exit(1);
+            }
+            // Re-registered on every start, so a per-process secret is enough for a single instance
+            secret = WebhookReceiver.randomSecret();
+            log.info("WEBHOOK_SECRET is not set, using a generated secret token");
+        }
+        WebhookReceiver.fromEnv(secret, bot::onUpdateReceived);
+        bot.execute(SetWebhook.builder()
+                .url(url)
+                .secretToken(secret)
+                .maxConnections(Env.getInt("WEBHOOK_MAX_CONNECTIONS", 40))
+                .allowedUpdates(List.of("message", "callback_query"))
+                .build());
+        log.info("Webhook registered at {}", url);
+    }
+
     private static String requireEnv(String name) {
         String value = System.getenv(name);
         if (value == null || value.isBlank()) {
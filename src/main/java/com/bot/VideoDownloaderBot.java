@@ -1,44 +1,165 @@
 package com.bot;
 
+import com.bot.cache.FileIdCache;
+import com.bot.downloader.ProcessTimeoutException;
+import com.bot.downloader.SpeculativeDownloads;
+import com.bot.downloader.VideoPostProcessor;
+import com.bot.downloader.VideoPostProcessor.Prepared;
 import com.bot.downloader.YtDlpDownloader;
 import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import com.bot.job.CancellableJobs;
+import com.bot.job.JobJournal;
+import com.bot.job.JobQueue;
+import com.bot.job.JobQueue.DownloadJob;
+import com.bot.job.JobQueueWorker;
+import com.bot.job.JobScheduler;
+import com.bot.job.JobScheduler.Stage;
+import com.bot.logging.BotLoggingProvider;
+import com.bot.metrics.Metrics;
+import com.bot.selection.CallbackData;
+import com.bot.selection.QualityKeyboard;
+import com.bot.selection.SelectionHistory;
+import com.bot.selection.SelectionStore;
+import com.bot.selection.SelectionStore.Selection;
+import com.bot.storage.InsufficientStorageException;
+import com.bot.storage.StorageManager;
+import com.bot.telegram.StatusEditThrottler;
+import com.bot.telegram.TelegramGateway;
+import com.bot.telegram.TelegramGateway.Lane;
+import com.bot.telegram.UploadStats;
+import com.bot.util.Env;
 import com.bot.util.UrlValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.bots.DefaultBotOptions;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.ApiConstants;
 import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.methods.send.SendVideo;
 import org.telegram.telegrambots.meta.api.methods.updatingmessages.EditMessageText;
 import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.InputFile;
+import org.telegram.telegrambots.meta.api.objects.Message;
 import org.telegram.telegrambots.meta.api.objects.Update;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
-import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 public class VideoDownloaderBot extends TelegramLongPollingBot {
 
     private static final Logger log = LoggerFactory.getLogger(VideoDownloaderBot.class);
     private static final long MAX_FILE_SIZE_MB = 2000;
-    private static final long PENDING_EXPIRY_MS = 30 * 60 * 1000;
+    private static final int JOB_NEW = 0;
+    private static final int JOB_QUEUED = 1;
+    private static final int JOB_STARTED = 2;
 
     private final String botUsername;
-    private final YtDlpDownloader downloader = new YtDlpDownloader();
-
-    private record PendingDownload(String url, int messageId, long createdAt) {}
-    private final ConcurrentHashMap<String, PendingDownload> pendingDownloads = new ConcurrentHashMap<>();
-
-    public VideoDownloaderBot(DefaultBotOptions options, String botToken, String botUsername) {
+    private final StorageManager storage = StorageManager.fromEnv();
+    private final YtDlpDownloader downloader = new YtDlpDownloader(storage);
+    private final VideoPostProcessor postProcessor = VideoPostProcessor.fromEnv();
+    private final JobScheduler scheduler = JobScheduler.fromEnv();
+    private final FileIdCache fileIdCache = FileIdCache.fromEnv();
+    private final UploadStats uploadStats = UploadStats.fromEnv(storage.root());
+    private final TelegramGateway gateway = TelegramGateway.fromEnv();
+    private final boolean localFileUpload;
+    private final StatusEditThrottler statusEdits = StatusEditThrottler.fromEnv(this::editMessage);
+    // Status messages of local downloads that show a Cancel button
+    private final CancellableJobs cancellable = new CancellableJobs();
+
+    private final SelectionStore selections = SelectionStore.fromEnv();
+    private final SelectionHistory selectionHistory = SelectionHistory.fromEnv();
+    // Null unless SPECULATIVE_DOWNLOADS=true; a speculation is keyed by its keyboard's selection token
+    private final SpeculativeDownloads speculative;
+    // Null unless JOB_QUEUE=shared; downloads then go through the queue so any replica can run them
+    private final JobQueue jobQueue;
+    // Null unless JOB_JOURNAL=true with the local queue; jobs are keyed by chat and status message
+    private final JobJournal journal;
+
+    /**
+     * @param claimJobs whether this instance runs downloads from the shared queue; ignored without one
+     */
+    public VideoDownloaderBot(DefaultBotOptions options, String botToken, String botUsername, boolean claimJobs)
+            throws IOException {
         super(options, botToken);
         this.botUsername = botUsername;
+        // Only a local Bot API server sharing /tmp/shared can open file:// paths
+        this.localFileUpload = Env.getBoolean("TELEGRAM_LOCAL_FILE_UPLOAD",
+                !ApiConstants.BASE_URL.equals(options.getBaseUrl()));
+        this.jobQueue = JobQueue.fromEnv(storage.root());
+        // A speculative file lives in this process, but with a shared queue another replica runs the download
+        this.speculative = jobQueue == null ? SpeculativeDownloads.fromEnv(downloader, storage) : null;
+        if (jobQueue != null && Env.getBoolean("SPECULATIVE_DOWNLOADS", false)) {
+            log.warn("SPECULATIVE_DOWNLOADS is ignored with JOB_QUEUE=shared");
+        }
+        // The shared queue keeps its jobs on disk already
+        this.journal = jobQueue == null ? JobJournal.fromEnv(storage.root()) : null;
+        if (jobQueue != null && Env.getBoolean("JOB_JOURNAL", false)) {
+            log.warn("JOB_JOURNAL is ignored with JOB_QUEUE=shared");
+        }
+        if (jobQueue != null && claimJobs) {
+            JobQueueWorker worker = new JobQueueWorker(jobQueue,
+                    Env.getInt("JOB_QUEUE_CLAIM_THREADS", Env.getInt("DOWNLOAD_CONCURRENCY", 2)), this::runClaimed);
+            Runtime.getRuntime().addShutdownHook(new Thread(worker::shutdown, "job-queue-shutdown"));
+        }
+        registerGauges();
+        if (journal != null) {
+            resumeInterrupted();
+        }
+    }
+
+    public boolean hasSharedQueue() {
+        return jobQueue != null;
+    }
+
+    private void registerGauges() {
+        Metrics.gauge("job_queue_depth", "Jobs waiting for a worker", scheduler::queuedJobs);
+        if (jobQueue != null) {
+            Metrics.gauge("shared_job_queue_depth", "Jobs waiting in the shared queue for any replica", jobQueue::pending);
+        }
+        for (Stage stage : Stage.values()) {
+            Metrics.gauge("stage_free_slots", "Free concurrency slots per pipeline stage",
+                    () -> scheduler.availableSlots(stage), "stage", stage.name().toLowerCase());
+        }
+        for (Lane lane : Lane.values()) {
+            Metrics.gauge("telegram_queue_depth", "Outbound Bot API calls waiting per lane",
+                    () -> gateway.queueDepth(lane), "lane", lane.name().toLowerCase());
+        }
+        Metrics.counter("telegram_calls_sent_total", "Bot API calls that succeeded", gateway::sentCount);
+        Metrics.counter("telegram_calls_failed_total", "Bot API calls that failed permanently", gateway::failedCount);
+        Metrics.counter("telegram_calls_retried_total", "Bot API call retries", gateway::retriedCount);
+        Metrics.counter("telegram_rate_limited_total", "Bot API 429 responses", gateway::rateLimitedCount);
+        Metrics.counter("telegram_edits_coalesced_total", "Queued edits replaced by a newer one", gateway::coalescedCount);
+        Metrics.counter("file_id_cache_hits_total", "Videos re-sent from a cached file_id", fileIdCache::hits);
+        Metrics.counter("file_id_cache_misses_total", "file_id cache lookups without a usable entry", fileIdCache::misses);
+        Metrics.gauge("file_id_cache_entries", "Entries in the file_id cache", fileIdCache::size);
+        Metrics.counter("probe_cache_hits_total", "Probes answered from the probe cache",
+                () -> downloader.probeCacheStats().hits());
+        Metrics.counter("probe_cache_coalesced_total", "Probes that joined one already in flight",
+                () -> downloader.probeCacheStats().coalesced());
+        Metrics.counter("log_lines_dropped_total", "Log lines dropped because the log writer fell behind",
+                BotLoggingProvider::droppedLines);
+        Metrics.gauge("storage_usable_bytes", "Free bytes on the shared volume", storage::usableBytes);
+        Metrics.gauge("storage_reserved_bytes", "Bytes reserved by running downloads", storage::reservedBytes);
+        Metrics.counter("storage_rejected_reservations_total", "Downloads refused for lack of disk space",
+                storage::rejectedReservations);
+        Metrics.counter("storage_swept_bytes_total", "Bytes removed from orphaned job directories", storage::sweptBytes);
+        Metrics.gauge("selections_pending", "Quality keyboards waiting for a choice", selections::size);
+        if (speculative != null) {
+            Metrics.gauge("speculative_downloads_running", "Speculative downloads in progress", speculative::running);
+        }
     }
 
     @Override
@@ -48,12 +169,19 @@ public class VideoDownloaderBot extends TelegramLongPollingBot {
 
     @Override
     public void onUpdateReceived(Update update) {
-        if (update.hasCallbackQuery()) {
-            handleCallbackQuery(update.getCallbackQuery());
-            return;
-        }
-        if (update.hasMessage() && update.getMessage().hasText()) {
-            handleTextMessage(update);
+        long started = System.nanoTime();
+        String type = "other";
+        try {
+            if (update.hasCallbackQuery()) {
+                type = "callback";
+                handleCallbackQuery(update.getCallbackQuery());
+            } else if (update.hasMessage() && update.getMessage().hasText()) {
+                type = "message";
+                handleTextMessage(update);
+            }
+        } finally {
+            Metrics.histogram("update_handle_duration_seconds", "Time spent handling an update on the polling thread",
+                    1000, "type", type).record((System.nanoTime() - started) / 1_000_000);
         }
     }
 
@@ -66,7 +194,7 @@ public class VideoDownloaderBot extends TelegramLongPollingBot {
                     Welcome! Send me a YouTube or TikTok link and I'll download the video for you.
 
                     Supported links:
-                    - YouTube (youtube.com, youtu.be, shorts)
+                    - YouTube (youtube.com, m.youtube.com, music.youtube.com, youtu.be, shorts, live)
                     - TikTok (tiktok.com, vm.tiktok.com)""");
             return;
         }
@@ -79,13 +207,40 @@ public class VideoDownloaderBot extends TelegramLongPollingBot {
         }
         log.info("Extracted URL: {}", url);
 
-        int probeMsgId = sendTextAndGetId(chatId, "Checking available qualities...");
+        // The send waits for the chat's rate limit, so the rest follows on its future, off the polling thread
+        String startText = "Checking available qualities...";
+        sendTextAsync(chatId, startText).whenComplete((sent, e) -> {
+            if (e != null) {
+                log.error("Failed to send message", e);
+                return;
+            }
+            int probeMsgId = sent.getMessageId();
+            if (journal != null) {
+                journal.queued(chatId, probeMsgId, url);
+            }
+            submitProbe(chatId, probeMsgId, url, startText);
+        });
+    }
 
-        List<FormatInfo> allFormats = downloader.fetchAvailableFormats(url);
+    private void submitProbe(String chatId, int probeMsgId, String url, String startText) {
+        if (!submitJob(chatId, probeMsgId, startText, Stage.PROBE, () -> probeAndOffer(chatId, probeMsgId, url))) {
+            journalDone(chatId, probeMsgId);
+        }
+    }
+
+    private void probeAndOffer(String chatId, int probeMsgId, String url) {
+        journalTransition(chatId, probeMsgId, JobJournal.State.PROBING);
+        List<FormatInfo> allFormats;
+        try {
+            allFormats = scheduler.inStage(Stage.PROBE, () -> downloader.fetchAvailableFormats(url));
+        } catch (Exception e) {
+            log.error("Failed to probe formats: {}", url, e);
+            allFormats = List.of();
+        }
 
         if (allFormats.size() <= 1) {
-            editMessage(chatId, probeMsgId, "Downloading your video...");
-            downloadAndSend(chatId, probeMsgId, url, null);
+            long estimatedSizeMb = allFormats.isEmpty() ? 0 : allFormats.get(0).estimatedSizeMb();
+            sendCachedOrDownload(chatId, probeMsgId, url, estimatedSizeMb);
             return;
         }
 
@@ -100,17 +255,16 @@ public class VideoDownloaderBot extends TelegramLongPollingBot {
         if (downloadable.isEmpty()) {
             editMessage(chatId, probeMsgId,
                     "This video is too large for Telegram (limit " + MAX_FILE_SIZE_MB + " MB) at all available qualities.");
+            journalDone(chatId, probeMsgId);
             return;
         }
 
         if (downloadable.size() == 1 && tooLarge.isEmpty()) {
-            editMessage(chatId, probeMsgId, "Downloading your video...");
-            downloadAndSend(chatId, probeMsgId, url, null);
+            sendCachedOrDownload(chatId, probeMsgId, url, downloadable.get(0).estimatedSizeMb());
             return;
         }
 
-        PendingDownload pending = new PendingDownload(url, probeMsgId, System.currentTimeMillis());
-        pendingDownloads.put(chatId, pending);
+        String token = selections.put(chatId, probeMsgId, url, UrlValidator.videoKey(url), downloadable);
 
         StringBuilder message = new StringBuilder("Select video quality:");
         if (!tooLarge.isEmpty()) {
@@ -120,8 +274,51 @@ public class VideoDownloaderBot extends TelegramLongPollingBot {
             message.append("\n\nUnavailable due to Telegram 2 GB limit: ").append(skipped);
         }
 
-        InlineKeyboardMarkup keyboard = buildQualityKeyboard(downloadable);
+        InlineKeyboardMarkup keyboard = QualityKeyboard.build(token, downloadable);
         editMessageWithKeyboard(chatId, probeMsgId, message.toString(), keyboard);
+        journalTransition(chatId, probeMsgId, JobJournal.State.OFFERED);
+        speculate(token, chatId, url, downloadable);
+    }
+
+    // Uses the time the user spends choosing to download the likely choice
+    private void speculate(String token, String chatId, String url, List<FormatInfo> offered) {
+        if (speculative == null) {
+            return;
+        }
+        String choice = selectionHistory.predict(chatId, offered);
+        String formatSelector = formatSelectorFor(choice);
+        if (fileIdCache.contains(FileIdCache.key(UrlValidator.videoKey(url), formatSelector))) {
+            return;
+        }
+        speculative.start(token, url, choice, formatSelector, estimatedSizeFor(choice, offered));
+    }
+
+    // choice is CallbackData.BEST or a height
+    private static String formatSelectorFor(String choice) {
+        return CallbackData.BEST.equals(choice) ? null : YtDlpDownloader.buildFormatSelector(Integer.parseInt(choice));
+    }
+
+    private static long estimatedSizeFor(String choice, List<FormatInfo> formats) {
+        if (CallbackData.BEST.equals(choice)) {
+            return formats.stream().mapToLong(FormatInfo::estimatedSizeMb).max().orElse(0);
+        }
+        int height = Integer.parseInt(choice);
+        return formats.stream()
+                .filter(f -> f.height() == height)
+                .mapToLong(FormatInfo::estimatedSizeMb)
+                .findFirst().orElse(0);
+    }
+
+    // Nothing to choose from. The probe job does not wait for a cached copy to be sent, and a
+    // download becomes a job of its own, started once a download slot is free.
+    private void sendCachedOrDownload(String chatId, int statusMessageId, String url, long estimatedSizeMb) {
+        sendFromCache(chatId, statusMessageId, UrlValidator.videoKey(url), null).whenComplete((sent, e) -> {
+            if (Boolean.TRUE.equals(sent)) {
+                journalDone(chatId, statusMessageId);
+            } else {
+                startChosen(chatId, statusMessageId, "Downloading your video...", url, null, estimatedSizeMb, null);
+            }
+        });
     }
 
     private void handleCallbackQuery(CallbackQuery callback) {
@@ -131,171 +328,484 @@ public class VideoDownloaderBot extends TelegramLongPollingBot {
 
         answerCallback(callbackId);
 
-        PendingDownload pending = pendingDownloads.get(chatId);
-        if (pending == null || System.currentTimeMillis() - pending.createdAt() > PENDING_EXPIRY_MS) {
-            pendingDownloads.remove(chatId);
-            editMessage(chatId, callback.getMessage().getMessageId(), "Selection expired. Please send the link again.");
+        int messageId = callback.getMessage().getMessageId();
+        if (CallbackData.CANCEL_DOWNLOAD.equals(data)) {
+            if (cancellable.cancel(chatId, messageId)) {
+                log.info("Download for chat {} cancelled by the user", chatId);
+            }
+            return;
+        }
+        CallbackData choice = CallbackData.parse(data);
+        if (choice != null && !CallbackData.CANCEL.equals(choice.choice())
+                && !CallbackData.BEST.equals(choice.choice()) && choice.height() <= 0) {
+            return;
+        }
+        Selection pending = choice != null ? selections.take(choice.token(), chatId, messageId) : null;
+        if (pending == null && isRunning(chatId, messageId)) {
+            // A repeated tap on a keyboard whose job already started; its status message stays as it is
+            return;
+        }
+        if (pending == null) {
+            editMessage(chatId, messageId, "Selection expired. Please send the link again.");
+            journalDone(chatId, messageId);
             return;
         }
 
-        if ("q:cancel".equals(data)) {
-            pendingDownloads.remove(chatId);
+        if (CallbackData.CANCEL.equals(choice.choice())) {
+            if (speculative != null) {
+                speculative.cancel(choice.token());
+            }
             editMessage(chatId, pending.messageId(), "Download cancelled.");
+            journalDone(chatId, pending.messageId());
             return;
         }
 
-        String formatSelector;
-        String qualityLabel;
+        String qualityLabel = CallbackData.BEST.equals(choice.choice()) ? "best quality" : choice.height() + "p";
+        String formatSelector = formatSelectorFor(choice.choice());
+        long estimatedSizeMb = estimatedSizeFor(choice.choice(), pending.formats());
+
+        selectionHistory.record(chatId, choice.choice());
+        int statusMessageId = pending.messageId();
+        SpeculativeDownloads.Adopted adopted = speculative == null ? null : speculative.adopt(choice.token(),
+                choice.choice(), progress -> statusEdits.update(chatId, statusMessageId, "Downloading... " + progress.describe()));
+        String startText = "Downloading in " + qualityLabel + "...";
+        if (adopted != null) {
+            startChosen(chatId, statusMessageId, startText, pending.url(), formatSelector, estimatedSizeMb, adopted);
+            return;
+        }
+        // A cached copy is sent off the polling thread. Until that is settled the detached handle
+        // marks the job as running, so a repeated tap leaves the status message alone.
+        CancellableJobs.Handle sending = cancellable.register(chatId, statusMessageId);
+        sending.detach();
+        sendFromCache(chatId, statusMessageId, pending.videoKey(), formatSelector).whenComplete((sent, e) -> {
+            if (Boolean.TRUE.equals(sent)) {
+                journalDone(chatId, statusMessageId);
+            } else {
+                startChosen(chatId, statusMessageId, startText, pending.url(), formatSelector, estimatedSizeMb, null);
+            }
+            sending.close();
+        });
+    }
 
-        if ("q:best".equals(data)) {
-            formatSelector = null;
-            qualityLabel = "best quality";
-        } else if (data.startsWith("q:")) {
-            int height = Integer.parseInt(data.substring(2));
-            formatSelector = YtDlpDownloader.buildFormatSelector(height);
-            qualityLabel = height + "p";
-        } else {
+    private void startChosen(String chatId, int statusMessageId, String startText, String url, String formatSelector,
+                             long estimatedSizeMb, SpeculativeDownloads.Adopted adopted) {
+        if (jobQueue != null) {
+            enqueueShared(chatId, statusMessageId, startText, url, formatSelector, estimatedSizeMb);
             return;
         }
+        if (journal != null) {
+            journal.chosen(chatId, statusMessageId, url, formatSelector, estimatedSizeMb, startText);
+        }
+        submitDownload(chatId, statusMessageId, startText, url, formatSelector, estimatedSizeMb, adopted);
+    }
 
-        pendingDownloads.remove(chatId);
-        editMessage(chatId, pending.messageId(), "Downloading in " + qualityLabel + "...");
-        downloadAndSend(chatId, pending.messageId(), pending.url(), formatSelector);
+    // A job for the status message still runs here or, with a shared queue, waits or runs on any replica
+    private boolean isRunning(String chatId, int messageId) {
+        return cancellable.isRunning(chatId, messageId)
+                || journal != null && journal.isRunning(chatId, messageId)
+                || jobQueue != null && jobQueue.contains(chatId, messageId);
+    }
+
+    private void submitDownload(String chatId, int statusMessageId, String startText, String url, String formatSelector,
+                                long estimatedSizeMb, SpeculativeDownloads.Adopted adopted) {
+        CancellableJobs.Handle cancel = cancellable.register(chatId, statusMessageId);
+        editMessage(chatId, statusMessageId, startText);
+        // An adopted speculation downloads outside the stage, so waiting for a download slot would only delay it
+        boolean accepted = submitJob(chatId, statusMessageId, startText, adopted == null ? Stage.DOWNLOAD : null,
+                () -> downloadAndSend(chatId, statusMessageId, url, formatSelector, estimatedSizeMb,
+                        adopted, cancel, () -> true));
+        if (!accepted) {
+            cancel.close();
+            if (adopted != null) {
+                adopted.discard();
+            }
+            journalDone(chatId, statusMessageId);
+        }
+    }
+
+    /**
+     * Picks up the jobs a previous run left unfinished. Jobs without a chosen quality are probed
+     * again, which also replaces a keyboard whose buttons no longer match; downloads continue in
+     * the temp directory they had, so yt-dlp resumes from its .part files.
+     */
+    private void resumeInterrupted() {
+        List<JobJournal.Entry> interrupted = journal.takeInterrupted();
+        for (JobJournal.Entry job : interrupted) {
+            String chatId = job.chatId();
+            int messageId = job.messageId();
+            log.info("Resuming {} job for chat {}: {}", job.state().name().toLowerCase(), chatId, job.url());
+            if (!job.chosen()) {
+                String text = "The bot restarted, checking available qualities again...";
+                editMessage(chatId, messageId, text);
+                submitProbe(chatId, messageId, job.url(), text);
+                continue;
+            }
+            String text = job.jobDir() != null ? "The bot restarted, resuming your download..." : job.startText();
+            submitDownload(chatId, messageId, text, job.url(), job.formatSelector(), job.estimatedSizeMb(), null);
+        }
+        if (!interrupted.isEmpty()) {
+            Metrics.counter("jobs_resumed_total", "Jobs picked up again after a restart").add(interrupted.size());
+        }
     }
 
-    private void downloadAndSend(String chatId, int statusMessageId, String url, String formatSelector) {
+    private void journalTransition(String chatId, int messageId, JobJournal.State state) {
+        if (journal != null) {
+            journal.transition(chatId, messageId, state);
+        }
+    }
+
+    private void journalDone(String chatId, int messageId) {
+        if (journal != null) {
+            journal.done(chatId, messageId);
+        }
+    }
+
+    // With a journal the directory is recorded before yt-dlp starts, so a restart can continue its .part files
+    private Path jobDirFor(String chatId, int messageId) throws IOException {
+        if (journal == null) {
+            return storage.createJobDir();
+        }
+        Path dir = journal.jobDir(chatId, messageId);
+        if (dir == null || !storage.adoptJobDir(dir)) {
+            dir = storage.createJobDir();
+        }
+        journal.downloading(chatId, messageId, dir);
+        return dir;
+    }
+
+    private void enqueueShared(String chatId, int statusMessageId, String startText, String url, String formatSelector,
+                               long estimatedSizeMb) {
+        try {
+            int ahead = jobQueue.enqueue(chatId, statusMessageId, startText, url, formatSelector, estimatedSizeMb);
+            editMessage(chatId, statusMessageId, ahead > 0 ? "Queued, position " + ahead + ". Please wait..." : startText);
+        } catch (IOException e) {
+            log.error("Failed to enqueue download of {}", url, e);
+            editMessage(chatId, statusMessageId, "The bot is busy right now. Please try again in a few minutes.");
+        }
+    }
+
+    // A claimed job may come from another replica; chat and status message ids are all it needs to report back
+    private void runClaimed(JobQueue.Claim claim) {
+        DownloadJob job = claim.job();
+        AtomicBoolean lost = new AtomicBoolean();
+        claim.onLost(() -> lost.set(true));
+        log.info("Running shared job {} (attempt {}) for chat {}", job.id(), claim.attempt(), job.chatId());
+        editMessage(job.chatId(), job.statusMessageId(), job.statusText());
+        boolean finished = downloadAndSend(job.chatId(), job.statusMessageId(), job.url(), job.formatSelector(),
+                job.estimatedSizeMb(), null, null, () -> !lost.get());
+        // Interrupted by a shutdown: hand the job back so another worker picks it up
+        if (finished) {
+            claim.complete();
+        } else {
+            claim.release();
+        }
+    }
+
+    // startText restores the status message if the job had to wait in the queue; returns false if it was rejected
+    private boolean submitJob(String chatId, int statusMessageId, String startText, Stage stage, Runnable job) {
+        AtomicInteger state = new AtomicInteger(JOB_NEW);
+        try {
+            int ahead = scheduler.submit(chatId, stage, () -> {
+                synchronized (state) {
+                    if (state.getAndSet(JOB_STARTED) == JOB_QUEUED) {
+                        editMessage(chatId, statusMessageId, startText);
+                    }
+                }
+                job.run();
+            });
+            if (ahead > 0) {
+                synchronized (state) {
+                    if (state.compareAndSet(JOB_NEW, JOB_QUEUED)) {
+                        editMessage(chatId, statusMessageId, "Queued, position " + ahead + ". Please wait...");
+                    }
+                }
+            }
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.warn("Rejected job for chat {}: {}", chatId, e.getMessage());
+            editMessage(chatId, statusMessageId, "The bot is busy right now. Please try again in a few minutes.");
+            return false;
+        }
+    }
+
+    // A non-null speculation already downloads this choice and holds its own reservation. A non-null
+    // cancel handle lets the user stop everything before the upload. stillOwned turns false once
+    // another worker took the job over, which must then not upload a second copy. Returns false when
+    // a shutdown interrupted the job before it reached an outcome the user was told about.
+    private boolean downloadAndSend(String chatId, int statusMessageId, String url, String formatSelector,
+                                 long estimatedSizeMb, SpeculativeDownloads.Adopted speculation,
+                                 CancellableJobs.Handle cancel, BooleanSupplier stillOwned) {
+        StorageManager.Reservation reservation = null;
         File videoFile = null;
+        AtomicReference<Path> jobDir = new AtomicReference<>();
+        boolean resumeLater = false;
         try {
-            videoFile = downloader.download(url, formatSelector);
+            if (cancel != null && !cancel.start()) {
+                throw new InterruptedException("Cancelled while queued");
+            }
+            if (speculation != null) {
+                videoFile = awaitSpeculation(speculation, url);
+            }
+            if (videoFile == null) {
+                reservation = storage.tryReserveForDownload(estimatedSizeMb);
+                if (reservation == null) {
+                    // Space may take minutes to free up; meanwhile the download slot can serve a job that fits
+                    scheduler.releaseReserved();
+                    reservation = storage.reserveForDownload(estimatedSizeMb);
+                }
+                StorageManager.Reservation downloadReservation = reservation;
+                videoFile = scheduler.inStage(Stage.DOWNLOAD, () -> {
+                    jobDir.set(jobDirFor(chatId, statusMessageId));
+                    downloadReservation.track(jobDir.get());
+                    return downloader.download(url, formatSelector, 0, jobDir.get(),
+                            progress -> statusEdits.update(chatId, statusMessageId, "Downloading... " + progress.describe()));
+                });
+            }
+            statusEdits.finish(chatId, statusMessageId);
             long sizeMb = videoFile.length() / (1024 * 1024);
 
             if (sizeMb >= MAX_FILE_SIZE_MB) {
+                detach(cancel);
                 editMessage(chatId, statusMessageId,
                         "Video is " + sizeMb + " MB (limit " + MAX_FILE_SIZE_MB + " MB). Too large to send.");
-                return;
+                return true;
             }
 
-            sendVideo(chatId, videoFile);
+            if (!stillOwned.getAsBoolean()) {
+                log.warn("Job for {} was taken over by another worker, skipping the upload", url);
+                return true;
+            }
+            if (cancel != null && !cancel.detach()) {
+                throw new InterruptedException("Cancelled before the upload");
+            }
+            journalTransition(chatId, statusMessageId, JobJournal.State.UPLOADING);
+            Prepared prepared = postProcessor.prepare(videoFile);
+            editMessage(chatId, statusMessageId, "Uploading (" + sizeMb + " MB)...");
+            Message sent = scheduler.inStage(Stage.UPLOAD, () -> sendVideo(chatId, prepared));
+            rememberFileId(url, formatSelector, sent, prepared.video().length());
             editMessage(chatId, statusMessageId, "Video sent (" + sizeMb + " MB).");
+            return true;
+        } catch (InsufficientStorageException e) {
+            log.warn("Rejected download of {}: {}", url, e.getMessage());
+            detach(cancel);
+            editMessage(chatId, statusMessageId, "The bot is out of disk space right now. Please try again later.");
+            return true;
+        } catch (InterruptedException e) {
+            statusEdits.finish(chatId, statusMessageId);
+            if (speculation != null) {
+                speculation.discard();
+            }
+            if (cancel == null || !cancel.isCancelled()) {
+                // Shutting down; nothing to tell the user, and a journal resumes the job after the restart
+                resumeLater = journal != null;
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            log.info("Download of {} cancelled", url);
+            Metrics.counter("downloads_cancelled_total", "Downloads cancelled by the user").inc();
+            cancel.detach();
+            editMessage(chatId, statusMessageId, "Download cancelled.");
+            return true;
         } catch (Exception e) {
+            statusEdits.finish(chatId, statusMessageId);
             log.error("Failed to download video: {}", url, e);
-            editMessage(chatId, statusMessageId, "Failed to download the video. Please check the link and try again.");
+            Metrics.counter("downloads_failed_total", "Download jobs that ended with an error",
+                    "site", UrlValidator.site(url)).inc();
+            detach(cancel);
+            editMessage(chatId, statusMessageId, e instanceof ProcessTimeoutException
+                    ? "The download stalled and was stopped. Please try again later."
+                    : "Failed to download the video. Please check the link and try again.");
+            return true;
         } finally {
-            downloader.cleanup(videoFile);
+            if (!resumeLater) {
+                downloader.cleanup(videoFile);
+                if (videoFile == null) {
+                    // An interrupted download leaves its directory to be resumed or removed here
+                    downloader.cleanupJobDir(jobDir.get());
+                }
+            }
+            if (reservation != null) {
+                reservation.close();
+            }
+            if (speculation != null) {
+                speculation.close();
+            }
+            if (cancel != null) {
+                cancel.close();
+            }
+            if (!resumeLater) {
+                journalDone(chatId, statusMessageId);
+            }
         }
     }
 
-    private InlineKeyboardMarkup buildQualityKeyboard(List<FormatInfo> formats) {
-        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
-        List<InlineKeyboardButton> currentRow = new ArrayList<>();
-
-        for (FormatInfo fmt : formats) {
-            String label;
-            if (fmt.estimatedSizeMb() > 0) {
-                label = fmt.height() + "p (~" + fmt.estimatedSizeMb() + " MB)";
-            } else {
-                label = fmt.height() + "p";
-            }
-            currentRow.add(InlineKeyboardButton.builder()
-                    .text(label)
-                    .callbackData("q:" + fmt.height())
-                    .build());
-            if (currentRow.size() == 2) {
-                rows.add(currentRow);
-                currentRow = new ArrayList<>();
-            }
+    // Ends the cancellable part before a terminal status edit, so that edit does not carry the Cancel button
+    private static void detach(CancellableJobs.Handle cancel) {
+        if (cancel != null) {
+            cancel.detach();
         }
-        if (!currentRow.isEmpty()) {
-            rows.add(currentRow);
+    }
+
+    // Null when the speculative download failed and the video has to be downloaded normally
+    private static File awaitSpeculation(SpeculativeDownloads.Adopted speculation, String url)
+            throws InterruptedException {
+        try {
+            return speculation.await();
+        } catch (IOException e) {
+            log.warn("Speculative download of {} failed, downloading again", url, e);
+            speculation.close();
+            return null;
         }
+    }
 
-        rows.add(List.of(InlineKeyboardButton.builder()
-                .text("Best available quality")
-                .callbackData("q:best")
-                .build()));
+    // Completes with whether a cached copy was sent; false without one or when Telegram rejected its file_id
+    private CompletableFuture<Boolean> sendFromCache(String chatId, int statusMessageId, String videoKey,
+                                                     String formatSelector) {
+        String key = FileIdCache.key(videoKey, formatSelector);
+        FileIdCache.Entry cached = fileIdCache.get(key);
+        if (cached == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return gateway.submit(Lane.INTERACTIVE, chatId, null,
+                        () -> execute(SendVideo.builder()
+                                .chatId(chatId)
+                                .video(new InputFile(cached.fileId()))
+                                .build()))
+                .handle((sent, e) -> {
+                    if (e != null) {
+                        log.warn("Cached file_id for {} was rejected, downloading again", key, e);
+                        fileIdCache.invalidate(key);
+                        return false;
+                    }
+                    log.info("Served {} from file_id cache (hits={}, misses={})", key, fileIdCache.hits(),
+                            fileIdCache.misses());
+                    editMessage(chatId, statusMessageId, "Video sent (" + cached.sizeBytes() / (1024 * 1024) + " MB).");
+                    return true;
+                });
+    }
 
-        return InlineKeyboardMarkup.builder().keyboard(rows).build();
+    private void rememberFileId(String url, String formatSelector, Message sent, long sizeBytes) {
+        String fileId = null;
+        if (sent != null && sent.hasVideo()) {
+            fileId = sent.getVideo().getFileId();
+        } else if (sent != null && sent.hasDocument()) {
+            fileId = sent.getDocument().getFileId();
+        }
+        if (fileId != null) {
+            fileIdCache.put(FileIdCache.key(UrlValidator.videoKey(url), formatSelector), fileId, sizeBytes);
+        }
     }
 
     private void answerCallback(String callbackId) {
-        try {
-            execute(AnswerCallbackQuery.builder().callbackQueryId(callbackId).build());
-        } catch (TelegramApiException e) {
-            log.error("Failed to answer callback", e);
-        }
+        gateway.submit(Lane.CALLBACK, null, null,
+                        () -> execute(AnswerCallbackQuery.builder().callbackQueryId(callbackId).build()))
+                .whenComplete((r, e) -> {
+                    if (e != null) log.error("Failed to answer callback", e);
+                });
     }
 
+    // Edits of the same message share a coalesce key, so only the newest queued text is sent. While
+    // the message belongs to a cancellable download every edit keeps its Cancel button.
     private void editMessage(String chatId, int messageId, String text) {
-        try {
-            execute(EditMessageText.builder()
-                    .chatId(chatId)
-                    .messageId(messageId)
-                    .text(text)
-                    .build());
-        } catch (TelegramApiException e) {
-            log.error("Failed to edit message", e);
+        if (cancellable.isActive(chatId, messageId)) {
+            editMessageWithKeyboard(chatId, messageId, text, QualityKeyboard.cancelDownload());
+            return;
         }
+        gateway.submit(Lane.INTERACTIVE, chatId, editKey(chatId, messageId),
+                        () -> execute(EditMessageText.builder()
+                                .chatId(chatId)
+                                .messageId(messageId)
+                                .text(text)
+                                .build()))
+                .whenComplete((r, e) -> {
+                    if (e != null) log.error("Failed to edit message", e);
+                });
     }
 
     private void editMessageWithKeyboard(String chatId, int messageId, String text, InlineKeyboardMarkup keyboard) {
-        try {
-            execute(EditMessageText.builder()
-                    .chatId(chatId)
-                    .messageId(messageId)
-                    .text(text)
-                    .replyMarkup(keyboard)
-                    .build());
-        } catch (TelegramApiException e) {
-            log.error("Failed to edit message with keyboard", e);
-        }
+        gateway.submit(Lane.INTERACTIVE, chatId, editKey(chatId, messageId),
+                        () -> execute(EditMessageText.builder()
+                                .chatId(chatId)
+                                .messageId(messageId)
+                                .text(text)
+                                .replyMarkup(keyboard)
+                                .build()))
+                .whenComplete((r, e) -> {
+                    if (e != null) log.error("Failed to edit message with keyboard", e);
+                });
+    }
+
+    private static String editKey(String chatId, int messageId) {
+        return "edit:" + chatId + ":" + messageId;
     }
 
     private void sendText(String chatId, String text) {
-        try {
-            execute(SendMessage.builder()
-                    .chatId(chatId)
-                    .text(text)
-                    .build());
-        } catch (TelegramApiException e) {
-            log.error("Failed to send message", e);
-        }
+        gateway.submit(Lane.INTERACTIVE, chatId, null,
+                        () -> execute(SendMessage.builder()
+                                .chatId(chatId)
+                                .text(text)
+                                .build()))
+                .whenComplete((r, e) -> {
+                    if (e != null) log.error("Failed to send message", e);
+                });
     }
 
-    private int sendTextAndGetId(String chatId, String text) {
+    private CompletableFuture<Message> sendTextAsync(String chatId, String text) {
+        return gateway.submit(Lane.INTERACTIVE, chatId, null,
+                () -> execute(SendMessage.builder()
+                        .chatId(chatId)
+                        .text(text)
+                        .build()));
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws TelegramApiException {
         try {
-            return execute(SendMessage.builder()
-                    .chatId(chatId)
-                    .text(text)
-                    .build()).getMessageId();
-        } catch (TelegramApiException e) {
-            log.error("Failed to send message", e);
-            return 0;
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TelegramApiException api) {
+                throw api;
+            }
+            throw new TelegramApiException(e.getCause());
         }
     }
 
-    private void sendVideo(String chatId, File file) throws TelegramApiException {
+    // Retries, including flood-control waits, are handled by the gateway
+    private Message sendVideo(String chatId, Prepared prepared) throws TelegramApiException {
+        File file = prepared.video();
         long sizeMb = file.length() / (1024 * 1024);
-        log.info("Sending video: {} ({} MB)", file.getName(), sizeMb);
+        UploadStats.Mode mode = localFileUpload ? UploadStats.Mode.LOCAL_PATH : UploadStats.Mode.MULTIPART;
+        log.info("Sending video: {} ({} MB) via {}", file.getName(), sizeMb, mode);
 
-        try {
-            execute(SendVideo.builder()
-                    .chatId(chatId)
-                    .video(new InputFile(file))
-                    .build());
-            log.info("Video sent successfully: {} ({} MB)", file.getName(), sizeMb);
-        } catch (TelegramApiException e) {
-            log.warn("First sendVideo attempt failed, retrying in 3s...", e);
-            try {
-                Thread.sleep(3000);
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                throw e;
-            }
-            execute(SendVideo.builder()
-                    .chatId(chatId)
-                    .video(new InputFile(file))
-                    .build());
-            log.info("Video sent successfully on retry: {} ({} MB)", file.getName(), sizeMb);
-        }
+        Message sent = await(gateway.submit(Lane.BULK, chatId, null, () -> sendVideoOnce(chatId, prepared, mode)));
+        log.info("Video sent successfully: {} ({} MB)", file.getName(), sizeMb);
+        return sent;
+    }
+
+    // Duration, size and the thumbnail let clients lay out the player and start playback before the download ends
+    private Message sendVideoOnce(String chatId, Prepared prepared, UploadStats.Mode mode) throws TelegramApiException {
+        File file = prepared.video();
+        // A local Bot API server reads the file straight from the shared volume instead of a multipart upload
+        InputFile video = mode == UploadStats.Mode.LOCAL_PATH
+                ? new InputFile("file://" + file.getAbsolutePath())
+                : new InputFile(file);
+        long started = System.nanoTime();
+        Message sent = execute(SendVideo.builder()
+                .chatId(chatId)
+                .video(video)
+                .duration(prepared.durationSeconds())
+                .width(prepared.width())
+                .height(prepared.height())
+                .thumbnail(prepared.thumbnail() != null ? new InputFile(prepared.thumbnail()) : null)
+                .supportsStreaming(true)
+                .build());
+        long millis = (System.nanoTime() - started) / 1_000_000;
+        long saved = uploadStats.record(mode, file.length(), millis);
+        String modeLabel = mode.name().toLowerCase();
+        Metrics.histogram("upload_duration_seconds", "Time of a SendVideo call", 1000, "mode", modeLabel).record(millis);
+        Metrics.counter("upload_bytes_total", "Bytes sent with SendVideo", "mode", modeLabel).add(file.length());
+        log.info("Upload of {} took {} ms ({} MB/s via {}){}", file.getName(), millis,
+                String.format("%.1f", UploadStats.megabytesPerSecond(file.length(), millis)), mode,
+                saved > 0 ? ", ~" + saved + " ms saved vs multipart" : "");
+        return sent;
     }
 }
@@ -0,0 +1,359 @@
+package com.bot.cache;
+
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Maps a video key plus format selector to the Telegram file_id of an already uploaded copy.
+ * Entries are kept in an append-only log that is replayed on startup and compacted when it
+ * grows well past the number of live entries. The log may be shared by several processes on the
+ * shared volume: appends and compaction hold a lock file, and every process tails what the others
+ * appended before writing and on a background refresh, so an upload done by another replica is
+ * found within the refresh interval. Compaction swaps in a new file, which the others notice and
+ * re-read. Lookups only read memory; log I/O never runs under the lock they take.
+ */
+public class FileIdCache {
+
+    private static final Logger log = LoggerFactory.getLogger(FileIdCache.class);
+    // File locks are held per JVM, so caches of one process on the same log also take turns here
+    private static final Map<Path, Object> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    public record Entry(String fileId, long sizeBytes, long createdAt) {}
+
+    private final Path logFile;
+    private final Path lockFile;
+    private final int maxEntries;
+    private final long ttlMs;
+
+    // Guarded by this; held only for map operations
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    // The rest is log state, guarded by ioLock
+    private final Object ioLock = new Object();
+    private FileChannel writer;
+    // Identity and length of the log as far as it has been read; another file key means it was compacted
+    private Object fileKey;
+    private long readOffset;
+    private int logLines;
+
+    /**
+     * @param refreshMs how often to pick up what other processes appended, 0 to only do so before
+     *                  this process writes
+     */
+    public FileIdCache(Path logFile, int maxEntries, long ttlMs, long refreshMs) {
+        this.logFile = logFile;
+        this.lockFile = logFile.resolveSibling(logFile.getFileName() + ".lock");
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        load();
+        if (refreshMs > 0) {
+            ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "file-id-cache-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            refresher.scheduleWithFixedDelay(this::refresh, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static FileIdCache fromEnv() {
+        return new FileIdCache(
+                Path.of(Env.get("FILE_ID_CACHE_PATH", "/tmp/shared/cache/file-ids.log")),
+                Env.getInt("FILE_ID_CACHE_MAX_ENTRIES", 50_000),
+                Env.getLong("FILE_ID_CACHE_TTL_HOURS", 24 * 30) * 60 * 60 * 1000,
+                Env.getLong("FILE_ID_CACHE_REFRESH_MS", 2000));
+    }
+
+    public static String key(String videoKey, String formatSelector) {
+        return videoKey + "|" + (formatSelector != null ? formatSelector : "default");
+    }
+
+    public Entry get(String key) {
+        Entry entry = lookup(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    // Like get, but without counting a hit or miss
+    public boolean contains(String key) {
+        return lookup(key) != null;
+    }
+
+    public void put(String key, String fileId, long sizeBytes) {
+        Entry entry = new Entry(fileId, sizeBytes, System.currentTimeMillis());
+        withLock(() -> {
+            List<String> evicted;
+            synchronized (this) {
+                entries.put(key, entry);
+                evicted = evictOverflow();
+            }
+            append("PUT", key, entry);
+            for (String evictedKey : evicted) {
+                append("DEL", evictedKey, null);
+            }
+            compactIfNeeded();
+        });
+    }
+
+    public void invalidate(String key) {
+        withLock(() -> {
+            Entry removed;
+            synchronized (this) {
+                removed = entries.remove(key);
+            }
+            if (removed != null) {
+                append("DEL", key, null);
+            }
+        });
+    }
+
+    // Picks up what other processes appended or a compaction they did, if anything changed
+    public void refresh() {
+        if (logChanged()) {
+            withLock(() -> {});
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    // An expired entry is only dropped from memory; every process expires it the same way and compaction leaves it out
+    private synchronized Entry lookup(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.createdAt() > ttlMs;
+    }
+
+    // Called holding this; returns the evicted keys for the caller to log as deleted
+    private List<String> evictOverflow() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            evicted.add(it.next().getKey());
+            it.remove();
+        }
+        return evicted;
+    }
+
+    private void load() {
+        withLock(() -> {
+            synchronized (this) {
+                evictOverflow();
+            }
+            compactIfNeeded();
+        });
+        log.info("Loaded {} cached file_ids from {}", size(), logFile);
+    }
+
+    // Cheap check without the lock: the log grew or was replaced since it was last read
+    private boolean logChanged() {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(logFile, BasicFileAttributes.class);
+            synchronized (ioLock) {
+                return !Objects.equals(attrs.fileKey(), fileKey) || attrs.size() != readOffset;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs action while holding the lock file, after catching up with what other processes
+     * appended. Without the lock the action still runs, so a broken volume only costs sharing.
+     */
+    private void withLock(Runnable action) {
+        synchronized (PROCESS_LOCKS.computeIfAbsent(lockFile.toAbsolutePath().normalize(), p -> new Object())) {
+            synchronized (ioLock) {
+                try {
+                    Files.createDirectories(logFile.getParent());
+                    try (FileChannel lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE);
+                         FileLock ignored = lockChannel.lock()) {
+                        tail();
+                        action.run();
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to lock file_id cache log {}", lockFile, e);
+                    action.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the lines appended since the last read, or re-reads the whole log after a
+     * compaction. Lines are read and parsed before the entries are touched, and a re-read log
+     * replaces them in one step, so lookups never see a half-loaded cache.
+     */
+    private void tail() throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(logFile, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        boolean reread = !Objects.equals(attrs.fileKey(), fileKey) || attrs.size() < readOffset;
+        if (reread) {
+            closeWriter();
+            fileKey = attrs.fileKey();
+            readOffset = 0;
+            logLines = 0;
+        }
+        if (attrs.size() == readOffset && !reread) {
+            return;
+        }
+        byte[] bytes;
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - readOffset));
+            channel.read(buffer, readOffset);
+            bytes = buffer.array();
+        }
+        // A torn last line after a crash is skipped until a newline follows it
+        List<String> lines = new ArrayList<>();
+        int end = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                lines.add(new String(bytes, end, i - end, StandardCharsets.UTF_8));
+                end = i + 1;
+            }
+        }
+        readOffset += end;
+        long now = System.currentTimeMillis();
+        if (reread) {
+            LinkedHashMap<String, Entry> loaded = new LinkedHashMap<>(16, 0.75f, true);
+            lines.forEach(line -> apply(loaded, line, now));
+            synchronized (this) {
+                entries.clear();
+                entries.putAll(loaded);
+            }
+        } else {
+            synchronized (this) {
+                lines.forEach(line -> apply(entries, line, now));
+            }
+        }
+    }
+
+    private void apply(Map<String, Entry> target, String line, long now) {
+        logLines++;
+        String[] parts = line.split("\t");
+        try {
+            if (parts.length == 5 && "PUT".equals(parts[0])) {
+                Entry entry = new Entry(parts[2], Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+                if (!isExpired(entry, now)) {
+                    target.put(parts[1], entry);
+                }
+            } else if (parts.length == 2 && "DEL".equals(parts[0])) {
+                target.remove(parts[1]);
+            }
+        } catch (NumberFormatException e) {
+            log.warn("Skipping malformed file_id cache line {}", logLines);
+        }
+    }
+
+    // Called under the lock right after tail(), so the log ends where this process last read it
+    private void append(String op, String key, Entry entry) {
+        try {
+            if (writer == null) {
+                writer = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+                fileKey = Files.readAttributes(logFile, BasicFileAttributes.class).fileKey();
+            }
+            ByteBuffer line = ByteBuffer.wrap((formatLine(op, key, entry) + "\n").getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) {
+                readOffset += writer.write(line);
+            }
+            logLines++;
+        } catch (IOException e) {
+            log.warn("Failed to append to file_id cache log", e);
+        }
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.warn("Failed to close file_id cache log", e);
+            }
+            writer = null;
+        }
+    }
+
+    private String formatLine(String op, String key, Entry entry) {
+        if (entry == null) {
+            return op + "\t" + key;
+        }
+        return op + "\t" + key + "\t" + entry.fileId() + "\t" + entry.sizeBytes() + "\t" + entry.createdAt();
+    }
+
+    // Called under the lock after tail(), so the rewritten log keeps every other process's entries
+    private void compactIfNeeded() {
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            if (logLines <= Math.max(1000, entries.size() * 2)) {
+                return;
+            }
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                lines.add(formatLine("PUT", e.getKey(), e.getValue()));
+            }
+        }
+        Path tmp = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        try {
+            closeWriter();
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            BasicFileAttributes attrs = Files.readAttributes(logFile, BasicFileAttributes.class);
+            fileKey = attrs.fileKey();
+            readOffset = attrs.size();
+            log.info("Compacted file_id cache log from {} to {} lines", logLines, lines.size());
+            logLines = lines.size();
+        } catch (IOException e) {
+            log.warn("Failed to compact file_id cache log", e);
+        }
+    }
+}
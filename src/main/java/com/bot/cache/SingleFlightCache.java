@@ -0,0 +1,108 @@
+package com.bot.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Bounded TTL cache where concurrent misses for the same key share a single load.
+ */
+public class SingleFlightCache<K, V> {
+
+    public record Stats(long hits, long misses, long coalesced, int inFlight, int size) {}
+
+    private record Cached<V>(V value, long loadedAt) {}
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final Predicate<V> cacheable;
+
+    private final LinkedHashMap<K, Cached<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public SingleFlightCache(int maxEntries, long ttlMs, Predicate<V> cacheable) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.cacheable = cacheable;
+    }
+
+    public V get(K key, Supplier<V> loader) {
+        V cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        try {
+            // Another caller may have finished loading between the lookup and putIfAbsent
+            V value = lookup(key);
+            if (value == null) {
+                misses.incrementAndGet();
+                value = loader.get();
+                if (value != null && cacheable.test(value)) {
+                    store(key, value);
+                }
+            }
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public Stats stats() {
+        int size;
+        synchronized (this) {
+            size = entries.size();
+        }
+        return new Stats(hits.get(), misses.get(), coalesced.get(), inFlight.size(), size);
+    }
+
+    private synchronized V lookup(K key) {
+        Cached<V> cached = entries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - cached.loadedAt() > ttlMs) {
+            entries.remove(key);
+            return null;
+        }
+        return cached.value();
+    }
+
+    private synchronized void store(K key, V value) {
+        entries.put(key, new Cached<>(value, System.currentTimeMillis()));
+        Iterator<Map.Entry<K, Cached<V>>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
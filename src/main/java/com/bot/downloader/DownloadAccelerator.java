@@ -0,0 +1,260 @@
+package com.bot.downloader;
+
+import com.bot.metrics.Metrics;
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chooses yt-dlp's download settings per site: how many fragments to fetch at once, the HTTP
+ * chunk size and optionally an external downloader. Fragment concurrency is tuned from measured
+ * throughput, AIMD style: it goes up by one while the next level has been faster, steps back when
+ * the level below was faster, and halves when the site answers with 403 or 429. The bandwidth
+ * budget is split evenly over the configured download concurrency.
+ */
+public class DownloadAccelerator {
+
+    private static final Logger log = LoggerFactory.getLogger(DownloadAccelerator.class);
+    // A level must be this much faster to be preferred, so noise does not flip the setting
+    private static final double MIN_GAIN = 0.05;
+    private static final double EWMA_WEIGHT = 0.3;
+    private static final long MIN_SHARE_KBPS = 128;
+    private static final long MIN_CONNECTION_KBPS = 16;
+
+    /**
+     * @param adaptive           false pins the fragment count to initialFragments
+     * @param chunkSizeMb        --http-chunk-size, 0 leaves yt-dlp's default
+     * @param externalDownloader --downloader, such as aria2c; null uses yt-dlp's own
+     */
+    public record SiteProfile(int initialFragments, int maxFragments, boolean adaptive, long chunkSizeMb,
+                              String externalDownloader) {
+
+        // Reads ACCEL_<SITE>_FRAGMENTS, _MAX_FRAGMENTS, _ADAPTIVE, _CHUNK_MB and _DOWNLOADER
+        static SiteProfile fromEnv(String site, SiteProfile defaults) {
+            String prefix = "ACCEL_" + site.toUpperCase(Locale.ROOT) + "_";
+            int max = Math.max(1, Env.getInt(prefix + "MAX_FRAGMENTS", defaults.maxFragments()));
+            return new SiteProfile(
+                    Math.max(1, Math.min(max, Env.getInt(prefix + "FRAGMENTS", defaults.initialFragments()))),
+                    max,
+                    Env.getBoolean(prefix + "ADAPTIVE", defaults.adaptive()),
+                    Env.getLong(prefix + "CHUNK_MB", defaults.chunkSizeMb()),
+                    Env.get(prefix + "DOWNLOADER", defaults.externalDownloader()));
+        }
+    }
+
+    // YouTube throttles each connection, so parallel fragments pay off; TikTok serves one progressive file
+    private static final Map<String, SiteProfile> DEFAULTS = Map.of(
+            "youtube", new SiteProfile(4, 16, true, 0, null),
+            "tiktok", new SiteProfile(1, 1, false, 0, null),
+            "other", new SiteProfile(1, 4, true, 0, null));
+
+    /** Settings for one download. Closing it returns its bandwidth share and reports throttling. */
+    public final class Plan implements AutoCloseable {
+        private final Tuner tuner;
+        private final int fragments;
+        private final long shareKbps;
+        private final long rateLimitKbps;
+        private volatile boolean throttled;
+        private boolean closed;
+
+        private Plan(Tuner tuner, int fragments, long shareKbps, long rateLimitKbps) {
+            this.tuner = tuner;
+            this.fragments = fragments;
+            this.shareKbps = shareKbps;
+            this.rateLimitKbps = rateLimitKbps;
+        }
+
+        public int fragments() {
+            return fragments;
+        }
+
+        // The whole download's cap, before it is split between connections; 0 when unlimited
+        long rateLimitKbps() {
+            return rateLimitKbps;
+        }
+
+        public List<String> args() {
+            SiteProfile profile = tuner.profile;
+            List<String> args = new ArrayList<>();
+            if (fragments > 1) {
+                args.addAll(List.of("--concurrent-fragments", String.valueOf(fragments)));
+            }
+            if (profile.chunkSizeMb() > 0) {
+                args.addAll(List.of("--http-chunk-size", profile.chunkSizeMb() + "M"));
+            }
+            if (profile.externalDownloader() != null) {
+                args.addAll(List.of("--downloader", profile.externalDownloader()));
+                if (profile.externalDownloader().equals("aria2c")) {
+                    args.addAll(List.of("--downloader-args",
+                            "aria2c:-x" + fragments + " -s" + fragments + " -k1M --console-log-level=warn"));
+                }
+            }
+            // yt-dlp applies --limit-rate to every connection
+            if (rateLimitKbps > 0) {
+                args.addAll(List.of("--limit-rate",
+                        Math.max(MIN_CONNECTION_KBPS, rateLimitKbps / fragments) + "K"));
+            }
+            return args;
+        }
+
+        // Fed every yt-dlp output line; fragment retries print the HTTP error before retrying
+        public void observe(String line) {
+            if (!throttled && (line.contains("HTTP Error 429") || line.contains("HTTP Error 403"))) {
+                throttled = true;
+            }
+        }
+
+        // A finished download; its throughput counts towards the history of its fragment level
+        public void finished(long bytes, long millis) {
+            if (!throttled && bytes >= minSampleBytes && millis > 0) {
+                tuner.record(fragments, bytes * 1000 / 1024 / millis);
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            releaseShare(shareKbps);
+            if (throttled) {
+                tuner.backOff(fragments);
+            }
+        }
+    }
+
+    // Concurrency state of one site; ewma[n] is the throughput seen with n fragments, 0 while untried
+    static final class Tuner {
+        final String site;
+        final SiteProfile profile;
+        final double[] ewma;
+        int current;
+
+        Tuner(String site, SiteProfile profile) {
+            this.site = site;
+            this.profile = profile;
+            this.ewma = new double[profile.maxFragments() + 2];
+            this.current = profile.initialFragments();
+            Metrics.gauge("download_fragment_concurrency", "Concurrent fragments the next download of a site uses",
+                    this::current, "site", site);
+        }
+
+        synchronized int current() {
+            return current;
+        }
+
+        synchronized void record(int fragments, long kbps) {
+            if (!profile.adaptive()) {
+                return;
+            }
+            ewma[fragments] = ewma[fragments] == 0 ? kbps : ewma[fragments] * (1 - EWMA_WEIGHT) + kbps * EWMA_WEIGHT;
+            // Decisions are made from the current level; other samples only update the history
+            if (fragments != current) {
+                return;
+            }
+            int before = current;
+            if (current > 1 && faster(current - 1, current)) {
+                current--;
+            } else if (current < profile.maxFragments() && (ewma[current + 1] == 0 || faster(current + 1, current))) {
+                current++;
+            }
+            if (current != before) {
+                log.info("{} fragment concurrency {} -> {} ({} KB/s at {})", site, before, current, kbps, before);
+            }
+        }
+
+        synchronized void backOff(int fragments) {
+            Metrics.counter("download_throttle_backoffs_total",
+                    "Downloads that saw a 403 or 429; adaptive sites halve their concurrency", "site", site).inc();
+            if (!profile.adaptive()) {
+                return;
+            }
+            int before = current;
+            current = Math.max(1, Math.min(current, fragments) / 2);
+            // The throttled level no longer counts as fast
+            ewma[fragments] = ewma[fragments] / 2;
+            log.info("{} answered 403/429 with {} fragments, concurrency {} -> {}", site, fragments, before, current);
+        }
+
+        private boolean faster(int level, int than) {
+            return ewma[level] > ewma[than] * (1 + MIN_GAIN);
+        }
+    }
+
+    private final Map<String, Tuner> tuners = new ConcurrentHashMap<>();
+    private final long budgetKbps;
+    private final long minSampleBytes;
+    private final int slots;
+    private long allocatedKbps;
+
+    /**
+     * @param budgetKbps     bandwidth shared by all downloads, 0 means unlimited
+     * @param slots          downloads expected to run at once; each gets budgetKbps / slots
+     * @param minSampleBytes smaller downloads are too short to say anything about throughput
+     */
+    public DownloadAccelerator(long budgetKbps, int slots, long minSampleBytes) {
+        this.budgetKbps = budgetKbps;
+        this.slots = Math.max(1, slots);
+        this.minSampleBytes = minSampleBytes;
+        Metrics.gauge("download_bandwidth_allocated_kbps", "Bandwidth handed out to running downloads",
+                this::allocatedKbps);
+    }
+
+    // Null when DOWNLOAD_ACCELERATION=false
+    public static DownloadAccelerator fromEnv() {
+        if (!Env.getBoolean("DOWNLOAD_ACCELERATION", true)) {
+            return null;
+        }
+        return new DownloadAccelerator(
+                Env.getLong("DOWNLOAD_BANDWIDTH_BUDGET_KB", 0),
+                Env.getInt("DOWNLOAD_CONCURRENCY", 2),
+                Env.getLong("ACCEL_MIN_SAMPLE_MB", 20) * 1024 * 1024);
+    }
+
+    /**
+     * Settings for a download from the site. rateLimitKbps > 0 is the caller's own cap, which the
+     * bandwidth share can only lower.
+     */
+    public Plan plan(String site, long rateLimitKbps) {
+        Tuner tuner = tuners.computeIfAbsent(site,
+                s -> new Tuner(s, SiteProfile.fromEnv(s, DEFAULTS.getOrDefault(s, DEFAULTS.get("other")))));
+        long share = acquireShare();
+        long limit = share == 0 ? rateLimitKbps : rateLimitKbps > 0 ? Math.min(rateLimitKbps, share) : share;
+        return new Plan(tuner, tuner.current(), share, limit);
+    }
+
+    /**
+     * One slot's part of the budget. yt-dlp cannot change its rate while it runs, so shares are
+     * fixed up front rather than split between whoever runs right now: a download keeps the same
+     * rate however many start after it. Downloads beyond the slots, such as speculative ones, get
+     * what is left, but at least a small minimum share.
+     */
+    private synchronized long acquireShare() {
+        if (budgetKbps <= 0) {
+            return 0;
+        }
+        long share = Math.max(MIN_SHARE_KBPS, Math.min(budgetKbps / slots, budgetKbps - allocatedKbps));
+        allocatedKbps += share;
+        return share;
+    }
+
+    private synchronized void releaseShare(long share) {
+        if (budgetKbps <= 0) {
+            return;
+        }
+        allocatedKbps -= share;
+    }
+
+    synchronized long allocatedKbps() {
+        return allocatedKbps;
+    }
+}
@@ -0,0 +1,57 @@
+package com.bot.downloader;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// One yt-dlp "[download]" progress line; size, speed and ETA are kept as yt-dlp formats them
+public record DownloadProgress(double percent, String totalSize, String speed, String eta,
+                               int fragment, int fragmentCount) {
+
+    private static final Pattern PROGRESS_PATTERN = Pattern.compile(
+            "^\\[download]\\s+(\\d+(?:\\.\\d+)?)%"
+                    + "(?:\\s+of\\s+~?\\s*(\\S+))?"
+                    + "(?:\\s+in\\s+\\S+)?"
+                    + "(?:\\s+at\\s+(\\S+))?"
+                    + "(?:\\s+ETA\\s+(\\S+))?"
+                    + "(?:\\s+\\(frag\\s+(\\d+)/(\\d+)\\))?"
+    );
+
+    public static DownloadProgress parse(String line) {
+        if (line == null || !line.startsWith("[download]")) {
+            return null;
+        }
+        Matcher m = PROGRESS_PATTERN.matcher(line);
+        if (!m.find()) {
+            return null;
+        }
+        return new DownloadProgress(
+                Double.parseDouble(m.group(1)),
+                known(m.group(2)),
+                known(m.group(3)),
+                known(m.group(4)),
+                m.group(5) != null ? Integer.parseInt(m.group(5)) : 0,
+                m.group(6) != null ? Integer.parseInt(m.group(6)) : 0);
+    }
+
+    private static String known(String value) {
+        return value == null || value.startsWith("Unknown") ? null : value;
+    }
+
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Math.round(percent)).append('%');
+        if (totalSize != null) {
+            sb.append(" of ").append(totalSize);
+        }
+        if (speed != null) {
+            sb.append(" at ").append(speed);
+        }
+        if (eta != null) {
+            sb.append(", ETA ").append(eta);
+        }
+        if (fragmentCount > 0) {
+            sb.append(" (fragment ").append(fragment).append('/').append(fragmentCount).append(')');
+        }
+        return sb.toString();
+    }
+}
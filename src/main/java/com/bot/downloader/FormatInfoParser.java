@@ -0,0 +1,344 @@
+package com.bot.downloader;
+
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Single-pass reader for yt-dlp --dump-json output. Only the fields of the "formats" entries that
+ * feed {@link FormatInfo} are materialized; everything else is skipped character by character.
+ * Field coercion follows org.json's optString/optInt/optLong so results match the tree-based parser.
+ */
+public class FormatInfoParser {
+
+    private final Reader in;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+
+    private long bestAudioBytes;
+    // For each height, keep the largest video stream size (best quality at that height)
+    private final TreeMap<Integer, Long> heightToSize = new TreeMap<>();
+
+    private FormatInfoParser(Reader in) {
+        this.in = in;
+    }
+
+    public static List<FormatInfo> parse(Reader in) throws IOException {
+        FormatInfoParser parser = new FormatInfoParser(in);
+        boolean hasFormats = parser.parseInfo();
+        if (!hasFormats) {
+            return List.of();
+        }
+        return parser.result();
+    }
+
+    private List<FormatInfo> result() {
+        List<FormatInfo> result = new ArrayList<>();
+        for (Map.Entry<Integer, Long> entry : heightToSize.entrySet()) {
+            long totalBytes = entry.getValue() + bestAudioBytes;
+            result.add(new FormatInfo(entry.getKey(), totalBytes / (1024 * 1024)));
+        }
+        return result;
+    }
+
+    private boolean parseInfo() throws IOException {
+        expect('{');
+        boolean hasFormats = false;
+        if (peekNonWs() == '}') {
+            next();
+            return false;
+        }
+        while (true) {
+            String key = readKey();
+            if ("formats".equals(key) && peekNonWs() == '[') {
+                parseFormats();
+                hasFormats = true;
+            } else {
+                skipValue();
+            }
+            if (!afterMember('}')) {
+                return hasFormats;
+            }
+        }
+    }
+
+    private void parseFormats() throws IOException {
+        expect('[');
+        if (peekNonWs() == ']') {
+            next();
+            return;
+        }
+        while (true) {
+            if (peekNonWs() == '{') {
+                parseFormat();
+            } else {
+                skipValue();
+            }
+            if (!afterMember(']')) {
+                return;
+            }
+        }
+    }
+
+    private void parseFormat() throws IOException {
+        expect('{');
+        Object vcodec = null;
+        Object acodec = null;
+        Object height = null;
+        Object filesize = null;
+        Object filesizeApprox = null;
+
+        if (peekNonWs() == '}') {
+            next();
+        } else {
+            while (true) {
+                String key = readKey();
+                switch (key) {
+                    case "vcodec" -> vcodec = readScalar();
+                    case "acodec" -> acodec = readScalar();
+                    case "height" -> height = readScalar();
+                    case "filesize" -> filesize = readScalar();
+                    case "filesize_approx" -> filesizeApprox = readScalar();
+                    default -> skipValue();
+                }
+                if (!afterMember('}')) {
+                    break;
+                }
+            }
+        }
+
+        String v = vcodec != null ? vcodec.toString() : "none";
+        String a = acodec != null ? acodec.toString() : "none";
+        long size = toLong(filesize);
+        if (size <= 0) {
+            size = toLong(filesizeApprox);
+        }
+
+        if (!"none".equals(a) && "none".equals(v)) {
+            bestAudioBytes = Math.max(bestAudioBytes, size);
+        }
+        if (!"none".equals(v)) {
+            int h = (int) toLong(height);
+            if (h > 0) {
+                heightToSize.merge(h, size, Math::max);
+            }
+        }
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof String s) {
+            try {
+                return Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                try {
+                    return (long) Double.parseDouble(s);
+                } catch (NumberFormatException e2) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    // Consumes the separator after an object member or array element; false once the container closes
+    private boolean afterMember(char close) throws IOException {
+        int c = peekNonWs();
+        next();
+        if (c == ',') {
+            return true;
+        }
+        if (c == close) {
+            return false;
+        }
+        throw error("Expected ',' or '" + close + "'");
+    }
+
+    private String readKey() throws IOException {
+        if (peekNonWs() != '"') {
+            throw error("Expected object key");
+        }
+        String key = readString();
+        expect(':');
+        return key;
+    }
+
+    // Strings and number literals come back as String, true/false as Boolean, null or containers as null
+    private Object readScalar() throws IOException {
+        int c = peekNonWs();
+        if (c == '"') {
+            return readString();
+        }
+        if (c == '{' || c == '[') {
+            skipValue();
+            return null;
+        }
+        if (c == 'n') {
+            readLiteral("null");
+            return null;
+        }
+        if (c == 't') {
+            readLiteral("true");
+            return Boolean.TRUE;
+        }
+        if (c == 'f') {
+            readLiteral("false");
+            return Boolean.FALSE;
+        }
+        StringBuilder number = new StringBuilder(16);
+        while (true) {
+            int d = peek();
+            if (d == -1 || !(d == '-' || d == '+' || d == '.' || d == 'e' || d == 'E' || (d >= '0' && d <= '9'))) {
+                break;
+            }
+            number.append((char) next());
+        }
+        if (number.length() == 0) {
+            throw error("Unexpected character");
+        }
+        return number.toString();
+    }
+
+    private void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            int c = peekNonWs();
+            switch (c) {
+                case '"' -> skipString();
+                case '{', '[' -> {
+                    next();
+                    depth++;
+                }
+                case '}', ']' -> {
+                    next();
+                    depth--;
+                }
+                case ',', ':' -> next();
+                case -1 -> throw error("Unexpected end of input");
+                default -> {
+                    while (true) {
+                        int d = peek();
+                        if (d == -1 || d == ',' || d == '}' || d == ']' || d == ':' || Character.isWhitespace(d)) {
+                            break;
+                        }
+                        next();
+                    }
+                }
+            }
+        } while (depth > 0);
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        StringBuilder sb = new StringBuilder(16);
+        while (true) {
+            int c = next();
+            if (c == -1) {
+                throw error("Unterminated string");
+            }
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c == '\\') {
+                int e = next();
+                switch (e) {
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(next(), 16);
+                            if (digit < 0) {
+                                throw error("Bad unicode escape");
+                            }
+                            code = code * 16 + digit;
+                        }
+                        sb.append((char) code);
+                    }
+                    case -1 -> throw error("Unterminated string");
+                    default -> sb.append((char) e);
+                }
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        while (true) {
+            int c = next();
+            if (c == -1) {
+                throw error("Unterminated string");
+            }
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                next();
+            }
+        }
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (next() != literal.charAt(i)) {
+                throw error("Expected " + literal);
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (peekNonWs() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        next();
+    }
+
+    private int peekNonWs() throws IOException {
+        while (true) {
+            int c = peek();
+            if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+                next();
+            } else {
+                return c;
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private int next() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private IOException error(String message) {
+        return new IOException("Malformed yt-dlp JSON: " + message);
+    }
+}
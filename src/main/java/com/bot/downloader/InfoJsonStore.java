@@ -0,0 +1,98 @@
+package com.bot.downloader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the info JSON written by recent probes so the download can start from --load-info-json
+ * instead of extracting the video again. Entries expire well before the stream URLs inside them do.
+ */
+public class InfoJsonStore {
+
+    private static final Logger log = LoggerFactory.getLogger(InfoJsonStore.class);
+
+    private final Path dir;
+    private final int maxEntries;
+    private final long maxAgeMs;
+    private final LinkedHashMap<String, Long> savedAt = new LinkedHashMap<>(16, 0.75f, true);
+
+    public InfoJsonStore(Path dir, int maxEntries, long maxAgeMs) {
+        this.dir = dir;
+        this.maxEntries = maxEntries;
+        this.maxAgeMs = maxAgeMs;
+    }
+
+    // Temporary file for a probe to write into; becomes visible to lookups after commit
+    public Path reserve(String videoKey) throws IOException {
+        Files.createDirectories(dir);
+        return Files.createTempFile(dir, fileName(videoKey) + "-", ".part");
+    }
+
+    public void commit(String videoKey, Path written) {
+        Path target = dir.resolve(fileName(videoKey) + ".json");
+        try {
+            Files.move(written, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Failed to store info JSON for {}", videoKey, e);
+            discard(written);
+            return;
+        }
+        synchronized (this) {
+            savedAt.put(videoKey, System.currentTimeMillis());
+            Iterator<Map.Entry<String, Long>> it = savedAt.entrySet().iterator();
+            while (savedAt.size() > maxEntries && it.hasNext()) {
+                String evicted = it.next().getKey();
+                it.remove();
+                discard(dir.resolve(fileName(evicted) + ".json"));
+            }
+        }
+    }
+
+    public synchronized Path lookup(String videoKey) {
+        Long saved = savedAt.get(videoKey);
+        if (saved == null) {
+            return null;
+        }
+        Path file = dir.resolve(fileName(videoKey) + ".json");
+        if (System.currentTimeMillis() - saved > maxAgeMs || !Files.exists(file)) {
+            invalidate(videoKey);
+            return null;
+        }
+        return file;
+    }
+
+    public synchronized void invalidate(String videoKey) {
+        if (savedAt.remove(videoKey) != null) {
+            discard(dir.resolve(fileName(videoKey) + ".json"));
+        }
+    }
+
+    public void discard(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete info JSON {}", file, e);
+        }
+    }
+
+    private static String fileName(String videoKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(videoKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
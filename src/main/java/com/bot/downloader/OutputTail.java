@@ -0,0 +1,49 @@
+package com.bot.downloader;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the last lines of a process's output in a fixed ring, so a failure can be reported with
+ * context without holding the whole output of a long download.
+ */
+public class OutputTail {
+
+    private static final int MAX_LINE_LENGTH = 500;
+
+    private final String[] lines;
+    private int next;
+    private long total;
+
+    public OutputTail(int capacity) {
+        this.lines = new String[Math.max(1, capacity)];
+    }
+
+    public synchronized void add(String line) {
+        lines[next] = line.length() > MAX_LINE_LENGTH ? line.substring(0, MAX_LINE_LENGTH) + "..." : line;
+        next = (next + 1) % lines.length;
+        total++;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(lines, null);
+        next = 0;
+        total = 0;
+    }
+
+    // The kept lines, oldest first, after a note on how many were dropped
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        long dropped = total - Math.min(total, lines.length);
+        if (dropped > 0) {
+            sb.append("... ").append(dropped).append(" earlier lines omitted\n");
+        }
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[(next + i) % lines.length];
+            if (line != null) {
+                sb.append(line).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,263 @@
+package com.bot.downloader;
+
+import com.bot.metrics.Metrics;
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Starts external processes and watches them from one watchdog thread. A process is killed,
+ * together with its children (yt-dlp's ffmpeg), when it runs past its wall-clock limit, prints
+ * nothing for its idle limit, exceeds the output cap or when the thread that started it is
+ * interrupted. Commands can be prefixed with nice/ionice.
+ */
+public class ProcessSupervisor {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessSupervisor.class);
+    private static final long TICK_MS = 500;
+    private static final long KILL_GRACE_MS = 3000;
+    private static final String CANCELLED = "cancelled";
+
+    // Zero disables a limit
+    public record Limits(long wallClockMs, long idleMs) {
+
+        // Reads <prefix>_TIMEOUT_SECONDS and <prefix>_IDLE_SECONDS
+        public static Limits fromEnv(String prefix, long defaultTimeoutSeconds, long defaultIdleSeconds) {
+            return new Limits(
+                    Env.getLong(prefix + "_TIMEOUT_SECONDS", defaultTimeoutSeconds) * 1000,
+                    Env.getLong(prefix + "_IDLE_SECONDS", defaultIdleSeconds) * 1000);
+        }
+    }
+
+    private final List<String> prefix;
+    private final long maxOutputBytes;
+    private final Set<Supervised> running = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "process-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    // Stderr pumps of the running processes
+    private final ExecutorService pumps = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "process-output");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param niceness    CPU niceness for started processes, 0 leaves it alone
+     * @param ioniceClass ionice scheduling class (2 best-effort, 3 idle), 0 leaves it alone
+     */
+    public ProcessSupervisor(int niceness, int ioniceClass, long maxOutputBytes) {
+        List<String> prefix = new ArrayList<>();
+        if (ioniceClass > 0) {
+            prefix.addAll(List.of("ionice", "-c", String.valueOf(ioniceClass)));
+        }
+        if (niceness != 0) {
+            prefix.addAll(List.of("nice", "-n", String.valueOf(niceness)));
+        }
+        this.prefix = List.copyOf(prefix);
+        this.maxOutputBytes = maxOutputBytes;
+        watchdog.scheduleWithFixedDelay(this::check, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+        Metrics.gauge("supervised_processes", "External processes currently running under supervision", running::size);
+    }
+
+    // Shared, so yt-dlp and ffmpeg are watched by one thread and counted in one gauge
+    public static ProcessSupervisor fromEnv() {
+        return Shared.INSTANCE;
+    }
+
+    private static final class Shared {
+        static final ProcessSupervisor INSTANCE = new ProcessSupervisor(
+                Env.getInt("YTDLP_NICE", 0),
+                Env.getInt("YTDLP_IONICE_CLASS", 0),
+                Env.getLong("YTDLP_MAX_OUTPUT_MB", 64) * 1024 * 1024);
+    }
+
+    /**
+     * Starts the command on behalf of the calling thread; interrupting that thread kills the process.
+     * With mergeStderr the process's stderr is read through {@link Supervised#stdout()} as well.
+     */
+    public Supervised start(List<String> command, Limits limits, boolean mergeStderr) throws IOException {
+        List<String> full = new ArrayList<>(prefix);
+        full.addAll(command);
+        ProcessBuilder pb = new ProcessBuilder(full);
+        pb.redirectErrorStream(mergeStderr);
+        Supervised supervised = new Supervised(pb.start(), limits, command.get(0));
+        running.add(supervised);
+        return supervised;
+    }
+
+    public final class Supervised implements AutoCloseable {
+        private final Process process;
+        private final Limits limits;
+        private final String name;
+        private final Thread owner = Thread.currentThread();
+        private final long startedAt = System.currentTimeMillis();
+        private final AtomicLong outputBytes = new AtomicLong();
+        private volatile long lastActivity = startedAt;
+        private volatile String killReason;
+
+        private Supervised(Process process, Limits limits, String name) {
+            this.process = process;
+            this.limits = limits;
+            this.name = name;
+        }
+
+        // Reading from it counts as activity for the idle limit and towards the output cap
+        public InputStream stdout() {
+            return new ActivityStream(process.getInputStream());
+        }
+
+        public void pumpStderr(Consumer<String> lines) {
+            InputStream stderr = new ActivityStream(process.getErrorStream());
+            pumps.execute(() -> {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(stderr, StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        lines.accept(line);
+                    }
+                } catch (IOException ignored) {
+                    // The process is gone
+                }
+            });
+        }
+
+        /**
+         * Waits for the process to exit. Throws {@link ProcessTimeoutException} if the watchdog
+         * killed it, and InterruptedException if it was cancelled.
+         */
+        public int waitFor() throws IOException, InterruptedException {
+            int code;
+            try {
+                code = process.waitFor();
+            } catch (InterruptedException e) {
+                kill(CANCELLED, CANCELLED);
+                throw e;
+            }
+            checkKilled();
+            return code;
+        }
+
+        public void checkKilled() throws IOException, InterruptedException {
+            String reason = killReason;
+            if (CANCELLED.equals(reason)) {
+                throw new InterruptedException(name + " was cancelled");
+            }
+            if (reason != null) {
+                throw new ProcessTimeoutException(name + " was stopped: " + reason);
+            }
+        }
+
+        private void touch(int bytes) {
+            lastActivity = System.currentTimeMillis();
+            outputBytes.addAndGet(bytes);
+        }
+
+        private void check(long now) {
+            if (!process.isAlive()) {
+                return;
+            }
+            if (owner.isInterrupted()) {
+                kill(CANCELLED, CANCELLED);
+            } else if (limits.wallClockMs() > 0 && now - startedAt > limits.wallClockMs()) {
+                kill("wall_clock", "ran longer than " + limits.wallClockMs() / 1000 + " s");
+            } else if (limits.idleMs() > 0 && now - lastActivity > limits.idleMs()) {
+                kill("idle", "no output for " + limits.idleMs() / 1000 + " s");
+            } else if (maxOutputBytes > 0 && outputBytes.get() > maxOutputBytes) {
+                kill("output_cap", "printed more than " + maxOutputBytes / (1024 * 1024) + " MB");
+            }
+        }
+
+        private synchronized void kill(String label, String reason) {
+            if (killReason != null || !process.isAlive()) {
+                return;
+            }
+            killReason = reason;
+            if (!CANCELLED.equals(reason)) {
+                log.warn("Killing {} (pid {}): {}", name, process.pid(), reason);
+            }
+            Metrics.counter("supervised_kills_total", "Supervised processes killed, by limit", "reason", label).inc();
+            destroyTree(process);
+        }
+
+        // Kills the process if it still runs and stops watching it
+        @Override
+        public void close() {
+            running.remove(this);
+            if (process.isAlive()) {
+                destroyTree(process);
+            }
+        }
+
+        private final class ActivityStream extends FilterInputStream {
+            ActivityStream(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    touch(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, len);
+                if (n > 0) {
+                    touch(n);
+                }
+                return n;
+            }
+        }
+    }
+
+    private void check() {
+        long now = System.currentTimeMillis();
+        for (Supervised supervised : running) {
+            try {
+                supervised.check(now);
+            } catch (RuntimeException e) {
+                log.warn("Process watchdog check failed", e);
+            }
+        }
+    }
+
+    // Children are collected first: once the parent is gone they are reparented and no longer its descendants
+    static void destroyTree(Process process) {
+        List<ProcessHandle> tree = new ArrayList<>(process.descendants().toList());
+        tree.add(process.toHandle());
+        tree.forEach(ProcessHandle::destroy);
+        Reaper.EXECUTOR.schedule(() -> tree.forEach(ProcessHandle::destroyForcibly),
+                KILL_GRACE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Separate from the watchdog so it is also available to the worker pool
+    private static final class Reaper {
+        static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "process-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -0,0 +1,11 @@
+package com.bot.downloader;
+
+import java.io.IOException;
+
+// A yt-dlp call was stopped by a supervision limit (time, silence or output size)
+public class ProcessTimeoutException extends IOException {
+
+    public ProcessTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,136 @@
+package com.bot.downloader;
+
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Spawns a new supervised yt-dlp process for every call
+public class ProcessYtDlpRunner implements YtDlpRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(ProcessYtDlpRunner.class);
+
+    private final String binary = Env.get("YTDLP_BINARY", "yt-dlp");
+    private final ProcessSupervisor supervisor;
+    private final ProcessSupervisor.Limits probeLimits;
+    private final ProcessSupervisor.Limits downloadLimits;
+
+    public ProcessYtDlpRunner(ProcessSupervisor supervisor, ProcessSupervisor.Limits probeLimits,
+                              ProcessSupervisor.Limits downloadLimits) {
+        this.supervisor = supervisor;
+        this.probeLimits = probeLimits;
+        this.downloadLimits = downloadLimits;
+    }
+
+    public static ProcessYtDlpRunner fromEnv() {
+        return new ProcessYtDlpRunner(ProcessSupervisor.fromEnv(),
+                YtDlpRunner.probeLimitsFromEnv(), YtDlpRunner.downloadLimitsFromEnv());
+    }
+
+    @Override
+    public List<FormatInfo> probe(List<String> args, Path infoJson) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(binary);
+        command.add("--dump-json");
+        command.add("--no-download");
+        command.addAll(args);
+
+        try (ProcessSupervisor.Supervised process = supervisor.start(command, probeLimits, false)) {
+            process.pumpStderr(line -> log.debug("yt-dlp probe stderr: {}", line));
+
+            List<FormatInfo> result;
+            try (Reader stdout = new InputStreamReader(process.stdout(), StandardCharsets.UTF_8);
+                 Reader reader = infoJson != null ? new TeeReader(stdout, Files.newBufferedWriter(infoJson)) : stdout) {
+                result = FormatInfoParser.parse(reader);
+            } catch (IOException e) {
+                // Failed extractions print nothing to stdout; report the exit code below instead
+                if (process.waitFor() == 0) {
+                    throw e;
+                }
+                result = List.of();
+            }
+
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                log.warn("yt-dlp --dump-json exited with code {}", exitCode);
+                return List.of();
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public int download(List<String> args, Consumer<String> output) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(binary);
+        command.addAll(args);
+
+        try (ProcessSupervisor.Supervised process = supervisor.start(command, downloadLimits, true);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(process.stdout()))) {
+            // Ends when the process exits or the supervisor kills it; waitFor reports which
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.accept(line);
+            }
+            return process.waitFor();
+        }
+    }
+
+    // Copies everything the parser reads to a file, so the info JSON never has to sit in the heap
+    private static final class TeeReader extends FilterReader {
+        private final Writer copy;
+
+        TeeReader(Reader in, Writer copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c != -1) {
+                copy.write(c);
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) {
+                copy.write(buf, off, n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                // Drain whatever the parser did not need so the copy is complete
+                char[] rest = new char[8192];
+                while (read(rest, 0, rest.length) != -1) {
+                    // keep copying
+                }
+            } finally {
+                try {
+                    copy.close();
+                } finally {
+                    super.close();
+                }
+            }
+        }
+    }
+}
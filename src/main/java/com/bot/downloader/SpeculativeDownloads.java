@@ -0,0 +1,331 @@
+package com.bot.downloader;
+
+import com.bot.metrics.Metrics;
+import com.bot.storage.StorageManager;
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Downloads the quality a user will most likely pick while the quality keyboard is still open.
+ * A matching choice adopts the running or finished download; any other outcome cancels it and
+ * frees its disk reservation. Speculation only runs in free speculative slots, only when its disk
+ * reservation fits right away, and shares a fixed bandwidth budget between the slots. yt-dlp cannot
+ * change its rate while it runs, so an adopted download with much left to fetch at the slot's rate
+ * is restarted without the limit and continues from its .part files.
+ */
+public class SpeculativeDownloads {
+
+    private static final Logger log = LoggerFactory.getLogger(SpeculativeDownloads.class);
+
+    private final class Speculation {
+        final String token;
+        final String url;
+        final String choice;
+        final long estimatedSizeMb;
+        final StorageManager.Reservation reservation;
+        final long startedAt = System.currentTimeMillis();
+        final CompletableFuture<File> result = new CompletableFuture<>();
+        volatile Consumer<DownloadProgress> listener = progress -> {};
+        volatile DownloadProgress lastProgress;
+        Future<?> task;
+        // Set while run() executes; guarded by this, so an unthrottle never interrupts the thread's next task
+        Thread thread;
+        boolean restartUnlimited;
+
+        Speculation(String token, String url, String choice, long estimatedSizeMb,
+                    StorageManager.Reservation reservation) {
+            this.token = token;
+            this.url = url;
+            this.choice = choice;
+            this.estimatedSizeMb = estimatedSizeMb;
+            this.reservation = reservation;
+        }
+
+        synchronized boolean takeRestart() {
+            boolean restart = restartUnlimited;
+            restartUnlimited = false;
+            return restart;
+        }
+    }
+
+    /**
+     * A speculative download taken over by the real request. Closing it releases the disk
+     * reservation; deleting the file stays with the caller.
+     */
+    public final class Adopted implements AutoCloseable {
+        private final Speculation speculation;
+
+        private Adopted(Speculation speculation) {
+            this.speculation = speculation;
+        }
+
+        // Waits for the download; an IOException means it failed and the caller should download normally
+        public File await() throws IOException, InterruptedException {
+            try {
+                return speculation.result.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException("Speculative download failed", e.getCause());
+            } catch (CancellationException e) {
+                throw new IOException("Speculative download was cancelled", e);
+            }
+        }
+
+        // For an adopted download that will not be used after all: cancels it and deletes its file
+        public void discard() {
+            abandon(speculation);
+        }
+
+        @Override
+        public void close() {
+            speculation.reservation.close();
+        }
+    }
+
+    private final YtDlpDownloader downloader;
+    private final StorageManager storage;
+    private final Semaphore slots;
+    private final int slotCount;
+    private final long rateLimitKbps;
+    private final long maxAgeMs;
+    private final long unthrottleMinMs;
+
+    private final Map<String, Speculation> byToken = new ConcurrentHashMap<>();
+    // Bounded by the slots semaphore
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "speculative-download");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "speculative-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param totalRateLimitKbps bandwidth shared by all slots, split evenly; 0 means unlimited
+     * @param maxAgeMs           speculations not adopted within this time are cancelled
+     * @param unthrottleMinMs    an adopted download is restarted without the rate limit if the rest
+     *                           would take longer than this at the limit; 0 never restarts
+     */
+    public SpeculativeDownloads(YtDlpDownloader downloader, StorageManager storage, int slotCount,
+                                long totalRateLimitKbps, long maxAgeMs, long unthrottleMinMs) {
+        this.downloader = downloader;
+        this.storage = storage;
+        this.slotCount = slotCount;
+        this.slots = new Semaphore(slotCount);
+        this.rateLimitKbps = totalRateLimitKbps > 0 ? Math.max(1, totalRateLimitKbps / slotCount) : 0;
+        this.maxAgeMs = maxAgeMs;
+        this.unthrottleMinMs = unthrottleMinMs;
+        long sweepMs = Math.max(1000, maxAgeMs / 4);
+        sweeper.scheduleWithFixedDelay(this::expire, sweepMs, sweepMs, TimeUnit.MILLISECONDS);
+        log.info("Speculative downloads enabled: {} slots, {} KB/s each, max age {} s",
+                slotCount, rateLimitKbps > 0 ? rateLimitKbps : "unlimited", maxAgeMs / 1000);
+    }
+
+    // Null unless SPECULATIVE_DOWNLOADS=true
+    public static SpeculativeDownloads fromEnv(YtDlpDownloader downloader, StorageManager storage) {
+        if (!Env.getBoolean("SPECULATIVE_DOWNLOADS", false)) {
+            return null;
+        }
+        return new SpeculativeDownloads(downloader, storage,
+                Env.getInt("SPECULATIVE_SLOTS", 2),
+                Env.getLong("SPECULATIVE_MAX_RATE_KB", 4096),
+                Env.getLong("SPECULATIVE_MAX_AGE_SECONDS", 300) * 1000,
+                Env.getLong("SPECULATIVE_UNTHROTTLE_MIN_SECONDS", 10) * 1000);
+    }
+
+    /**
+     * Starts downloading the given choice for the keyboard token, unless no slot or disk space is
+     * free right now. Returns whether a download was started.
+     */
+    public boolean start(String token, String url, String choice, String formatSelector, long estimatedSizeMb) {
+        if (!slots.tryAcquire()) {
+            skipped("slots");
+            return false;
+        }
+        StorageManager.Reservation reservation = storage.tryReserveForDownload(estimatedSizeMb);
+        if (reservation == null) {
+            slots.release();
+            skipped("disk");
+            return false;
+        }
+        Speculation speculation = new Speculation(token, url, choice, estimatedSizeMb, reservation);
+        speculation.task = executor.submit(() -> run(speculation, formatSelector));
+        byToken.put(token, speculation);
+        Metrics.counter("speculative_downloads_started_total", "Speculative downloads started").inc();
+        log.info("Speculatively downloading {} in {}", url, choice);
+        return true;
+    }
+
+    private void run(Speculation speculation, String formatSelector) {
+        MDC.put("job_id", "spec-" + speculation.token);
+        synchronized (speculation) {
+            speculation.thread = Thread.currentThread();
+        }
+        Path dir = null;
+        try {
+            dir = storage.createJobDir();
+            speculation.reservation.track(dir);
+            long limitKbps = rateLimitKbps;
+            File file = null;
+            while (file == null) {
+                try {
+                    file = downloader.download(speculation.url, formatSelector, limitKbps, dir, progress -> {
+                        speculation.lastProgress = progress;
+                        speculation.listener.accept(progress);
+                    });
+                } catch (InterruptedException e) {
+                    // A discard cancels the task; an unthrottle only interrupts the download
+                    if (speculation.task.isCancelled() || !speculation.takeRestart()) {
+                        throw e;
+                    }
+                    // The interrupt was only the signal to restart; left set, it would kill the next yt-dlp at once
+                    Thread.interrupted();
+                    limitKbps = 0;
+                }
+            }
+            if (!speculation.result.complete(file)) {
+                // Discarded while the download was finishing
+                downloader.cleanup(file);
+            }
+        } catch (InterruptedException e) {
+            downloader.cleanupJobDir(dir);
+            speculation.result.cancel(false);
+        } catch (Exception e) {
+            log.warn("Speculative download of {} failed", speculation.url, e);
+            speculation.result.completeExceptionally(e);
+        } finally {
+            synchronized (speculation) {
+                speculation.thread = null;
+                speculation.restartUnlimited = false;
+            }
+            MDC.clear();
+            slots.release();
+        }
+    }
+
+    /**
+     * Takes over the speculation for the token if it was started for the same choice, forwarding
+     * its progress to the listener from now on. A different choice cancels it; returns null then,
+     * and when nothing was speculated for the token.
+     */
+    public Adopted adopt(String token, String choice, Consumer<DownloadProgress> listener) {
+        Speculation speculation = byToken.remove(token);
+        if (speculation == null) {
+            return null;
+        }
+        if (!speculation.choice.equals(choice)) {
+            discard(speculation, "miss");
+            return null;
+        }
+        speculation.listener = listener;
+        outcome("hit");
+        log.info("Adopted speculative download of {} in {} after {} ms", speculation.url, choice,
+                System.currentTimeMillis() - speculation.startedAt);
+        unthrottle(speculation);
+        return new Adopted(speculation);
+    }
+
+    /**
+     * Stops the rate-limited yt-dlp of an adopted download so run() starts it again without the
+     * limit; the job directory is kept, so it resumes from the .part files. Only worth a restart
+     * when the rest would take a while at the limit. Without a size estimate the rest is unknown,
+     * and a restart costs little next to a possibly long capped download.
+     */
+    private void unthrottle(Speculation speculation) {
+        DownloadProgress progress = speculation.lastProgress;
+        if (rateLimitKbps <= 0 || unthrottleMinMs <= 0 || progress == null || speculation.result.isDone()) {
+            return;
+        }
+        long remainingMs = 0;
+        if (speculation.estimatedSizeMb > 0) {
+            long remainingKb = (long) (speculation.estimatedSizeMb * 1024 * (100 - progress.percent()) / 100);
+            remainingMs = remainingKb * 1000 / rateLimitKbps;
+            if (remainingMs < unthrottleMinMs) {
+                return;
+            }
+        }
+        synchronized (speculation) {
+            if (speculation.thread == null || speculation.result.isDone()) {
+                return;
+            }
+            speculation.restartUnlimited = true;
+            speculation.thread.interrupt();
+        }
+        Metrics.counter("speculative_downloads_unthrottled_total",
+                "Adopted speculative downloads restarted without their rate limit").inc();
+        log.info("Restarting adopted download of {} without its {} KB/s limit at {}% (~{} s left at the limit)",
+                speculation.url, rateLimitKbps, Math.round(progress.percent()),
+                remainingMs > 0 ? remainingMs / 1000 : "?");
+    }
+
+    // For keyboards closed without a download, such as the cancel button
+    public void cancel(String token) {
+        Speculation speculation = byToken.remove(token);
+        if (speculation != null) {
+            discard(speculation, "cancelled");
+        }
+    }
+
+    public int running() {
+        return slotCount - slots.availablePermits();
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        Iterator<Speculation> it = byToken.values().iterator();
+        while (it.hasNext()) {
+            Speculation speculation = it.next();
+            if (now - speculation.startedAt > maxAgeMs && byToken.remove(speculation.token, speculation)) {
+                discard(speculation, "expired");
+            }
+        }
+    }
+
+    private void discard(Speculation speculation, String outcome) {
+        outcome(outcome);
+        abandon(speculation);
+        log.info("Discarded speculative download of {} in {} ({})", speculation.url, speculation.choice, outcome);
+    }
+
+    private void abandon(Speculation speculation) {
+        speculation.task.cancel(true);
+        if (!speculation.result.cancel(false) && !speculation.result.isCompletedExceptionally()) {
+            downloader.cleanup(speculation.result.join());
+        }
+        speculation.reservation.close();
+    }
+
+    private static void outcome(String result) {
+        Metrics.counter("speculative_downloads_total", "Speculative downloads by outcome; hit / (hit + miss) is the hit rate",
+                "result", result).inc();
+    }
+
+    private static void skipped(String reason) {
+        Metrics.counter("speculative_downloads_skipped_total", "Keyboards shown without a speculative download",
+                "reason", reason).inc();
+    }
+}
@@ -0,0 +1,245 @@
+package com.bot.downloader;
+
+import com.bot.metrics.Metrics;
+import com.bot.util.Env;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Makes a downloaded video ready for streaming before it is sent: MP4s with the moov atom after
+ * the media data are remuxed with stream copy so it comes first, ffprobe reads duration and
+ * dimensions, and ffmpeg grabs one frame as a thumbnail. Nothing is re-encoded. Any step that
+ * fails is skipped; the video is then sent with whatever was found.
+ */
+public class VideoPostProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(VideoPostProcessor.class);
+    // Telegram's limit for thumbnails
+    private static final int THUMBNAIL_SIZE = 320;
+    private static final int MAX_TOP_LEVEL_BOXES = 64;
+
+    /** What is known about a video for SendVideo; missing values are null. */
+    public record Prepared(File video, File thumbnail, Integer durationSeconds, Integer width, Integer height) {}
+
+    private final ProcessSupervisor supervisor;
+    private final ProcessSupervisor.Limits limits;
+    private final String ffmpeg;
+    private final String ffprobe;
+    private final boolean enabled;
+    private volatile boolean toolsMissing;
+
+    public VideoPostProcessor(ProcessSupervisor supervisor, ProcessSupervisor.Limits limits,
+                              String ffmpeg, String ffprobe, boolean enabled) {
+        this.supervisor = supervisor;
+        this.limits = limits;
+        this.ffmpeg = ffmpeg;
+        this.ffprobe = ffprobe;
+        this.enabled = enabled;
+    }
+
+    public static VideoPostProcessor fromEnv() {
+        return new VideoPostProcessor(ProcessSupervisor.fromEnv(),
+                ProcessSupervisor.Limits.fromEnv("POSTPROCESS", 300, 60),
+                Env.get("FFMPEG_BINARY", "ffmpeg"),
+                Env.get("FFPROBE_BINARY", "ffprobe"),
+                Env.getBoolean("POSTPROCESS_ENABLED", true));
+    }
+
+    /**
+     * Moves the moov atom to the front if needed and collects the metadata. The thumbnail is
+     * written next to the video, so it is removed together with the download directory.
+     */
+    public Prepared prepare(File video) throws InterruptedException {
+        if (!enabled || toolsMissing) {
+            return new Prepared(video, null, null, null, null);
+        }
+        long started = System.nanoTime();
+        try {
+            ensureFaststart(video);
+            Prepared prepared = probe(video);
+            Metrics.histogram("postprocess_duration_seconds", "Time to remux, probe and thumbnail a video", 1000)
+                    .record((System.nanoTime() - started) / 1_000_000);
+            return prepared;
+        } catch (IOException e) {
+            if (isMissingBinary(e)) {
+                toolsMissing = true;
+                log.warn("ffmpeg/ffprobe not found, sending videos without post-processing: {}", e.getMessage());
+            } else {
+                log.warn("Post-processing of {} failed, sending it as is", video.getName(), e);
+            }
+            result("failed");
+            return new Prepared(video, null, null, null, null);
+        }
+    }
+
+    private void ensureFaststart(File video) throws IOException, InterruptedException {
+        Boolean faststart = moovFirst(video);
+        if (faststart == null || faststart) {
+            result(faststart == null ? "not_mp4" : "faststart");
+            return;
+        }
+        // The remux needs a second copy for a moment
+        if (video.getParentFile().getUsableSpace() < video.length() + video.length() / 10) {
+            log.warn("Not enough disk space to remux {}, sending it without faststart", video.getName());
+            result("no_space");
+            return;
+        }
+        Path target = video.toPath().resolveSibling("faststart-" + video.getName());
+        try {
+            run(List.of(ffmpeg, "-v", "error", "-nostdin", "-y", "-i", video.getAbsolutePath(),
+                    "-map", "0", "-c", "copy", "-movflags", "+faststart", "-f", "mp4", target.toString()));
+            Files.move(target, video.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            result("remuxed");
+        } finally {
+            Files.deleteIfExists(target);
+        }
+    }
+
+    private Prepared probe(File video) throws IOException, InterruptedException {
+        String json = run(List.of(ffprobe, "-v", "error", "-select_streams", "v:0",
+                "-show_entries", "stream=width,height:stream_tags=rotate:stream_side_data=rotation:format=duration",
+                "-of", "json", video.getAbsolutePath()));
+        Integer duration = null;
+        Integer width = null;
+        Integer height = null;
+        try {
+            JSONObject root = new JSONObject(json);
+            JSONObject format = root.optJSONObject("format");
+            if (format != null && format.has("duration")) {
+                duration = (int) Math.round(Double.parseDouble(format.getString("duration")));
+            }
+            JSONArray streams = root.optJSONArray("streams");
+            if (streams != null && !streams.isEmpty()) {
+                JSONObject stream = streams.getJSONObject(0);
+                width = stream.has("width") ? stream.getInt("width") : null;
+                height = stream.has("height") ? stream.getInt("height") : null;
+                if (width != null && height != null && Math.abs(rotation(stream)) % 180 == 90) {
+                    Integer w = width;
+                    width = height;
+                    height = w;
+                }
+            }
+        } catch (JSONException | NumberFormatException e) {
+            log.warn("Unreadable ffprobe output for {}: {}", video.getName(), e.getMessage());
+        }
+        File thumbnail = width != null ? thumbnail(video, duration) : null;
+        return new Prepared(video, thumbnail, duration, width, height);
+    }
+
+    // Phone videos keep their orientation in the display matrix (side data) or, from older muxers, a rotate tag
+    private static int rotation(JSONObject stream) {
+        JSONArray sideData = stream.optJSONArray("side_data_list");
+        if (sideData != null) {
+            for (int i = 0; i < sideData.length(); i++) {
+                JSONObject entry = sideData.optJSONObject(i);
+                if (entry != null && entry.has("rotation")) {
+                    return entry.getInt("rotation");
+                }
+            }
+        }
+        JSONObject tags = stream.optJSONObject("tags");
+        if (tags != null && tags.has("rotate")) {
+            return Integer.parseInt(tags.getString("rotate"));
+        }
+        return 0;
+    }
+
+    // Null when no frame could be extracted; the video is still sent
+    private File thumbnail(File video, Integer durationSeconds) throws InterruptedException {
+        File thumbnail = video.toPath().resolveSibling("thumbnail.jpg").toFile();
+        String seek = durationSeconds != null && durationSeconds >= 2 ? "1" : "0";
+        try {
+            run(List.of(ffmpeg, "-v", "error", "-nostdin", "-y", "-ss", seek, "-i", video.getAbsolutePath(),
+                    "-frames:v", "1", "-vf", "scale=" + THUMBNAIL_SIZE + ":" + THUMBNAIL_SIZE
+                            + ":force_original_aspect_ratio=decrease",
+                    "-q:v", "5", thumbnail.getAbsolutePath()));
+            return thumbnail.length() > 0 ? thumbnail : null;
+        } catch (IOException e) {
+            log.warn("Could not extract a thumbnail from {}: {}", video.getName(), e.getMessage());
+            return null;
+        }
+    }
+
+    // Runs a command and returns its stdout; a non-zero exit is an IOException carrying stderr
+    private String run(List<String> command) throws IOException, InterruptedException {
+        try (ProcessSupervisor.Supervised process = supervisor.start(command, limits, false)) {
+            StringBuffer stderr = new StringBuffer();
+            process.pumpStderr(line -> {
+                if (stderr.length() < 4096) {
+                    stderr.append(line).append('\n');
+                }
+            });
+            String stdout;
+            try (InputStream in = process.stdout()) {
+                stdout = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException(command.get(0) + " exited with code " + exitCode + ": " + stderr.toString().trim());
+            }
+            return stdout;
+        }
+    }
+
+    /**
+     * Walks the top-level MP4 boxes: true when moov comes before mdat, false when it comes after,
+     * null for files that are not ISO media (webm, mkv), which have nothing to move.
+     */
+    static Boolean moovFirst(File video) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(video, "r")) {
+            long length = file.length();
+            long offset = 0;
+            for (int i = 0; i < MAX_TOP_LEVEL_BOXES && offset + 8 <= length; i++) {
+                file.seek(offset);
+                long size = Integer.toUnsignedLong(file.readInt());
+                byte[] type = new byte[4];
+                file.readFully(type);
+                String name = new String(type, StandardCharsets.US_ASCII);
+                if (i == 0 && !name.equals("ftyp")) {
+                    return null;
+                }
+                if (name.equals("moov")) {
+                    return true;
+                }
+                if (name.equals("mdat")) {
+                    return false;
+                }
+                if (size == 1) {
+                    size = file.readLong();
+                } else if (size == 0) {
+                    break;
+                }
+                if (size < 8) {
+                    break;
+                }
+                offset += size;
+            }
+            return null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static boolean isMissingBinary(IOException e) {
+        String message = e.getMessage();
+        return message != null && message.startsWith("Cannot run program");
+    }
+
+    private static void result(String result) {
+        Metrics.counter("postprocess_total", "Videos by post-processing outcome", "result", result).inc();
+    }
+}
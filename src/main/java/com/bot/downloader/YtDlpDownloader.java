@@ -1,125 +1,99 @@
 package com.bot.downloader;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import com.bot.cache.SingleFlightCache;
+import com.bot.metrics.Metrics;
+import com.bot.storage.StorageManager;
+import com.bot.util.Env;
+import com.bot.util.UrlValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.function.Consumer;
 
 public class YtDlpDownloader {
 
     private static final Logger log = LoggerFactory.getLogger(YtDlpDownloader.class);
 
-    private static final Path SHARED_DIR = Path.of("/tmp/shared");
     private static final String DEFAULT_FORMAT = "bestvideo[ext=mp4]+bestaudio[ext=m4a]/best[ext=mp4]/best";
 
     public record FormatInfo(int height, long estimatedSizeMb) {}
 
-    public List<FormatInfo> fetchAvailableFormats(String url) {
-        try {
-            ProcessBuilder pb = new ProcessBuilder(
-                    "yt-dlp",
-                    "--dump-json",
-                    "--no-playlist",
-                    "--no-download",
-                    "--remote-components", "ejs:github",
-                    url
-            );
-            pb.redirectErrorStream(false);
+    private final StorageManager storage;
+    private final YtDlpRunner runner = YtDlpRunner.fromEnv();
+    private final InfoJsonStore infoStore;
+    // Passed as --max-filesize so yt-dlp stops instead of filling the disk with a file Telegram refuses
+    private final long maxFileSizeMb = Env.getLong("YTDLP_MAX_FILESIZE_MB", 2000);
+    private final int outputTailLines = Env.getInt("YTDLP_OUTPUT_TAIL_LINES", 50);
+    private final long progressLogIntervalMs = Env.getLong("YTDLP_PROGRESS_LOG_SECONDS", 10) * 1000;
+    // Null when DOWNLOAD_ACCELERATION=false; yt-dlp then runs with its defaults
+    private final DownloadAccelerator accelerator = DownloadAccelerator.fromEnv();
 
-            log.info("Probing formats for: {}", url);
-            Process process = pb.start();
-
-            Thread stderrThread = new Thread(() -> {
-                try (BufferedReader errReader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-                    String errLine;
-                    while ((errLine = errReader.readLine()) != null) {
-                        log.debug("yt-dlp probe stderr: {}", errLine);
-                    }
-                } catch (IOException ignored) {}
-            });
-            stderrThread.setDaemon(true);
-            stderrThread.start();
-
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line);
-                }
-            }
-            stderrThread.join(5000);
-
-            int exitCode = process.waitFor();
-            if (exitCode != 0) {
-                log.warn("yt-dlp --dump-json exited with code {}", exitCode);
-                return List.of();
-            }
+    // Failed probes come back empty and are not cached
+    private final SingleFlightCache<String, List<FormatInfo>> probeCache = new SingleFlightCache<>(
+            Env.getInt("PROBE_CACHE_MAX_ENTRIES", 1000),
+            Env.getLong("PROBE_CACHE_TTL_SECONDS", 600) * 1000,
+            formats -> !formats.isEmpty());
 
-            JSONObject json = new JSONObject(output.toString());
-            JSONArray formats = json.optJSONArray("formats");
-            if (formats == null) {
-                return List.of();
-            }
+    public YtDlpDownloader(StorageManager storage) {
+        this.storage = storage;
+        this.infoStore = new InfoJsonStore(
+                storage.root().resolve("info"),
+                Env.getInt("INFO_JSON_MAX_ENTRIES", 200),
+                Env.getLong("INFO_JSON_MAX_AGE_SECONDS", 1800) * 1000);
+    }
 
-            // Find the best audio size (we'll add it to each video estimate)
-            long bestAudioBytes = 0;
-            for (int i = 0; i < formats.length(); i++) {
-                JSONObject fmt = formats.getJSONObject(i);
-                String acodec = fmt.optString("acodec", "none");
-                String vcodec = fmt.optString("vcodec", "none");
-                if (!"none".equals(acodec) && "none".equals(vcodec)) {
-                    long size = getFormatSize(fmt);
-                    if (size > bestAudioBytes) {
-                        bestAudioBytes = size;
-                    }
-                }
-            }
+    public List<FormatInfo> fetchAvailableFormats(String url) {
+        return probeCache.get(UrlValidator.videoKey(url), () -> probeFormats(url));
+    }
 
-            // For each height, keep the largest video stream size (best quality at that height)
-            TreeMap<Integer, Long> heightToSize = new TreeMap<>();
-            for (int i = 0; i < formats.length(); i++) {
-                JSONObject fmt = formats.getJSONObject(i);
-                String vcodec = fmt.optString("vcodec", "none");
-                if ("none".equals(vcodec)) {
-                    continue;
-                }
-                int height = fmt.optInt("height", 0);
-                if (height <= 0) {
-                    continue;
-                }
-                long size = getFormatSize(fmt);
-                heightToSize.merge(height, size, Math::max);
-            }
+    public SingleFlightCache.Stats probeCacheStats() {
+        return probeCache.stats();
+    }
 
-            List<FormatInfo> result = new ArrayList<>();
-            for (Map.Entry<Integer, Long> entry : heightToSize.entrySet()) {
-                long totalBytes = entry.getValue() + bestAudioBytes;
-                long totalMb = totalBytes / (1024 * 1024);
-                result.add(new FormatInfo(entry.getKey(), totalMb));
+    private List<FormatInfo> probeFormats(String url) {
+        String videoKey = UrlValidator.videoKey(url);
+        Path infoJson = null;
+        long started = System.nanoTime();
+        try {
+            log.info("Probing formats for: {}", url);
+            infoJson = infoStore.reserve(videoKey);
+            List<FormatInfo> formats = runner.probe(List.of(
+                    "--no-playlist",
+                    "--remote-components", "ejs:github",
+                    url
+            ), infoJson);
+            if (!formats.isEmpty()) {
+                infoStore.commit(videoKey, infoJson);
+                infoJson = null;
             }
-
-            return result;
+            recordProbe(url, started, formats.isEmpty() ? "empty" : "ok");
+            return formats;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            recordProbe(url, started, "interrupted");
+            return List.of();
         } catch (Exception e) {
             log.error("Failed to probe formats for: {}", url, e);
+            recordProbe(url, started, "error");
             return List.of();
+        } finally {
+            if (infoJson != null) {
+                infoStore.discard(infoJson);
+            }
         }
     }
 
-    private long getFormatSize(JSONObject fmt) {
-        long size = fmt.optLong("filesize", 0);
-        if (size > 0) return size;
-        return fmt.optLong("filesize_approx", 0);
+    private static void recordProbe(String url, long startedNanos, String result) {
+        String site = UrlValidator.site(url);
+        Metrics.histogram("ytdlp_probe_duration_seconds", "Time to extract the format list of a video", 1000,
+                "site", site).record((System.nanoTime() - startedNanos) / 1_000_000);
+        Metrics.counter("ytdlp_probes_total", "Format probes by outcome", "site", site, "result", result).inc();
     }
 
     public File download(String url) throws IOException, InterruptedException {
@@ -127,49 +101,164 @@ public class YtDlpDownloader {
     }
 
     public File download(String url, String formatSelector) throws IOException, InterruptedException {
-        Files.createDirectories(SHARED_DIR);
-        Path tempDir = Files.createTempDirectory(SHARED_DIR, "yt-dlp-");
+        return download(url, formatSelector, progress -> {});
+    }
+
+    public File download(String url, String formatSelector, Consumer<DownloadProgress> progressListener)
+            throws IOException, InterruptedException {
+        return download(url, formatSelector, 0, progressListener);
+    }
+
+    // rateLimitKbps > 0 caps the download with yt-dlp's --limit-rate
+    public File download(String url, String formatSelector, long rateLimitKbps,
+                         Consumer<DownloadProgress> progressListener) throws IOException, InterruptedException {
+        Path tempDir = storage.createJobDir();
+        try {
+            return download(url, formatSelector, rateLimitKbps, tempDir, progressListener);
+        } catch (InterruptedException e) {
+            // Nobody else knows this directory, so nothing can resume from it
+            deleteDirectory(tempDir);
+            throw e;
+        }
+    }
+
+    /**
+     * Downloads into the given job directory. yt-dlp continues from .part files already in it, so
+     * a directory kept from an interrupted run resumes that download instead of starting over. On
+     * interruption the directory and its lease are kept for the caller, which resumes the download
+     * later or removes it with {@link #cleanupJobDir}; on failure it is removed here.
+     */
+    public File download(String url, String formatSelector, long rateLimitKbps, Path tempDir,
+                         Consumer<DownloadProgress> progressListener) throws IOException, InterruptedException {
+        if (accelerator == null) {
+            List<String> extraArgs = rateLimitKbps > 0 ? List.of("--limit-rate", rateLimitKbps + "K") : List.of();
+            return download(url, formatSelector, extraArgs, null, tempDir, progressListener);
+        }
+        try (DownloadAccelerator.Plan plan = accelerator.plan(UrlValidator.site(url), rateLimitKbps)) {
+            return download(url, formatSelector, plan.args(), plan, tempDir, progressListener);
+        }
+    }
+
+    private File download(String url, String formatSelector, List<String> extraArgs, DownloadAccelerator.Plan plan,
+                          Path tempDir, Consumer<DownloadProgress> progressListener)
+            throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        // Part of a resumed download is already on disk, so its throughput would be overstated
+        String[] existing = tempDir.toFile().list((dir, name) -> !name.equals(StorageManager.LEASE_FILE));
+        boolean resumed = existing != null && existing.length > 0;
         String outputTemplate = tempDir.resolve("%(title).80s.%(ext)s").toString();
 
         String format = formatSelector != null ? formatSelector : DEFAULT_FORMAT;
+        String videoKey = UrlValidator.videoKey(url);
+        OutputTail output = new OutputTail(outputTailLines);
+        int exitCode = -1;
 
-        ProcessBuilder pb = new ProcessBuilder(
-                "yt-dlp",
-                "-f", format,
-                "--merge-output-format", "mp4",
-                "--remote-components", "ejs:github",
-                "--no-playlist",
-                "-o", outputTemplate,
-                url
-        );
-        pb.redirectErrorStream(true);
-
-        log.info("Starting download: {} with format: {}", url, format);
-        Process process = pb.start();
-
-        StringBuilder output = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                log.info("yt-dlp: {}", line);
-                output.append(line).append("\n");
+        // Skip the second extraction while the probe's stream URLs are still fresh
+        Path infoJson = infoStore.lookup(videoKey);
+        if (infoJson != null) {
+            log.info("Starting download: {} with format: {} from cached info JSON", url, format);
+            try {
+                exitCode = runDownload(format, outputTemplate, extraArgs, output, plan, progressListener,
+                        "--load-info-json", infoJson.toString());
+            } catch (IOException | RuntimeException e) {
+                deleteDirectory(tempDir);
+                throw e;
+            }
+            if (exitCode != 0) {
+                log.warn("Download from cached info JSON failed with code {}, extracting {} again", exitCode, url);
+                infoStore.invalidate(videoKey);
+                clearDirectory(tempDir);
+                output.clear();
+            }
+        }
+        if (exitCode != 0) {
+            log.info("Starting download: {} with format: {}", url, format);
+            try {
+                exitCode = runDownload(format, outputTemplate, extraArgs, output, plan, progressListener, url);
+            } catch (IOException | RuntimeException e) {
+                deleteDirectory(tempDir);
+                throw e;
             }
         }
 
-        int exitCode = process.waitFor();
         if (exitCode != 0) {
             deleteDirectory(tempDir);
             throw new IOException("yt-dlp exited with code " + exitCode + "\n" + output);
         }
 
-        File[] files = tempDir.toFile().listFiles();
+        File[] files = tempDir.toFile().listFiles(f -> !f.getName().equals(StorageManager.LEASE_FILE));
         if (files == null || files.length == 0) {
             deleteDirectory(tempDir);
             throw new IOException("yt-dlp produced no output files");
         }
 
-        log.info("Download complete: {}", files[0].getName());
-        return files[0];
+        // A resumed directory may also hold the thumbnail of an earlier attempt; the video is the largest file
+        File video = files[0];
+        for (File f : files) {
+            if (f.length() > video.length()) {
+                video = f;
+            }
+        }
+        log.info("Download complete: {}", video.getName());
+        recordDownload(url, started, video.length());
+        if (plan != null && !resumed) {
+            plan.finished(video.length(), (System.nanoTime() - started) / 1_000_000);
+        }
+        return video;
+    }
+
+    private static void recordDownload(String url, long startedNanos, long bytes) {
+        String site = UrlValidator.site(url);
+        long millis = Math.max(1, (System.nanoTime() - startedNanos) / 1_000_000);
+        Metrics.histogram("download_duration_seconds", "Time from starting yt-dlp to a finished file", 1000,
+                "site", site).record(millis);
+        // Kilobytes per second, exported as megabytes per second
+        Metrics.histogram("download_throughput_megabytes_per_second", "Download throughput per video", 1024,
+                "site", site).record(bytes * 1000 / 1024 / millis);
+        Metrics.counter("download_bytes_total", "Bytes of finished downloads", "site", site).add(bytes);
+    }
+
+    private int runDownload(String format, String outputTemplate, List<String> extraArgs, OutputTail output,
+                            DownloadAccelerator.Plan plan, Consumer<DownloadProgress> progressListener,
+                            String... source)
+            throws IOException, InterruptedException {
+        List<String> args = new ArrayList<>(List.of(
+                "-f", format,
+                "--merge-output-format", "mp4",
+                "--remote-components", "ejs:github",
+                "--no-playlist",
+                "--newline",
+                "-o", outputTemplate
+        ));
+        if (maxFileSizeMb > 0) {
+            args.addAll(List.of("--max-filesize", maxFileSizeMb + "M"));
+        }
+        args.addAll(extraArgs);
+        args.addAll(List.of(source));
+        // Progress lines make up almost all of the output, so only one per interval and the last are logged
+        long[] lastProgressLog = {0};
+        int exitCode = runner.download(args, line -> {
+            output.add(line);
+            if (plan != null) {
+                plan.observe(line);
+            }
+            DownloadProgress progress = DownloadProgress.parse(line);
+            if (progress == null) {
+                log.info("yt-dlp: {}", line);
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (now - lastProgressLog[0] >= progressLogIntervalMs || progress.percent() >= 100) {
+                lastProgressLog[0] = now;
+                log.info("yt-dlp: {}", line);
+            } else {
+                log.debug("yt-dlp: {}", line);
+            }
+            progressListener.accept(progress);
+        });
+        Metrics.counter("ytdlp_download_exits_total", "yt-dlp download runs by exit code",
+                "code", String.valueOf(exitCode)).inc();
+        return exitCode;
     }
 
     public static String buildFormatSelector(int height) {
@@ -180,23 +269,30 @@ public class YtDlpDownloader {
 
     public void cleanup(File file) {
         if (file == null) return;
-        try {
-            Path dir = file.getParentFile().toPath();
-            file.delete();
-            Files.deleteIfExists(dir);
-        } catch (IOException e) {
-            log.warn("Failed to clean up temp files", e);
+        deleteDirectory(file.getParentFile().toPath());
+    }
+
+    // For a job directory whose download was interrupted and will not be resumed
+    public void cleanupJobDir(Path dir) {
+        if (dir == null) return;
+        deleteDirectory(dir);
+    }
+
+    // Keeps the lease so the janitor leaves the directory alone while it is being reused
+    private void clearDirectory(Path dir) {
+        File[] files = dir.toFile().listFiles(f -> !f.getName().equals(StorageManager.LEASE_FILE));
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
         }
     }
 
     private void deleteDirectory(Path dir) {
+        storage.releaseJobDir(dir);
         try {
-            File[] files = dir.toFile().listFiles();
-            if (files != null) {
-                for (File f : files) {
-                    f.delete();
-                }
-            }
+            clearDirectory(dir);
+            Files.deleteIfExists(dir.resolve(StorageManager.LEASE_FILE));
             Files.deleteIfExists(dir);
         } catch (IOException e) {
             log.warn("Failed to delete temp directory: {}", dir, e);
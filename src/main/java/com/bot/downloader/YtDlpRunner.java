@@ -0,0 +1,42 @@
+package com.bot.downloader;
+
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import com.bot.util.Env;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Executes yt-dlp with regular command line arguments, either as a fresh process per call or on a
+ * pool of long-lived workers. Interrupting the calling thread cancels the running call; a call
+ * that exceeds its stage's time or no-output limit fails with {@link ProcessTimeoutException}.
+ */
+public interface YtDlpRunner {
+
+    // When infoJson is not null the full info JSON is also written there for a later --load-info-json
+    List<FormatInfo> probe(List<String> args, Path infoJson) throws IOException, InterruptedException;
+
+    // Returns the yt-dlp exit code; every output line is passed to the consumer
+    int download(List<String> args, Consumer<String> output) throws IOException, InterruptedException;
+
+    static YtDlpRunner fromEnv() {
+        String mode = Env.get("YTDLP_MODE", "process");
+        return switch (mode) {
+            case "process" -> ProcessYtDlpRunner.fromEnv();
+            case "pool" -> YtDlpWorkerPool.fromEnv();
+            default -> throw new IllegalArgumentException("Unknown YTDLP_MODE: " + mode);
+        };
+    }
+
+    // --dump-json prints nothing until extraction is done, so probes only get a wall-clock limit by default
+    static ProcessSupervisor.Limits probeLimitsFromEnv() {
+        return ProcessSupervisor.Limits.fromEnv("YTDLP_PROBE", 120, 0);
+    }
+
+    // With --newline every progress update is a line; merging with ffmpeg can stay quiet for a while
+    static ProcessSupervisor.Limits downloadLimitsFromEnv() {
+        return ProcessSupervisor.Limits.fromEnv("YTDLP_DOWNLOAD", 3600, 300);
+    }
+}
@@ -0,0 +1,437 @@
+package com.bot.downloader;
+
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import com.bot.metrics.Metrics;
+import com.bot.util.Env;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps long-lived yt-dlp worker processes (see ytdlp_worker.py) that serve JSON requests over
+ * stdin/stdout, so each call skips Python startup and extractor imports. Each worker serves one
+ * request at a time, is recycled after a number of requests, and is replaced when it crashes or
+ * fails a health check.
+ */
+public class YtDlpWorkerPool implements YtDlpRunner, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(YtDlpWorkerPool.class);
+    private static final long CANCEL_GRACE_MS = 10_000;
+    private static final long PING_TIMEOUT_MS = 5_000;
+
+    private final List<String> command;
+    private final int maxRequestsPerWorker;
+    private final ProcessSupervisor.Limits probeLimits;
+    private final ProcessSupervisor.Limits downloadLimits;
+
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final AtomicInteger missing = new AtomicInteger();
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "ytdlp-pool-maintenance");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public YtDlpWorkerPool(List<String> command, int size, int maxRequestsPerWorker, long healthCheckIntervalMs,
+                           ProcessSupervisor.Limits probeLimits, ProcessSupervisor.Limits downloadLimits) {
+        this.command = command;
+        this.maxRequestsPerWorker = maxRequestsPerWorker;
+        this.probeLimits = probeLimits;
+        this.downloadLimits = downloadLimits;
+        for (int i = 0; i < size; i++) {
+            spawn();
+        }
+        maintenance.scheduleWithFixedDelay(this::checkHealth,
+                healthCheckIntervalMs, healthCheckIntervalMs, TimeUnit.MILLISECONDS);
+        Metrics.gauge("ytdlp_pool_idle_workers", "yt-dlp workers waiting for a request", this::idleWorkers);
+        Metrics.counter("ytdlp_pool_restarts_total", "yt-dlp workers replaced since startup", this::restarts);
+        log.info("yt-dlp worker pool started: {} workers, recycle after {} requests, command {}",
+                size, maxRequestsPerWorker, command);
+    }
+
+    public static YtDlpWorkerPool fromEnv() {
+        String custom = Env.get("YTDLP_WORKER_COMMAND");
+        List<String> command = custom != null
+                ? Arrays.asList(custom.split("\\s+"))
+                : List.of(Env.get("PYTHON_BINARY", "python3"), extractWorkerScript().toString());
+        return new YtDlpWorkerPool(command,
+                Env.getInt("YTDLP_POOL_SIZE", 4),
+                Env.getInt("YTDLP_POOL_MAX_REQUESTS", 50),
+                Env.getLong("YTDLP_POOL_HEALTH_INTERVAL_SECONDS", 30) * 1000,
+                YtDlpRunner.probeLimitsFromEnv(),
+                YtDlpRunner.downloadLimitsFromEnv());
+    }
+
+    private static Path extractWorkerScript() {
+        try (InputStream in = YtDlpWorkerPool.class.getResourceAsStream("/ytdlp_worker.py")) {
+            if (in == null) {
+                throw new IllegalStateException("ytdlp_worker.py is missing from the classpath");
+            }
+            Path script = Files.createTempFile("ytdlp_worker", ".py");
+            Files.copy(in, script, StandardCopyOption.REPLACE_EXISTING);
+            script.toFile().deleteOnExit();
+            return script;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to extract ytdlp_worker.py", e);
+        }
+    }
+
+    @Override
+    public List<FormatInfo> probe(List<String> args, Path infoJson) throws IOException, InterruptedException {
+        Worker worker = acquire();
+        long id = nextRequestId.incrementAndGet();
+        boolean healthy = true;
+        try {
+            JSONObject request = request(id, "probe", args);
+            if (infoJson != null) {
+                request.put("info_path", infoJson.toString());
+            }
+            BlockingQueue<JSONObject> events = worker.send(id, request);
+            Call call = new Call(probeLimits);
+            while (true) {
+                JSONObject event = awaitEvent(worker, id, events, call);
+                switch (event.getString("type")) {
+                    case "output" -> log.debug("yt-dlp probe: {}", event.optString("data"));
+                    case "result" -> {
+                        // Same computation as the streaming path, run over the worker's projected formats
+                        return FormatInfoParser.parse(new StringReader(event.getJSONObject("info").toString()));
+                    }
+                    case "error" -> {
+                        log.warn("yt-dlp worker probe failed: {}", event.optString("message"));
+                        return List.of();
+                    }
+                    default -> {
+                        healthy = false;
+                        throw new IOException("yt-dlp worker died during probe");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            healthy = e instanceof CancelledCleanly;
+            throw e;
+        } finally {
+            worker.pending.remove(id);
+            release(worker, healthy);
+        }
+    }
+
+    @Override
+    public int download(List<String> args, Consumer<String> output) throws IOException, InterruptedException {
+        Worker worker = acquire();
+        long id = nextRequestId.incrementAndGet();
+        boolean healthy = true;
+        try {
+            BlockingQueue<JSONObject> events = worker.send(id, request(id, "download", args));
+            Call call = new Call(downloadLimits);
+            while (true) {
+                JSONObject event = awaitEvent(worker, id, events, call);
+                switch (event.getString("type")) {
+                    case "output" -> output.accept(event.optString("data"));
+                    case "exit" -> {
+                        return event.getInt("code");
+                    }
+                    case "error" -> throw new IOException("yt-dlp worker error: " + event.optString("message"));
+                    default -> {
+                        healthy = false;
+                        throw new IOException("yt-dlp worker died during download");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            healthy = e instanceof CancelledCleanly;
+            throw e;
+        } finally {
+            worker.pending.remove(id);
+            release(worker, healthy);
+        }
+    }
+
+    // Time limits of one request; every event counts as progress for the idle limit
+    private static final class Call {
+        final ProcessSupervisor.Limits limits;
+        final long startedAt = System.currentTimeMillis();
+        long lastEvent = startedAt;
+
+        Call(ProcessSupervisor.Limits limits) {
+            this.limits = limits;
+        }
+
+        // Milliseconds until the next limit runs out, or Long.MAX_VALUE without limits
+        long remaining(long now) {
+            long remaining = Long.MAX_VALUE;
+            if (limits.wallClockMs() > 0) {
+                remaining = startedAt + limits.wallClockMs() - now;
+            }
+            if (limits.idleMs() > 0) {
+                remaining = Math.min(remaining, lastEvent + limits.idleMs() - now);
+            }
+            return remaining;
+        }
+    }
+
+    // On interruption or a timeout, asks the worker to cancel and waits briefly so it can be reused
+    private JSONObject awaitEvent(Worker worker, long id, BlockingQueue<JSONObject> events, Call call)
+            throws InterruptedException, IOException {
+        try {
+            long remaining = call.remaining(System.currentTimeMillis());
+            JSONObject event = remaining == Long.MAX_VALUE
+                    ? events.take()
+                    : events.poll(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+            if (event != null) {
+                call.lastEvent = System.currentTimeMillis();
+                return event;
+            }
+        } catch (InterruptedException e) {
+            if (cancel(worker, id, events)) {
+                throw new CancelledCleanly();
+            }
+            throw e;
+        }
+        long elapsed = System.currentTimeMillis() - call.startedAt;
+        boolean wallClock = call.limits.wallClockMs() > 0 && elapsed >= call.limits.wallClockMs();
+        String reason = wallClock
+                ? "ran longer than " + call.limits.wallClockMs() / 1000 + " s"
+                : "no output for " + call.limits.idleMs() / 1000 + " s";
+        log.warn("yt-dlp worker request {} {}, cancelling it", id, reason);
+        Metrics.counter("ytdlp_pool_timeouts_total", "yt-dlp worker requests stopped by a time limit",
+                "reason", wallClock ? "wall_clock" : "idle").inc();
+        if (!cancel(worker, id, events)) {
+            // A stuck extraction never reaches the progress hook that handles cancels
+            worker.kill();
+        }
+        throw new ProcessTimeoutException("yt-dlp worker request was stopped: " + reason);
+    }
+
+    // Returns whether the worker acknowledged the cancel within the grace period
+    private boolean cancel(Worker worker, long id, BlockingQueue<JSONObject> events) throws InterruptedException {
+        worker.cancel(id);
+        long deadline = System.currentTimeMillis() + CANCEL_GRACE_MS;
+        JSONObject event;
+        while ((event = events.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) != null) {
+            String type = event.getString("type");
+            if (type.equals("exit") || type.equals("error") || type.equals("result")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Worker acquire() throws IOException, InterruptedException {
+        while (true) {
+            Worker worker = idle.poll();
+            if (worker == null && missing.get() > 0) {
+                missing.decrementAndGet();
+                try {
+                    worker = new Worker();
+                } catch (IOException e) {
+                    missing.incrementAndGet();
+                    throw e;
+                }
+            }
+            if (worker == null) {
+                worker = idle.take();
+            }
+            if (worker.alive) {
+                return worker;
+            }
+            worker.kill();
+            missing.incrementAndGet();
+        }
+    }
+
+    private void release(Worker worker, boolean healthy) {
+        worker.served++;
+        if (healthy && worker.alive && worker.served < maxRequestsPerWorker) {
+            idle.add(worker);
+            return;
+        }
+        if (!healthy || !worker.alive) {
+            restarts.incrementAndGet();
+            log.warn("Replacing unhealthy yt-dlp worker after {} requests", worker.served);
+        } else {
+            log.debug("Recycling yt-dlp worker after {} requests", worker.served);
+        }
+        worker.kill();
+        spawn();
+    }
+
+    private void spawn() {
+        try {
+            idle.add(new Worker());
+        } catch (IOException e) {
+            log.error("Failed to start yt-dlp worker", e);
+            missing.incrementAndGet();
+        }
+    }
+
+    private void checkHealth() {
+        try {
+            for (int i = idle.size(); i > 0; i--) {
+                Worker worker = idle.poll();
+                if (worker == null) {
+                    break;
+                }
+                if (ping(worker)) {
+                    idle.add(worker);
+                } else {
+                    log.warn("yt-dlp worker failed health check, restarting it");
+                    restarts.incrementAndGet();
+                    worker.kill();
+                    spawn();
+                }
+            }
+            for (int n = missing.get(); n > 0 && missing.compareAndSet(n, n - 1); n = missing.get()) {
+                spawn();
+            }
+        } catch (Exception e) {
+            log.warn("yt-dlp worker health check failed", e);
+        }
+    }
+
+    private boolean ping(Worker worker) {
+        long id = nextRequestId.incrementAndGet();
+        try {
+            BlockingQueue<JSONObject> events = worker.send(id, request(id, "ping", List.of()));
+            JSONObject event = events.poll(PING_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return event != null && "result".equals(event.getString("type"));
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            worker.pending.remove(id);
+        }
+    }
+
+    private static JSONObject request(long id, String op, List<String> args) {
+        return new JSONObject().put("id", id).put("op", op).put("args", new JSONArray(args));
+    }
+
+    public int idleWorkers() {
+        return idle.size();
+    }
+
+    public long restarts() {
+        return restarts.get();
+    }
+
+    @Override
+    public void close() {
+        maintenance.shutdownNow();
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.kill();
+        }
+    }
+
+    // The worker acknowledged the cancel and can serve the next request
+    private static final class CancelledCleanly extends InterruptedException {
+        CancelledCleanly() {
+            super("yt-dlp request cancelled");
+        }
+    }
+
+    private final class Worker {
+        private final Process process;
+        private final BufferedWriter stdin;
+        private final Map<Long, BlockingQueue<JSONObject>> pending = new ConcurrentHashMap<>();
+        private volatile boolean alive = true;
+        private int served;
+
+        Worker() throws IOException {
+            ProcessBuilder pb = new ProcessBuilder(new ArrayList<>(command));
+            pb.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = pb.start();
+            stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            Thread reader = new Thread(this::readEvents, "ytdlp-worker-" + process.pid());
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void readEvents() {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JSONObject event;
+                    try {
+                        event = new JSONObject(line);
+                    } catch (RuntimeException e) {
+                        log.debug("Ignoring non-protocol output from yt-dlp worker: {}", line);
+                        continue;
+                    }
+                    BlockingQueue<JSONObject> queue = pending.get(event.optLong("id"));
+                    if (queue != null) {
+                        queue.add(event);
+                    }
+                }
+            } catch (IOException ignored) {
+            } finally {
+                alive = false;
+                JSONObject crashed = new JSONObject().put("type", "crashed");
+                pending.values().forEach(queue -> queue.add(crashed));
+            }
+        }
+
+        BlockingQueue<JSONObject> send(long id, JSONObject request) throws IOException {
+            if (!alive) {
+                throw new IOException("yt-dlp worker is not running");
+            }
+            BlockingQueue<JSONObject> queue = new LinkedBlockingQueue<>();
+            pending.put(id, queue);
+            write(request);
+            return queue;
+        }
+
+        void cancel(long id) {
+            try {
+                write(new JSONObject().put("id", nextRequestId.incrementAndGet()).put("op", "cancel").put("target", id));
+            } catch (IOException e) {
+                log.debug("Failed to send cancel to yt-dlp worker", e);
+            }
+        }
+
+        private void write(JSONObject request) throws IOException {
+            synchronized (stdin) {
+                stdin.write(request.toString());
+                stdin.newLine();
+                stdin.flush();
+            }
+        }
+
+        // Takes the worker's yt-dlp and ffmpeg children down with it
+        void kill() {
+            alive = false;
+            ProcessSupervisor.destroyTree(process);
+        }
+    }
+}
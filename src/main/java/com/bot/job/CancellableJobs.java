@@ -0,0 +1,107 @@
+package com.bot.job;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Jobs that the user can cancel, keyed by their status message. A job is registered when it is
+ * accepted and bound to a thread when it starts; cancelling a running job interrupts that thread,
+ * which stops a waiting stage slot, disk reservation or yt-dlp call. A detached job can no longer
+ * be cancelled but stays registered until it is closed.
+ */
+public class CancellableJobs {
+
+    private record Key(String chatId, int messageId) {}
+
+    private final Map<Key, Handle> jobs = new ConcurrentHashMap<>();
+
+    public final class Handle implements AutoCloseable {
+        private final Key key;
+        private Thread thread;
+        private Thread interrupted;
+        private boolean cancelled;
+        private boolean detached;
+
+        private Handle(Key key) {
+            this.key = key;
+        }
+
+        // Binds the job to the calling thread; false if it was cancelled while it waited
+        public synchronized boolean start() {
+            if (cancelled) {
+                return false;
+            }
+            thread = Thread.currentThread();
+            return true;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        private synchronized boolean isDetached() {
+            return detached;
+        }
+
+        private synchronized boolean cancel() {
+            if (detached) {
+                return false;
+            }
+            cancelled = true;
+            if (thread != null) {
+                interrupted = thread;
+                thread.interrupt();
+            }
+            return true;
+        }
+
+        /**
+         * Ends the cancellable part of the job, e.g. before the upload starts. Returns false if the
+         * job was cancelled already.
+         */
+        public synchronized boolean detach() {
+            detached = true;
+            thread = null;
+            return !cancelled;
+        }
+
+        // Clears an interrupt the job did not consume, so a pooled thread is not left interrupted
+        @Override
+        public void close() {
+            boolean clear;
+            synchronized (this) {
+                detach();
+                jobs.remove(key, this);
+                clear = interrupted == Thread.currentThread();
+                interrupted = null;
+            }
+            if (clear) {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    public Handle register(String chatId, int messageId) {
+        Key key = new Key(chatId, messageId);
+        Handle handle = new Handle(key);
+        jobs.put(key, handle);
+        return handle;
+    }
+
+    // Returns false if no cancellable job uses that status message
+    public boolean cancel(String chatId, int messageId) {
+        Handle handle = jobs.get(new Key(chatId, messageId));
+        return handle != null && handle.cancel();
+    }
+
+    // Whether the job on that status message can still be cancelled
+    public boolean isActive(String chatId, int messageId) {
+        Handle handle = jobs.get(new Key(chatId, messageId));
+        return handle != null && !handle.isDetached();
+    }
+
+    // Whether a job on that status message is registered and not closed yet, cancellable or not
+    public boolean isRunning(String chatId, int messageId) {
+        return jobs.containsKey(new Key(chatId, messageId));
+    }
+}
@@ -0,0 +1,334 @@
+package com.bot.job;
+
+import com.bot.metrics.Metrics;
+import com.bot.util.Env;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of job state transitions, so jobs interrupted by a restart can be picked up
+ * again. A job is a link sent by a user, identified by its chat and status message. Every record
+ * holds the job's full state, so replay keeps the last record per job and forgets finished ones.
+ * Records are written straight away but fsynced in batches; compaction rewrites the file with
+ * only the unfinished jobs once enough records have piled up.
+ */
+public class JobJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(JobJournal.class);
+    private static final String FILE = "jobs.log";
+    private static final long OFFERED_SWEEP_MS = 60_000;
+
+    public enum State { QUEUED, PROBING, OFFERED, DOWNLOADING, UPLOADING, DONE }
+
+    /**
+     * @param chosen   whether the user picked a quality; until then the job resumes with a new probe
+     * @param jobDir   the download's temp directory, kept across restarts for yt-dlp's .part files
+     * @param resumes  how often the job was already resumed
+     */
+    public record Entry(String chatId, int messageId, String url, State state, boolean chosen,
+                        String formatSelector, long estimatedSizeMb, String startText, Path jobDir,
+                        int resumes, long updatedAt) {
+
+        Entry with(State state) {
+            return new Entry(chatId, messageId, url, state, chosen, formatSelector, estimatedSizeMb, startText,
+                    jobDir, resumes, System.currentTimeMillis());
+        }
+    }
+
+    private final Path file;
+    private final long offeredExpiryMs;
+    private final long maxAgeMs;
+    private final int maxResumes;
+    private final int compactAfter;
+
+    private final Map<String, Entry> live = new LinkedHashMap<>();
+    private FileChannel channel;
+    private OutputStream out;
+    private int recordsSinceCompaction;
+    private boolean dirty;
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "job-journal-sync");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * @param offeredExpiryMs keyboards older than this are finished, and not offered again after a restart
+     * @param maxAgeMs        unfinished jobs older than this are dropped instead of resumed
+     * @param maxResumes      a job that keeps getting interrupted, say by a crash it causes itself, is dropped after this
+     * @param compactAfter    records written before the file is rewritten with only the live jobs
+     */
+    public JobJournal(Path dir, long syncIntervalMs, long offeredExpiryMs, long maxAgeMs, int maxResumes,
+                      int compactAfter) throws IOException {
+        Files.createDirectories(dir);
+        this.file = dir.resolve(FILE);
+        this.offeredExpiryMs = offeredExpiryMs;
+        this.maxAgeMs = maxAgeMs;
+        this.maxResumes = maxResumes;
+        this.compactAfter = compactAfter;
+        replay();
+        compact();
+        syncer.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        syncer.scheduleWithFixedDelay(this::expireOffered, OFFERED_SWEEP_MS, OFFERED_SWEEP_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::sync, "job-journal-shutdown"));
+        Metrics.gauge("job_journal_live_jobs", "Unfinished jobs in the job journal", this::size);
+    }
+
+    // Null unless JOB_JOURNAL=true
+    public static JobJournal fromEnv(Path sharedRoot) throws IOException {
+        if (!Env.getBoolean("JOB_JOURNAL", false)) {
+            return null;
+        }
+        return new JobJournal(
+                Path.of(Env.get("JOB_JOURNAL_DIR", sharedRoot.resolve("journal").toString())),
+                Env.getLong("JOB_JOURNAL_SYNC_MS", 200),
+                Env.getLong("SELECTION_EXPIRY_MINUTES", 30) * 60 * 1000,
+                Env.getLong("JOB_JOURNAL_MAX_AGE_HOURS", 24) * 3600 * 1000,
+                Env.getInt("JOB_JOURNAL_MAX_RESUMES", 3),
+                Env.getInt("JOB_JOURNAL_COMPACT_RECORDS", 1000));
+    }
+
+    public void queued(String chatId, int messageId, String url) {
+        write(new Entry(chatId, messageId, url, State.QUEUED, false, null, 0, null, null, 0,
+                System.currentTimeMillis()));
+    }
+
+    // The user picked a quality; the download is queued
+    public synchronized void chosen(String chatId, int messageId, String url, String formatSelector,
+                                    long estimatedSizeMb, String startText) {
+        Entry old = live.get(key(chatId, messageId));
+        write(new Entry(chatId, messageId, url, State.QUEUED, true, formatSelector, estimatedSizeMb, startText,
+                null, old != null ? old.resumes() : 0, System.currentTimeMillis()));
+    }
+
+    public synchronized void downloading(String chatId, int messageId, Path jobDir) {
+        Entry old = live.get(key(chatId, messageId));
+        if (old != null) {
+            write(new Entry(chatId, messageId, old.url(), State.DOWNLOADING, true, old.formatSelector(),
+                    old.estimatedSizeMb(), old.startText(), jobDir, old.resumes(), System.currentTimeMillis()));
+        }
+    }
+
+    public synchronized void transition(String chatId, int messageId, State state) {
+        Entry old = live.get(key(chatId, messageId));
+        if (old != null) {
+            write(old.with(state));
+        }
+    }
+
+    public void done(String chatId, int messageId) {
+        transition(chatId, messageId, State.DONE);
+    }
+
+    // The temp directory recorded for the job, if the download had started before a restart
+    public synchronized Path jobDir(String chatId, int messageId) {
+        Entry entry = live.get(key(chatId, messageId));
+        return entry != null ? entry.jobDir() : null;
+    }
+
+    // Whether the job is being probed or past the quality choice; an offered job only waits for a tap
+    public synchronized boolean isRunning(String chatId, int messageId) {
+        Entry entry = live.get(key(chatId, messageId));
+        return entry != null && entry.state() != State.OFFERED;
+    }
+
+    /**
+     * The jobs a previous run left unfinished, each counted as resumed once more. Jobs that ran
+     * out of resumes, grew too old or only showed a keyboard that has expired are dropped here.
+     */
+    public synchronized List<Entry> takeInterrupted() {
+        long now = System.currentTimeMillis();
+        List<Entry> resumable = new ArrayList<>();
+        for (Entry entry : List.copyOf(live.values())) {
+            String reason = null;
+            if (entry.resumes() >= maxResumes) {
+                reason = "resumed " + entry.resumes() + " times already";
+            } else if (now - entry.updatedAt() > maxAgeMs) {
+                reason = "too old";
+            } else if (entry.state() == State.OFFERED && now - entry.updatedAt() > offeredExpiryMs) {
+                reason = "keyboard expired";
+            }
+            if (reason != null) {
+                log.info("Not resuming job {} for {}: {}", key(entry.chatId(), entry.messageId()), entry.url(), reason);
+                write(entry.with(State.DONE));
+                continue;
+            }
+            Entry resumed = new Entry(entry.chatId(), entry.messageId(), entry.url(), entry.state(), entry.chosen(),
+                    entry.formatSelector(), entry.estimatedSizeMb(), entry.startText(), entry.jobDir(),
+                    entry.resumes() + 1, now);
+            write(resumed);
+            resumable.add(resumed);
+        }
+        return resumable;
+    }
+
+    public synchronized int size() {
+        return live.size();
+    }
+
+    private synchronized void write(Entry entry) {
+        String key = key(entry.chatId(), entry.messageId());
+        if (entry.state() == State.DONE) {
+            if (live.remove(key) == null) {
+                return;
+            }
+        } else {
+            live.put(key, entry);
+        }
+        try {
+            out.write((toJson(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+            dirty = true;
+            recordsSinceCompaction++;
+        } catch (IOException e) {
+            log.warn("Failed to write to the job journal", e);
+        }
+    }
+
+    // The fsync runs outside the monitor, so writers are not held up by the disk
+    private void sync() {
+        FileChannel unsynced;
+        synchronized (this) {
+            unsynced = dirty ? channel : null;
+            dirty = false;
+        }
+        try {
+            if (unsynced != null) {
+                unsynced.force(false);
+            }
+            synchronized (this) {
+                if (recordsSinceCompaction >= compactAfter && recordsSinceCompaction > live.size() * 2) {
+                    compact();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                dirty = true;
+            }
+            log.warn("Failed to sync the job journal", e);
+        }
+    }
+
+    // Keyboards nobody tapped before their selection expired end the job
+    private synchronized void expireOffered() {
+        long now = System.currentTimeMillis();
+        for (Entry entry : List.copyOf(live.values())) {
+            if (entry.state() == State.OFFERED && now - entry.updatedAt() > offeredExpiryMs) {
+                write(entry.with(State.DONE));
+            }
+        }
+    }
+
+    // Writes the live jobs to a new file and swaps it in; a crash in between leaves the old file intact
+    private synchronized void compact() throws IOException {
+        Path tmp = file.resolveSibling(FILE + ".tmp");
+        try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream tmpOut = Channels.newOutputStream(tmpChannel);
+            for (Entry entry : live.values()) {
+                tmpOut.write((toJson(entry) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            tmpChannel.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        out = Channels.newOutputStream(channel);
+        recordsSinceCompaction = 0;
+        dirty = false;
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        int records = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Entry entry;
+                try {
+                    entry = fromJson(new JSONObject(line));
+                } catch (JSONException | IllegalArgumentException e) {
+                    // The last line is torn if the process died while writing it
+                    log.warn("Skipping unreadable job journal record: {}", e.getMessage());
+                    continue;
+                }
+                records++;
+                String key = key(entry.chatId(), entry.messageId());
+                if (entry.state() == State.DONE) {
+                    live.remove(key);
+                } else {
+                    live.put(key, entry);
+                }
+            }
+        }
+        log.info("Replayed {} job journal records, {} jobs unfinished", records, live.size());
+    }
+
+    private static String toJson(Entry entry) {
+        JSONObject json = new JSONObject()
+                .put("chat", entry.chatId())
+                .put("msg", entry.messageId())
+                .put("url", entry.url())
+                .put("state", entry.state().name().toLowerCase())
+                .put("chosen", entry.chosen())
+                .put("size", entry.estimatedSizeMb())
+                .put("resumes", entry.resumes())
+                .put("ts", entry.updatedAt());
+        if (entry.formatSelector() != null) {
+            json.put("format", entry.formatSelector());
+        }
+        if (entry.startText() != null) {
+            json.put("text", entry.startText());
+        }
+        if (entry.jobDir() != null) {
+            json.put("dir", entry.jobDir().toString());
+        }
+        return json.toString();
+    }
+
+    private static Entry fromJson(JSONObject json) {
+        String dir = json.optString("dir", null);
+        return new Entry(
+                json.getString("chat"),
+                json.getInt("msg"),
+                json.getString("url"),
+                State.valueOf(json.getString("state").toUpperCase()),
+                json.optBoolean("chosen"),
+                json.optString("format", null),
+                json.optLong("size"),
+                json.optString("text", null),
+                dir != null ? Path.of(dir) : null,
+                json.optInt("resumes"),
+                json.getLong("ts"));
+    }
+
+    private static String key(String chatId, int messageId) {
+        return chatId + ":" + messageId;
+    }
+}
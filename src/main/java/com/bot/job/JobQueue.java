@@ -0,0 +1,54 @@
+package com.bot.job;
+
+import com.bot.util.Env;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Durable queue of download jobs shared by several bot instances. A claimed job is leased to one
+ * worker; if that worker stops renewing the lease the job is handed to another one.
+ */
+public interface JobQueue extends AutoCloseable {
+
+    // statusText is shown on the status message when a worker starts the job
+    record DownloadJob(String id, String chatId, int statusMessageId, String statusText, String url,
+                       String formatSelector, long estimatedSizeMb) {}
+
+    interface Claim {
+        DownloadJob job();
+
+        int attempt();
+
+        // Called once if the lease is taken over by another worker while this one still runs the job
+        void onLost(Runnable action);
+
+        void complete();
+
+        // Hands the job back to the queue without counting an attempt
+        void release();
+    }
+
+    // Returns how many jobs are waiting ahead of the new one
+    int enqueue(String chatId, int statusMessageId, String statusText, String url, String formatSelector,
+                long estimatedSizeMb) throws IOException;
+
+    // Waits up to waitMs for a job; null if none became available
+    Claim claim(long waitMs) throws IOException, InterruptedException;
+
+    int pending();
+
+    // Whether a job for the status message is still waiting or running on any worker
+    boolean contains(String chatId, int statusMessageId);
+
+    @Override
+    void close();
+
+    // JOB_QUEUE=shared keeps jobs under the shared volume; null means jobs stay in this process
+    static JobQueue fromEnv(Path sharedRoot) throws IOException {
+        if ("shared".equalsIgnoreCase(Env.get("JOB_QUEUE", "local"))) {
+            return SharedDirJobQueue.fromEnv(sharedRoot.resolve("queue"));
+        }
+        return null;
+    }
+}
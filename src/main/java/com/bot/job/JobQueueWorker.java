@@ -0,0 +1,86 @@
+package com.bot.job;
+
+import com.bot.job.JobQueue.Claim;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Claims jobs from a {@link JobQueue} on a fixed number of threads and hands each claim to the
+ * handler, which must {@link Claim#complete()} or {@link Claim#release()} it.
+ */
+public class JobQueueWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(JobQueueWorker.class);
+    private static final long CLAIM_WAIT_MS = 1000;
+
+    private final JobQueue queue;
+    private final Consumer<Claim> handler;
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean stopped;
+
+    public JobQueueWorker(JobQueue queue, int threadCount, Consumer<Claim> handler) {
+        this.queue = queue;
+        this.handler = handler;
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(this::claimLoop, "job-queue-worker-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        log.info("Claiming shared jobs on {} threads", threadCount);
+    }
+
+    private void claimLoop() {
+        while (!stopped) {
+            Claim claim;
+            try {
+                claim = queue.claim(CLAIM_WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.warn("Failed to claim a job", e);
+                sleepQuietly(CLAIM_WAIT_MS);
+                continue;
+            }
+            if (claim == null) {
+                continue;
+            }
+            MDC.put("job_id", claim.job().id());
+            MDC.put("chat_id", claim.job().chatId());
+            try {
+                handler.accept(claim);
+            } catch (RuntimeException e) {
+                // Releasing would hand the same failure to the next worker forever
+                log.error("Job {} failed, dropping it", claim.job().id(), e);
+                claim.complete();
+            } finally {
+                MDC.clear();
+            }
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops claiming new jobs and closes the queue, which hands jobs still held back to it.
+     */
+    public void shutdown() {
+        stopped = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        queue.close();
+    }
+}
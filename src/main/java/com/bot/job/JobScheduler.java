@@ -0,0 +1,276 @@
+package com.bot.job;
+
+import com.bot.metrics.Histogram;
+import com.bot.metrics.Metrics;
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs queued jobs on a fixed set of workers, round-robin between chats. A job can name the stage
+ * it starts in; it is only dispatched once a slot of that stage is free, and the slot is handed to
+ * it, so workers are not tied up waiting for a busy stage while jobs for another stage queue
+ * behind them. Later stages of a job are entered with {@link #inStage}, which blocks.
+ */
+public class JobScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(JobScheduler.class);
+
+    public enum Stage { PROBE, DOWNLOAD, UPLOAD }
+
+    private record Job(long id, String chatId, Stage stage, Runnable task, long queuedAt) {}
+
+    // The slot reserved at dispatch for the job running on this worker, until the job enters that stage
+    private static final ThreadLocal<Stage> reservedStage = new ThreadLocal<>();
+
+    private static final Histogram queueWait = Metrics.histogram("job_queue_wait_seconds",
+            "Time a job waited in the queue before a worker started it", 1000);
+
+    private final int queueCapacity;
+    private final int maxRunningPerChat;
+    private final Map<Stage, Semaphore> stageLimits = new EnumMap<>(Stage.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition jobAvailable = lock.newCondition();
+    // Insertion order doubles as the round-robin order between chats
+    private final LinkedHashMap<String, ArrayDeque<Job>> queuedByChat = new LinkedHashMap<>();
+    private final Map<String, Integer> runningByChat = new HashMap<>();
+    private final AtomicLong nextJobId = new AtomicLong();
+    private int queuedCount;
+    private volatile boolean shutdown;
+
+    public JobScheduler(int workers, int queueCapacity, int maxRunningPerChat,
+                        int probeLimit, int downloadLimit, int uploadLimit) {
+        this.queueCapacity = queueCapacity;
+        this.maxRunningPerChat = maxRunningPerChat;
+        stageLimits.put(Stage.PROBE, new Semaphore(probeLimit, true));
+        stageLimits.put(Stage.DOWNLOAD, new Semaphore(downloadLimit, true));
+        stageLimits.put(Stage.UPLOAD, new Semaphore(uploadLimit, true));
+
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::workLoop, "job-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        log.info("Job scheduler started: {} workers, queue capacity {}, {} running per chat, limits probe={} download={} upload={}",
+                workers, queueCapacity, maxRunningPerChat, probeLimit, downloadLimit, uploadLimit);
+    }
+
+    public static JobScheduler fromEnv() {
+        return new JobScheduler(
+                Env.getInt("JOB_WORKERS", 8),
+                Env.getInt("JOB_QUEUE_CAPACITY", 100),
+                Env.getInt("JOB_MAX_RUNNING_PER_CHAT", 1),
+                Env.getInt("PROBE_CONCURRENCY", 4),
+                Env.getInt("DOWNLOAD_CONCURRENCY", 2),
+                Env.getInt("UPLOAD_CONCURRENCY", 2));
+    }
+
+    public int submit(String chatId, Runnable task) {
+        return submit(chatId, null, task);
+    }
+
+    /**
+     * Queues a job for the chat and returns how many jobs will be started before it. A non-null
+     * stage holds the job back until a slot of it is free; the job's first {@link #inStage} call
+     * for that stage then uses the slot without waiting. Throws {@link RejectedExecutionException}
+     * when the queue is full.
+     */
+    public int submit(String chatId, Stage stage, Runnable task) {
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler is shut down");
+            }
+            if (queuedCount >= queueCapacity) {
+                Metrics.counter("jobs_rejected_total", "Jobs rejected because the queue was full").inc();
+                throw new RejectedExecutionException("Job queue is full (" + queueCapacity + ")");
+            }
+            Job job = new Job(nextJobId.incrementAndGet(), chatId, stage, task, System.nanoTime());
+            queuedByChat.computeIfAbsent(chatId, k -> new ArrayDeque<>()).addLast(job);
+            queuedCount++;
+            jobAvailable.signal();
+            return positionOf(job);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Round-robin dispatch starts one job per chat per turn, so a job at index i in its
+    // chat queue waits for up to i + 1 jobs from every other chat.
+    private int positionOf(Job job) {
+        ArrayDeque<Job> own = queuedByChat.get(job.chatId());
+        int index = 0;
+        for (Job j : own) {
+            if (j == job) break;
+            index++;
+        }
+        int ahead = index;
+        for (Map.Entry<String, ArrayDeque<Job>> entry : queuedByChat.entrySet()) {
+            if (!entry.getKey().equals(job.chatId())) {
+                ahead += Math.min(entry.getValue().size(), index + 1);
+            }
+        }
+        return ahead;
+    }
+
+    /**
+     * Runs the action while holding a slot of the given stage, blocking until one is free unless
+     * the job was dispatched with a slot of this stage.
+     */
+    public <T> T inStage(Stage stage, Callable<T> action) throws Exception {
+        Semaphore limit = stageLimits.get(stage);
+        if (reservedStage.get() == stage) {
+            reservedStage.remove();
+        } else {
+            long waitStarted = System.nanoTime();
+            limit.acquire();
+            Metrics.histogram("stage_wait_seconds", "Time spent waiting for a free stage slot", 1000,
+                    "stage", stage.name().toLowerCase()).record((System.nanoTime() - waitStarted) / 1_000_000);
+        }
+        try {
+            return action.call();
+        } finally {
+            release(stage);
+        }
+    }
+
+    /**
+     * Gives back the slot the running job was dispatched with, before it waits for something else
+     * such as disk space. Its {@link #inStage} call for that stage then waits for a slot like any
+     * other. Does nothing off the scheduler's workers or once the slot is in use.
+     */
+    public void releaseReserved() {
+        Stage stage = reservedStage.get();
+        if (stage != null) {
+            reservedStage.remove();
+            release(stage);
+        }
+    }
+
+    // A freed slot may let a held-back job start
+    private void release(Stage stage) {
+        stageLimits.get(stage).release();
+        lock.lock();
+        try {
+            jobAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queuedJobs() {
+        lock.lock();
+        try {
+            return queuedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int availableSlots(Stage stage) {
+        return stageLimits.get(stage).availablePermits();
+    }
+
+    public void shutdown() {
+        lock.lock();
+        try {
+            shutdown = true;
+            jobAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void workLoop() {
+        while (true) {
+            Job job;
+            try {
+                job = takeNext();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (job == null) {
+                return;
+            }
+            queueWait.record((System.nanoTime() - job.queuedAt()) / 1_000_000);
+            MDC.put("job_id", String.valueOf(job.id()));
+            MDC.put("chat_id", job.chatId());
+            reservedStage.set(job.stage());
+            try {
+                job.task().run();
+            } catch (Exception e) {
+                log.error("Job {} for chat {} failed", job.id(), job.chatId(), e);
+            } finally {
+                MDC.clear();
+                // The job ended without entering its stage, for example after a cache hit or a cancel
+                Stage unused = reservedStage.get();
+                reservedStage.remove();
+                if (unused != null) {
+                    release(unused);
+                }
+                finished(job);
+            }
+        }
+    }
+
+    private Job takeNext() throws InterruptedException {
+        lock.lock();
+        try {
+            while (!shutdown) {
+                Iterator<Map.Entry<String, ArrayDeque<Job>>> it = queuedByChat.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, ArrayDeque<Job>> entry = it.next();
+                    String chatId = entry.getKey();
+                    if (runningByChat.getOrDefault(chatId, 0) >= maxRunningPerChat) {
+                        continue;
+                    }
+                    // A chat whose next job waits for a busy stage keeps its place; other chats go first
+                    Stage stage = entry.getValue().peekFirst().stage();
+                    if (stage != null && !stageLimits.get(stage).tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                        continue;
+                    }
+                    Job job = entry.getValue().pollFirst();
+                    it.remove();
+                    if (!entry.getValue().isEmpty()) {
+                        // Move the chat to the back of the rotation
+                        queuedByChat.put(chatId, entry.getValue());
+                    }
+                    queuedCount--;
+                    runningByChat.merge(chatId, 1, Integer::sum);
+                    return job;
+                }
+                jobAvailable.await();
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finished(Job job) {
+        lock.lock();
+        try {
+            runningByChat.computeIfPresent(job.chatId(), (k, v) -> v > 1 ? v - 1 : null);
+            jobAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.bot.job;
+
+import com.bot.util.Env;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link JobQueue} kept as files on the shared volume, so it needs nothing but a directory every
+ * replica can rename within. A job is one JSON file named {@code <enqueued-ms>-<id>.<attempt>.json}:
+ * <ul>
+ *   <li>pending/ holds waiting jobs; names sort in FIFO order</li>
+ *   <li>claiming is an atomic rename into claimed/ (suffixed with {@code @<worker>}), so exactly one
+ *   worker wins</li>
+ *   <li>the claimed file's mtime is the lease; its owner touches it every lease/3</li>
+ *   <li>any replica moves claims with a stale lease back to pending/ with the attempt increased, or
+ *   to failed/ after the last attempt</li>
+ * </ul>
+ */
+public class SharedDirJobQueue implements JobQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedDirJobQueue.class);
+    private static final String SUFFIX = ".json";
+    private static final String OWNER_SEPARATOR = "@";
+
+    private final Path pendingDir;
+    private final Path claimedDir;
+    private final Path failedDir;
+    private final String workerId;
+    private final long leaseMs;
+    private final long pollMs;
+    private final int maxAttempts;
+
+    private final Set<FileClaim> held = ConcurrentHashMap.newKeySet();
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService leases = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "job-queue-leases");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final class FileClaim implements Claim {
+        private final Path file;
+        private final DownloadJob job;
+        private final int attempt;
+        private volatile Runnable onLost;
+        private volatile boolean lost;
+
+        FileClaim(Path file, DownloadJob job, int attempt) {
+            this.file = file;
+            this.job = job;
+            this.attempt = attempt;
+        }
+
+        @Override
+        public DownloadJob job() {
+            return job;
+        }
+
+        @Override
+        public int attempt() {
+            return attempt;
+        }
+
+        @Override
+        public void onLost(Runnable action) {
+            onLost = action;
+            if (lost) {
+                action.run();
+            }
+        }
+
+        void renew() {
+            try {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            } catch (NoSuchFileException e) {
+                held.remove(this);
+                lost = true;
+                log.warn("Lost the lease on job {} (attempt {}), another worker took it over", job.id(), attempt);
+                Runnable action = onLost;
+                if (action != null) {
+                    action.run();
+                }
+            } catch (IOException e) {
+                log.warn("Failed to renew the lease on job {}", job.id(), e);
+            }
+        }
+
+        @Override
+        public void complete() {
+            held.remove(this);
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to remove finished job {}", file, e);
+            }
+        }
+
+        @Override
+        public void release() {
+            held.remove(this);
+            String name = file.getFileName().toString();
+            moveQuietly(file, pendingDir.resolve(name.substring(0, name.lastIndexOf(OWNER_SEPARATOR))));
+        }
+    }
+
+    public SharedDirJobQueue(Path dir, String workerId, long leaseMs, long pollMs, int maxAttempts) throws IOException {
+        this.pendingDir = Files.createDirectories(dir.resolve("pending"));
+        this.claimedDir = Files.createDirectories(dir.resolve("claimed"));
+        this.failedDir = Files.createDirectories(dir.resolve("failed"));
+        this.workerId = workerId;
+        this.leaseMs = leaseMs;
+        this.pollMs = pollMs;
+        this.maxAttempts = maxAttempts;
+
+        leases.scheduleWithFixedDelay(this::renewLeases, leaseMs / 3, leaseMs / 3, TimeUnit.MILLISECONDS);
+        leases.scheduleWithFixedDelay(this::reapExpired, 0, leaseMs / 2, TimeUnit.MILLISECONDS);
+        log.info("Shared job queue at {} as worker {}, lease {} ms, {} attempts", dir, workerId, leaseMs, maxAttempts);
+    }
+
+    public static SharedDirJobQueue fromEnv(Path dir) throws IOException {
+        return new SharedDirJobQueue(dir,
+                Env.get("JOB_QUEUE_WORKER_ID", defaultWorkerId()).replaceAll("[^A-Za-z0-9._-]", "_"),
+                Env.getLong("JOB_QUEUE_LEASE_SECONDS", 60) * 1000,
+                Env.getLong("JOB_QUEUE_POLL_MS", 500),
+                Env.getInt("JOB_QUEUE_MAX_ATTEMPTS", 3));
+    }
+
+    // "pid@hostname"; the container hostname tells replicas apart. '@' separates the owner in claim
+    // names, so fromEnv replaces it along with anything else that is awkward in a file name
+    private static String defaultWorkerId() {
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    @Override
+    public int enqueue(String chatId, int statusMessageId, String statusText, String url, String formatSelector,
+                       long estimatedSizeMb) throws IOException {
+        byte[] idBytes = new byte[8];
+        random.nextBytes(idBytes);
+        String id = HexFormat.of().formatHex(idBytes);
+        JSONObject json = new JSONObject()
+                .put("id", id)
+                .put("chat_id", chatId)
+                .put("status_message_id", statusMessageId)
+                .put("status_text", statusText)
+                .put("url", url)
+                .put("estimated_size_mb", estimatedSizeMb);
+        if (formatSelector != null) {
+            json.put("format_selector", formatSelector);
+        }
+        String name = String.format("%013d-%s.1%s", System.currentTimeMillis(), id, SUFFIX);
+        // Dot files are ignored by claimers, so a half-written job is never picked up
+        Path temp = pendingDir.resolve("." + name + ".tmp");
+        Files.writeString(temp, json.toString(), StandardCharsets.UTF_8);
+        Files.move(temp, pendingDir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        return Math.max(0, pending() - 1);
+    }
+
+    @Override
+    public Claim claim(long waitMs) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMs;
+        while (true) {
+            for (Path candidate : list(pendingDir)) {
+                Claim claim = tryClaim(candidate);
+                if (claim != null) {
+                    return claim;
+                }
+            }
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return null;
+            }
+            Thread.sleep(Math.min(pollMs, left));
+        }
+    }
+
+    private Claim tryClaim(Path candidate) throws IOException {
+        String name = candidate.getFileName().toString();
+        Path target = claimedDir.resolve(name + OWNER_SEPARATOR + workerId);
+        try {
+            // Touch first: the rename keeps the mtime, and it is the lease the reaper looks at
+            Files.setLastModifiedTime(candidate, FileTime.fromMillis(System.currentTimeMillis()));
+            Files.move(candidate, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException | FileAlreadyExistsException e) {
+            return null;
+        }
+        DownloadJob job;
+        try {
+            JSONObject json = new JSONObject(Files.readString(target, StandardCharsets.UTF_8));
+            job = new DownloadJob(
+                    json.getString("id"),
+                    json.getString("chat_id"),
+                    json.getInt("status_message_id"),
+                    json.optString("status_text", "Downloading your video..."),
+                    json.getString("url"),
+                    json.optString("format_selector", null),
+                    json.optLong("estimated_size_mb"));
+        } catch (JSONException e) {
+            log.error("Unreadable job file {}, moving it to failed/", name, e);
+            moveQuietly(target, failedDir.resolve(name));
+            return null;
+        }
+        FileClaim claim = new FileClaim(target, job, attempt(name));
+        held.add(claim);
+        return claim;
+    }
+
+    @Override
+    public int pending() {
+        try {
+            return list(pendingDir).size();
+        } catch (IOException e) {
+            log.warn("Failed to list pending jobs", e);
+            return 0;
+        }
+    }
+
+    // Reads every waiting and claimed job, so it is meant for rare checks rather than a hot path
+    @Override
+    public boolean contains(String chatId, int statusMessageId) {
+        try {
+            for (Path dir : List.of(pendingDir, claimedDir)) {
+                for (Path file : list(dir)) {
+                    try {
+                        JSONObject json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+                        if (chatId.equals(json.optString("chat_id")) && json.optInt("status_message_id") == statusMessageId) {
+                            return true;
+                        }
+                    } catch (NoSuchFileException e) {
+                        // Claimed, finished or requeued since the listing
+                    } catch (JSONException e) {
+                        // Left for the claimer to move to failed/
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to list jobs", e);
+        }
+        return false;
+    }
+
+    private void renewLeases() {
+        for (FileClaim claim : held) {
+            claim.renew();
+        }
+    }
+
+    private void reapExpired() {
+        long now = System.currentTimeMillis();
+        try {
+            for (Path file : list(claimedDir)) {
+                try {
+                    if (now - Files.getLastModifiedTime(file).toMillis() <= leaseMs) {
+                        continue;
+                    }
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                String name = file.getFileName().toString();
+                int ownerAt = name.lastIndexOf(OWNER_SEPARATOR);
+                String base = ownerAt > 0 ? name.substring(0, ownerAt) : name;
+                int attempt = attempt(base);
+                if (attempt >= maxAttempts) {
+                    log.error("Job {} expired on attempt {} of {}, moving it to failed/", base, attempt, maxAttempts);
+                    moveQuietly(file, failedDir.resolve(base));
+                } else {
+                    log.warn("Lease of {} expired, requeueing it for attempt {}", name, attempt + 1);
+                    moveQuietly(file, pendingDir.resolve(withAttempt(base, attempt + 1)));
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Failed to reap expired job leases", e);
+        }
+    }
+
+    // Job files in name order, which is enqueue order
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (!name.startsWith(".") && (name.endsWith(SUFFIX) || name.contains(SUFFIX + OWNER_SEPARATOR))) {
+                    files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static int attempt(String name) {
+        int end = name.indexOf(SUFFIX);
+        int start = name.lastIndexOf('.', end - 1);
+        try {
+            return Integer.parseInt(name.substring(start + 1, end));
+        } catch (RuntimeException e) {
+            return 1;
+        }
+    }
+
+    private static String withAttempt(String base, int attempt) {
+        int end = base.indexOf(SUFFIX);
+        int start = base.lastIndexOf('.', end - 1);
+        return base.substring(0, start + 1) + attempt + SUFFIX;
+    }
+
+    // Losing a race here just means another replica moved the file first
+    private static void moveQuietly(Path from, Path to) {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Already moved
+        } catch (IOException e) {
+            log.warn("Failed to move job file {} to {}", from, to, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        leases.shutdownNow();
+        for (FileClaim claim : held) {
+            claim.release();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.bot.logging;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes formatted log lines to stderr from one background thread. Logging threads only offer
+ * to a bounded queue: when it is full the line is dropped and counted instead of blocking them.
+ */
+final class AsyncLogWriter {
+
+    private static final int BATCH = 256;
+
+    private final BlockingQueue<String> queue;
+    private final Writer out = new BufferedWriter(new OutputStreamWriter(System.err, StandardCharsets.UTF_8), 64 * 1024);
+    private final AtomicLong dropped = new AtomicLong();
+    private long reportedDrops;
+
+    AsyncLogWriter(int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+        Thread thread = new Thread(this::writeLoop, "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-writer-drain"));
+    }
+
+    void write(String line) {
+        if (!queue.offer(line)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    private void writeLoop() {
+        List<String> batch = new ArrayList<>(BATCH);
+        while (true) {
+            try {
+                String first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+                // Flush only once the queue is empty so bursts go out in large writes
+                writeAll(batch, queue.isEmpty());
+                batch.clear();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // Nowhere left to report it
+                batch.clear();
+            }
+        }
+    }
+
+    private synchronized void writeAll(List<String> lines, boolean flush) throws IOException {
+        long total = dropped.get();
+        if (total > reportedDrops) {
+            out.write("Dropped " + (total - reportedDrops) + " log lines, the log queue was full\n");
+            reportedDrops = total;
+        }
+        for (String line : lines) {
+            out.write(line);
+            out.write('\n');
+        }
+        if (flush) {
+            out.flush();
+        }
+    }
+
+    // Runs at shutdown so the last lines before exit are not lost
+    private void drain() {
+        List<String> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        try {
+            writeAll(rest, true);
+        } catch (IOException ignored) {
+            // Nowhere left to report it
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.bot.logging;
+
+import org.json.JSONObject;
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.LegacyAbstractLogger;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Formats a record on the calling thread, as a JSON object or a plain text line, and hands it to
+ * the {@link AsyncLogWriter}. MDC entries such as job_id and chat_id become fields of the record.
+ */
+final class BotLogger extends LegacyAbstractLogger {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient BotLoggingProvider provider;
+
+    BotLogger(String name, BotLoggingProvider provider) {
+        this.name = name;
+        this.provider = provider;
+    }
+
+    @Override
+    public boolean isTraceEnabled() {
+        return provider.enabled(Level.TRACE);
+    }
+
+    @Override
+    public boolean isDebugEnabled() {
+        return provider.enabled(Level.DEBUG);
+    }
+
+    @Override
+    public boolean isInfoEnabled() {
+        return provider.enabled(Level.INFO);
+    }
+
+    @Override
+    public boolean isWarnEnabled() {
+        return provider.enabled(Level.WARN);
+    }
+
+    @Override
+    public boolean isErrorEnabled() {
+        return provider.enabled(Level.ERROR);
+    }
+
+    @Override
+    protected String getFullyQualifiedCallerName() {
+        return null;
+    }
+
+    @Override
+    protected void handleNormalizedLoggingCall(Level level, Marker marker, String messagePattern,
+                                               Object[] arguments, Throwable throwable) {
+        String message = MessageFormatter.arrayFormat(messagePattern, arguments).getMessage();
+        Map<String, String> context = provider.getMDCAdapter().getCopyOfContextMap();
+        provider.writer().write(provider.json()
+                ? json(level, message, context, throwable)
+                : text(level, message, context, throwable));
+    }
+
+    private String json(Level level, String message, Map<String, String> context, Throwable throwable) {
+        StringBuilder sb = new StringBuilder(128 + message.length());
+        sb.append("{\"ts\":\"").append(Instant.now()).append('"');
+        sb.append(",\"level\":\"").append(level).append('"');
+        sb.append(",\"logger\":").append(JSONObject.quote(name));
+        sb.append(",\"thread\":").append(JSONObject.quote(Thread.currentThread().getName()));
+        sb.append(",\"msg\":").append(JSONObject.quote(message));
+        if (context != null) {
+            for (Map.Entry<String, String> entry : context.entrySet()) {
+                sb.append(',').append(JSONObject.quote(entry.getKey())).append(':').append(JSONObject.quote(entry.getValue()));
+            }
+        }
+        if (throwable != null) {
+            sb.append(",\"error\":").append(JSONObject.quote(stackTrace(throwable)));
+        }
+        return sb.append('}').toString();
+    }
+
+    // Same layout as slf4j-simple, with the MDC appended
+    private String text(Level level, String message, Map<String, String> context, Throwable throwable) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('[').append(Thread.currentThread().getName()).append("] ").append(level)
+                .append(' ').append(name).append(" - ").append(message);
+        if (context != null && !context.isEmpty()) {
+            sb.append(' ').append(context);
+        }
+        if (throwable != null) {
+            sb.append('\n').append(stackTrace(throwable).stripTrailing());
+        }
+        return sb.toString();
+    }
+
+    private static String stackTrace(Throwable throwable) {
+        StringWriter sw = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(sw));
+        return sw.toString();
+    }
+}
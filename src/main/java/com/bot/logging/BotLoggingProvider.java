@@ -0,0 +1,85 @@
+package com.bot.logging;
+
+import com.bot.util.Env;
+import org.slf4j.ILoggerFactory;
+import org.slf4j.IMarkerFactory;
+import org.slf4j.Logger;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.BasicMarkerFactory;
+import org.slf4j.spi.MDCAdapter;
+import org.slf4j.spi.SLF4JServiceProvider;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * SLF4J backend of the bot, found through META-INF/services. Log lines are written to stderr
+ * asynchronously, as JSON objects by default (LOG_FORMAT=json|text), at LOG_LEVEL and above.
+ */
+public class BotLoggingProvider implements SLF4JServiceProvider {
+
+    private static volatile BotLoggingProvider instance;
+
+    private final ConcurrentMap<String, Logger> loggers = new ConcurrentHashMap<>();
+    private final ILoggerFactory loggerFactory = name -> loggers.computeIfAbsent(name, n -> new BotLogger(n, this));
+    private final IMarkerFactory markerFactory = new BasicMarkerFactory();
+    private final MDCAdapter mdcAdapter = new ThreadLocalMDCAdapter();
+    private AsyncLogWriter writer;
+    private int threshold;
+    private boolean json;
+
+    @Override
+    public void initialize() {
+        threshold = parseLevel(Env.get("LOG_LEVEL", "info")).toInt();
+        json = !"text".equalsIgnoreCase(Env.get("LOG_FORMAT", "json"));
+        writer = new AsyncLogWriter(Env.getInt("LOG_QUEUE_CAPACITY", 8192));
+        instance = this;
+    }
+
+    // Log lines dropped because the queue was full; 0 when another SLF4J backend is in use
+    public static long droppedLines() {
+        BotLoggingProvider provider = instance;
+        return provider != null ? provider.writer.dropped() : 0;
+    }
+
+    boolean enabled(Level level) {
+        return level.toInt() >= threshold;
+    }
+
+    boolean json() {
+        return json;
+    }
+
+    AsyncLogWriter writer() {
+        return writer;
+    }
+
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    @Override
+    public ILoggerFactory getLoggerFactory() {
+        return loggerFactory;
+    }
+
+    @Override
+    public IMarkerFactory getMarkerFactory() {
+        return markerFactory;
+    }
+
+    @Override
+    public MDCAdapter getMDCAdapter() {
+        return mdcAdapter;
+    }
+
+    @Override
+    public String getRequestedApiVersion() {
+        return "2.0.99";
+    }
+}
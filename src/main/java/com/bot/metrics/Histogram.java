@@ -0,0 +1,115 @@
+package com.bot.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear histogram in the style of HdrHistogram at low precision: every power of two is split
+ * into four linear sub-buckets, so any recorded value is known within 25%. Recording is a single
+ * atomic increment. Values are recorded in raw units (for example milliseconds) and exported
+ * divided by {@code scale} (for example seconds), with Prometheus buckets at the powers of two
+ * counting the values below each boundary.
+ */
+public class Histogram {
+
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    // Exported boundaries stop at 2^24 raw units (4.6 hours in milliseconds); larger values only show in +Inf
+    private static final int EXPORT_MAX_EXPONENT = 24;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final double scale;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram(double scale) {
+        this.scale = scale;
+    }
+
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double sum() {
+        return sum.sum() / scale;
+    }
+
+    // Upper bound of the bucket holding the q-th quantile, in exported units
+    public double quantile(double q) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBound(i) / scale;
+            }
+        }
+        return upperBound(BUCKETS - 1) / scale;
+    }
+
+    void writeTo(StringBuilder out, String name, String labels) {
+        long cumulative = 0;
+        int next = 0;
+        for (int exponent = 0; exponent <= EXPORT_MAX_EXPONENT; exponent++) {
+            long bound = 1L << exponent;
+            // Sum every fine bucket whose values are all below the power-of-two boundary
+            while (next < BUCKETS && upperBound(next) <= bound) {
+                cumulative += counts.get(next++);
+            }
+            out.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",")
+                    .append("le=\"").append(format(bound / scale)).append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",")
+                .append("le=\"+Inf\"} ").append(count()).append('\n');
+        String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(format(sum())).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(count()).append('\n');
+    }
+
+    static int index(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) v;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) ((v >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+        return SUB_BUCKETS + (exponent - SUB_BITS) * SUB_BUCKETS + sub;
+    }
+
+    // Smallest value that no longer fits the bucket
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (1L << exponent) + ((long) (sub + 1) << (exponent - SUB_BITS));
+    }
+
+    static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,115 @@
+package com.bot.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide metric registry rendered in the Prometheus text format. Counters and histograms are
+ * looked up by name and label values without taking a lock once they exist, so call sites may
+ * either keep the returned instance or look it up on every use. Gauges are read at scrape time.
+ */
+public final class Metrics {
+
+    private enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    private record Family(String name, String help, Type type, Map<String, Object> series) {}
+
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) series(name, help, Type.COUNTER, labels, Counter::new);
+    }
+
+    // Counter kept by another component, read at scrape time
+    public static void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, Type.COUNTER).series().put(labelString(labels), value);
+    }
+
+    // Values are recorded in raw units and exported divided by scale (1000 turns milliseconds into seconds)
+    public static Histogram histogram(String name, String help, double scale, String... labels) {
+        return (Histogram) series(name, help, Type.HISTOGRAM, labels, () -> new Histogram(scale));
+    }
+
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, Type.GAUGE).series().put(labelString(labels), value);
+    }
+
+    private static Object series(String name, String help, Type type, String[] labels,
+                                 Supplier<Object> factory) {
+        Map<String, Object> series = family(name, help, type).series();
+        String key = labelString(labels);
+        Object existing = series.get(key);
+        return existing != null ? existing : series.computeIfAbsent(key, k -> factory.get());
+    }
+
+    private static Family family(String name, String help, Type type) {
+        Family family = families.get(name);
+        if (family == null) {
+            family = families.computeIfAbsent(name, n -> new Family(n, help, type, new ConcurrentHashMap<>()));
+        }
+        if (family.type() != type) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type());
+        }
+        return family;
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Family family : families.values()) {
+            out.append("# HELP ").append(family.name()).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(family.name()).append(' ')
+                    .append(family.type().name().toLowerCase()).append('\n');
+            Map<String, Object> sorted = new TreeMap<>(family.series());
+            for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+                String labels = entry.getKey();
+                String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+                switch (family.type()) {
+                    case COUNTER -> out.append(family.name()).append(braces).append(' ')
+                            .append(entry.getValue() instanceof Counter counter
+                                    ? counter.get() : ((LongSupplier) entry.getValue()).getAsLong()).append('\n');
+                    case GAUGE -> out.append(family.name()).append(braces).append(' ')
+                            .append(Histogram.format(((DoubleSupplier) entry.getValue()).getAsDouble())).append('\n');
+                    case HISTOGRAM -> ((Histogram) entry.getValue()).writeTo(out, family.name(), labels);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    // Alternating label names and values, rendered as name="value" pairs
+    private static String labelString(String[] labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(labels[i]).append("=\"");
+            String value = labels[i + 1] != null ? labels[i + 1] : "";
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                switch (c) {
+                    case '\\' -> sb.append("\\\\");
+                    case '"' -> sb.append("\\\"");
+                    case '\n' -> sb.append("\\n");
+                    default -> sb.append(c);
+                }
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,38 @@
+package com.bot.selection;
+
+// Quality button payload: "q:<token>:<height|best|cancel>", well under Telegram's 64-byte limit
+public record CallbackData(String token, String choice) {
+
+    public static final String BEST = "best";
+    public static final String CANCEL = "cancel";
+    // Cancel button on a download's status message; the message itself identifies the job
+    public static final String CANCEL_DOWNLOAD = "dl:cancel";
+
+    public static String format(String token, String choice) {
+        return "q:" + token + ":" + choice;
+    }
+
+    public static CallbackData parse(String data) {
+        if (data == null || !data.startsWith("q:")) {
+            return null;
+        }
+        int sep = data.indexOf(':', 2);
+        if (sep < 0 || sep == 2 || sep == data.length() - 1) {
+            return null;
+        }
+        return new CallbackData(data.substring(2, sep), data.substring(sep + 1));
+    }
+
+    // Requested height, or -1 for "best", "cancel" and anything malformed
+    public int height() {
+        int value = 0;
+        for (int i = 0; i < choice.length(); i++) {
+            char c = choice.charAt(i);
+            if (c < '0' || c > '9' || value > 100_000) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value > 0 ? value : -1;
+    }
+}
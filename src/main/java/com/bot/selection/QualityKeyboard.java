@@ -0,0 +1,52 @@
+package com.bot.selection;
+
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Two quality buttons per row, then a "best" row; every button carries the selection token
+public class QualityKeyboard {
+
+    public static InlineKeyboardMarkup build(String token, List<FormatInfo> formats) {
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>();
+        List<InlineKeyboardButton> currentRow = new ArrayList<>();
+
+        for (FormatInfo fmt : formats) {
+            String label;
+            if (fmt.estimatedSizeMb() > 0) {
+                label = fmt.height() + "p (~" + fmt.estimatedSizeMb() + " MB)";
+            } else {
+                label = fmt.height() + "p";
+            }
+            currentRow.add(InlineKeyboardButton.builder()
+                    .text(label)
+                    .callbackData(CallbackData.format(token, String.valueOf(fmt.height())))
+                    .build());
+            if (currentRow.size() == 2) {
+                rows.add(currentRow);
+                currentRow = new ArrayList<>();
+            }
+        }
+        if (!currentRow.isEmpty()) {
+            rows.add(currentRow);
+        }
+
+        rows.add(List.of(InlineKeyboardButton.builder()
+                .text("Best available quality")
+                .callbackData(CallbackData.format(token, CallbackData.BEST))
+                .build()));
+
+        return InlineKeyboardMarkup.builder().keyboard(rows).build();
+    }
+
+    public static InlineKeyboardMarkup cancelDownload() {
+        InlineKeyboardButton cancel = InlineKeyboardButton.builder()
+                .text("Cancel")
+                .callbackData(CallbackData.CANCEL_DOWNLOAD)
+                .build();
+        return InlineKeyboardMarkup.builder().keyboard(List.of(List.of(cancel))).build();
+    }
+}
@@ -0,0 +1,75 @@
+package com.bot.selection;
+
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import com.bot.util.Env;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers which quality button users pressed, to guess the next choice before it is made. A
+ * chat's own last choice wins; otherwise the most popular choice overall, once there is enough
+ * history, and "best" before that.
+ */
+public class SelectionHistory {
+
+    private final int maxChats;
+    private final int minGlobalSamples;
+    private final LinkedHashMap<String, String> lastByChat = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> globalCounts = new HashMap<>();
+    private long globalSamples;
+
+    public SelectionHistory(int maxChats, int minGlobalSamples) {
+        this.maxChats = maxChats;
+        this.minGlobalSamples = minGlobalSamples;
+    }
+
+    public static SelectionHistory fromEnv() {
+        return new SelectionHistory(
+                Env.getInt("SELECTION_HISTORY_MAX_CHATS", 10_000),
+                Env.getInt("SELECTION_HISTORY_MIN_SAMPLES", 20));
+    }
+
+    // choice is the callback choice: CallbackData.BEST or a height
+    public synchronized void record(String chatId, String choice) {
+        lastByChat.put(chatId, choice);
+        if (lastByChat.size() > maxChats) {
+            lastByChat.remove(lastByChat.keySet().iterator().next());
+        }
+        globalCounts.merge(choice, 1L, Long::sum);
+        globalSamples++;
+    }
+
+    // Returns CallbackData.BEST or the height of one of the offered formats
+    public synchronized String predict(String chatId, List<FormatInfo> offered) {
+        String own = lastByChat.get(chatId);
+        if (own != null && isOffered(own, offered)) {
+            return own;
+        }
+        String popular = CallbackData.BEST;
+        if (globalSamples >= minGlobalSamples) {
+            long bestCount = -1;
+            for (Map.Entry<String, Long> entry : globalCounts.entrySet()) {
+                if (entry.getValue() > bestCount && isOffered(entry.getKey(), offered)) {
+                    popular = entry.getKey();
+                    bestCount = entry.getValue();
+                }
+            }
+        }
+        return popular;
+    }
+
+    private static boolean isOffered(String choice, List<FormatInfo> offered) {
+        if (CallbackData.BEST.equals(choice)) {
+            return true;
+        }
+        for (FormatInfo format : offered) {
+            if (String.valueOf(format.height()).equals(choice)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
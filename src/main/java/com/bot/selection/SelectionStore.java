@@ -0,0 +1,113 @@
+package com.bot.selection;
+
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Quality keyboards waiting for a button press. Each keyboard gets a short token that is embedded
+ * in its callback data, so several keyboards in one chat never collide. Expired entries are swept
+ * on a schedule and the store is capped, evicting the least recently used entry first.
+ */
+public class SelectionStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SelectionStore.class);
+
+    // videoKey is resolved by the probe, so a tap never waits for a short link to be expanded
+    public record Selection(String chatId, int messageId, String url, String videoKey, List<FormatInfo> formats,
+                            long createdAt) {}
+
+    private final int maxEntries;
+    private final long expiryMs;
+    // Per-process prefix so keyboards sent before a restart cannot match new tokens
+    private final String tokenPrefix = Integer.toString(ThreadLocalRandom.current().nextInt(36 * 36), 36);
+    private final AtomicLong nextToken = new AtomicLong();
+    private final LinkedHashMap<String, Selection> selections = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "selection-sweeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public SelectionStore(int maxEntries, long expiryMs, long sweepIntervalMs) {
+        this.maxEntries = maxEntries;
+        this.expiryMs = expiryMs;
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static SelectionStore fromEnv() {
+        return new SelectionStore(
+                Env.getInt("SELECTION_MAX_ENTRIES", 10_000),
+                Env.getLong("SELECTION_EXPIRY_MINUTES", 30) * 60 * 1000,
+                60_000);
+    }
+
+    public String put(String chatId, int messageId, String url, String videoKey, List<FormatInfo> formats) {
+        String token = tokenPrefix + Long.toString(nextToken.incrementAndGet(), 36);
+        synchronized (this) {
+            selections.put(token, new Selection(chatId, messageId, url, videoKey, formats, System.currentTimeMillis()));
+            Iterator<Map.Entry<String, Selection>> it = selections.entrySet().iterator();
+            while (selections.size() > maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Removes and returns the live selection for the token if it belongs to this chat and message.
+     * Taps can be handled concurrently, so only one of several taps on a keyboard gets it.
+     */
+    public synchronized Selection take(String token, String chatId, int messageId) {
+        Selection selection = selections.get(token);
+        if (selection == null) {
+            return null;
+        }
+        if (isExpired(selection, System.currentTimeMillis())) {
+            selections.remove(token);
+            return null;
+        }
+        if (!selection.chatId().equals(chatId) || selection.messageId() != messageId) {
+            return null;
+        }
+        selections.remove(token);
+        return selection;
+    }
+
+    public synchronized int size() {
+        return selections.size();
+    }
+
+    private boolean isExpired(Selection selection, long now) {
+        return now - selection.createdAt() > expiryMs;
+    }
+
+    private void sweep() {
+        int removed = 0;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Iterator<Selection> it = selections.values().iterator();
+            while (it.hasNext()) {
+                if (isExpired(it.next(), now)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            log.debug("Swept {} expired quality selections", removed);
+        }
+    }
+}
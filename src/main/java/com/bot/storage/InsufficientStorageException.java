@@ -0,0 +1,10 @@
+package com.bot.storage;
+
+import java.io.IOException;
+
+public class InsufficientStorageException extends IOException {
+
+    public InsufficientStorageException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,333 @@
+package com.bot.storage;
+
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Owns the per-job temp directories under the shared volume. Downloads reserve their estimated
+ * size before starting and wait (up to a limit) for free space. Free space already reflects what
+ * running downloads have written, so only the unwritten rest of a reservation counts against it,
+ * measured from the job directory the reservation tracks. Every job directory carries a
+ * lease file that is refreshed while the job runs, and a janitor deletes directories whose lease
+ * went stale, whether left by a crash, a missed cleanup or another replica that died.
+ */
+public class StorageManager {
+
+    private static final Logger log = LoggerFactory.getLogger(StorageManager.class);
+    public static final String JOB_DIR_PREFIX = "yt-dlp-";
+    public static final String LEASE_FILE = ".lease";
+    private static final long MB = 1024 * 1024;
+
+    private final Path root;
+    private final long minFreeBytes;
+    private final long quotaBytes;
+    private final long waitMs;
+    private final long orphanAgeMs;
+    private final long defaultReservationBytes;
+
+    private final Set<Path> activeDirs = ConcurrentHashMap.newKeySet();
+    private final Set<Reservation> reservations = ConcurrentHashMap.newKeySet();
+    private long reservedBytes;
+    private int activeReservations;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong sweptDirs = new AtomicLong();
+    private final AtomicLong sweptBytes = new AtomicLong();
+    private final ScheduledExecutorService janitor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "storage-janitor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public final class Reservation implements AutoCloseable {
+        private final long bytes;
+        private volatile Path dir;
+        private boolean released;
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        public long bytes() {
+            return bytes;
+        }
+
+        // The job directory the reserved bytes are written to; until it is known all of them count as unwritten
+        public void track(Path dir) {
+            this.dir = dir;
+        }
+
+        long unwrittenBytes() {
+            Path tracked = dir;
+            return tracked == null ? bytes : Math.max(0, bytes - directoryBytes(tracked));
+        }
+
+        @Override
+        public void close() {
+            synchronized (StorageManager.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                reservations.remove(this);
+                reservedBytes -= bytes;
+                activeReservations--;
+                StorageManager.this.notifyAll();
+            }
+        }
+    }
+
+    public StorageManager(Path root, long minFreeBytes, long quotaBytes, long waitMs,
+                          long orphanAgeMs, long sweepIntervalMs, long defaultReservationBytes) {
+        this.root = root;
+        this.minFreeBytes = minFreeBytes;
+        this.quotaBytes = quotaBytes;
+        this.waitMs = waitMs;
+        this.orphanAgeMs = orphanAgeMs;
+        this.defaultReservationBytes = defaultReservationBytes;
+
+        janitor.execute(this::sweep);
+        janitor.scheduleWithFixedDelay(this::heartbeat, orphanAgeMs / 4, orphanAgeMs / 4, TimeUnit.MILLISECONDS);
+        janitor.scheduleWithFixedDelay(this::sweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static StorageManager fromEnv() {
+        return new StorageManager(
+                Path.of(Env.get("SHARED_DIR", "/tmp/shared")),
+                Env.getLong("STORAGE_MIN_FREE_MB", 1024) * MB,
+                Env.getLong("STORAGE_QUOTA_MB", 0) * MB,
+                Env.getLong("STORAGE_WAIT_SECONDS", 120) * 1000,
+                Env.getLong("STORAGE_ORPHAN_MINUTES", 20) * 60 * 1000,
+                Env.getLong("STORAGE_SWEEP_MINUTES", 5) * 60 * 1000,
+                Env.getLong("STORAGE_DEFAULT_RESERVATION_MB", 500) * MB);
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    /**
+     * Reserves space for a download, waiting while other jobs hold it. Throws
+     * {@link InsufficientStorageException} when the space does not free up in time or can never fit.
+     */
+    public Reservation reserve(long bytes) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMs;
+        synchronized (this) {
+            while (true) {
+                long usable = usableBytes();
+                long unwritten = unwrittenBytes();
+                boolean fitsQuota = quotaBytes <= 0 || reservedBytes + bytes <= quotaBytes;
+                boolean fitsDisk = usable - unwritten - bytes >= minFreeBytes;
+                if (fitsQuota && fitsDisk) {
+                    return newReservation(bytes);
+                }
+                boolean neverFits = (quotaBytes > 0 && bytes > quotaBytes)
+                        || (activeReservations == 0 && !fitsDisk);
+                long remaining = deadline - System.currentTimeMillis();
+                if (neverFits || remaining <= 0) {
+                    rejected.incrementAndGet();
+                    throw new InsufficientStorageException("Not enough space on " + root + " for " + bytes / MB + " MB (usable "
+                            + usable / MB + " MB, reserved " + reservedBytes / MB + " MB of which " + unwritten / MB
+                            + " MB not yet written)");
+                }
+                // Re-check periodically too, since space is also freed outside reservations
+                wait(Math.min(remaining, 5000));
+            }
+        }
+    }
+
+    // yt-dlp keeps the separate video and audio streams next to the merged file until it finishes
+    public Reservation reserveForDownload(long estimatedSizeMb) throws IOException, InterruptedException {
+        return reserve(downloadBytes(estimatedSizeMb));
+    }
+
+    /**
+     * Reserves space for optional work such as a speculative download only if it fits right now.
+     * Returns null instead of waiting, and a refusal is not counted as a rejection.
+     */
+    public synchronized Reservation tryReserveForDownload(long estimatedSizeMb) {
+        long bytes = downloadBytes(estimatedSizeMb);
+        boolean fitsQuota = quotaBytes <= 0 || reservedBytes + bytes <= quotaBytes;
+        if (!fitsQuota || usableBytes() - unwrittenBytes() - bytes < minFreeBytes) {
+            return null;
+        }
+        return newReservation(bytes);
+    }
+
+    private synchronized Reservation newReservation(long bytes) {
+        Reservation reservation = new Reservation(bytes);
+        reservations.add(reservation);
+        reservedBytes += bytes;
+        activeReservations++;
+        return reservation;
+    }
+
+    private long unwrittenBytes() {
+        long unwritten = 0;
+        for (Reservation reservation : reservations) {
+            unwritten += reservation.unwrittenBytes();
+        }
+        return unwritten;
+    }
+
+    // yt-dlp writes the streams, .part files and the merged file straight into the job directory
+    private static long directoryBytes(Path dir) {
+        File[] files = dir.toFile().listFiles();
+        long bytes = 0;
+        if (files != null) {
+            for (File f : files) {
+                bytes += f.length();
+            }
+        }
+        return bytes;
+    }
+
+    private long downloadBytes(long estimatedSizeMb) {
+        return estimatedSizeMb > 0 ? estimatedSizeMb * MB * 2 : defaultReservationBytes;
+    }
+
+    public Path createJobDir() throws IOException {
+        Files.createDirectories(root);
+        Path dir = Files.createTempDirectory(root, JOB_DIR_PREFIX);
+        Files.writeString(dir.resolve(LEASE_FILE), String.valueOf(ProcessHandle.current().pid()));
+        activeDirs.add(dir);
+        return dir;
+    }
+
+    /**
+     * Takes over a job directory left by an earlier run, such as a download resumed after a
+     * restart. Returns false if the directory is gone, for example because the janitor swept it.
+     */
+    public boolean adoptJobDir(Path dir) {
+        if (!Files.isDirectory(dir) || !root.equals(dir.getParent())) {
+            return false;
+        }
+        try {
+            Files.writeString(dir.resolve(LEASE_FILE), String.valueOf(ProcessHandle.current().pid()));
+        } catch (IOException e) {
+            log.warn("Failed to take over job directory {}", dir, e);
+            return false;
+        }
+        activeDirs.add(dir);
+        return true;
+    }
+
+    // Stops renewing the lease; the caller deletes the directory
+    public void releaseJobDir(Path dir) {
+        activeDirs.remove(dir);
+    }
+
+    public long usableBytes() {
+        try {
+            Files.createDirectories(root);
+            FileStore store = Files.getFileStore(root);
+            return store.getUsableSpace();
+        } catch (IOException e) {
+            log.warn("Failed to read free space of {}", root, e);
+            return 0;
+        }
+    }
+
+    public synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    public synchronized int activeReservations() {
+        return activeReservations;
+    }
+
+    public int activeJobDirs() {
+        return activeDirs.size();
+    }
+
+    public long rejectedReservations() {
+        return rejected.get();
+    }
+
+    public long sweptDirs() {
+        return sweptDirs.get();
+    }
+
+    public long sweptBytes() {
+        return sweptBytes.get();
+    }
+
+    private void heartbeat() {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (Path dir : activeDirs) {
+            try {
+                Files.setLastModifiedTime(dir.resolve(LEASE_FILE), now);
+            } catch (IOException e) {
+                log.debug("Failed to renew lease of {}", dir, e);
+            }
+        }
+    }
+
+    private void sweep() {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - orphanAgeMs;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, JOB_DIR_PREFIX + "*")) {
+            for (Path dir : dirs) {
+                if (activeDirs.contains(dir) || !Files.isDirectory(dir)) {
+                    continue;
+                }
+                Path lease = dir.resolve(LEASE_FILE);
+                Path stamp = Files.exists(lease) ? lease : dir;
+                if (Files.getLastModifiedTime(stamp).toMillis() < cutoff) {
+                    long bytes = deleteRecursively(dir.toFile());
+                    sweptDirs.incrementAndGet();
+                    sweptBytes.addAndGet(bytes);
+                    log.info("Removed orphaned job directory {} ({} MB)", dir.getFileName(), bytes / MB);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Storage sweep of {} failed", root, e);
+        }
+        sweepStaleFiles(root.resolve("info"), cutoff);
+    }
+
+    // Leftovers of in-memory stores that did not survive a restart
+    private void sweepStaleFiles(Path dir, long cutoff) {
+        File[] files = dir.toFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isFile() && f.lastModified() < cutoff - orphanAgeMs * 8) {
+                sweptBytes.addAndGet(f.length());
+                f.delete();
+            }
+        }
+    }
+
+    private static long deleteRecursively(File file) {
+        long bytes = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                bytes += deleteRecursively(child);
+            }
+        }
+        if (file.isFile()) {
+            bytes += file.length();
+        }
+        file.delete();
+        return bytes;
+    }
+}
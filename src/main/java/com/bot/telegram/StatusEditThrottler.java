@@ -0,0 +1,122 @@
+package com.bot.telegram;
+
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces frequent status-message updates (such as download progress) into rate-limited edits.
+ * Only the latest text per message is kept; edits go out from a single thread, at most once per
+ * message interval and within a global per-second budget.
+ */
+public class StatusEditThrottler {
+
+    private static final Logger log = LoggerFactory.getLogger(StatusEditThrottler.class);
+    private static final long TICK_MS = 200;
+
+    public interface Editor {
+        void edit(String chatId, int messageId, String text);
+    }
+
+    private record MessageKey(String chatId, int messageId) {}
+
+    private static final class MessageState {
+        String pendingText;
+        String sentText;
+        long lastSentAt;
+    }
+
+    private final Editor editor;
+    private final long perMessageIntervalMs;
+    private final int editsPerSecond;
+    private final LinkedHashMap<MessageKey, MessageState> messages = new LinkedHashMap<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "status-edit-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+    private long windowStart;
+    private int editsInWindow;
+
+    public StatusEditThrottler(Editor editor, long perMessageIntervalMs, int editsPerSecond) {
+        this.editor = editor;
+        this.perMessageIntervalMs = perMessageIntervalMs;
+        this.editsPerSecond = editsPerSecond;
+        flusher.scheduleWithFixedDelay(this::flush, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static StatusEditThrottler fromEnv(Editor editor) {
+        return new StatusEditThrottler(editor,
+                Env.getLong("STATUS_EDIT_INTERVAL_MS", 3000),
+                Env.getInt("STATUS_EDITS_PER_SECOND", 10));
+    }
+
+    public synchronized void update(String chatId, int messageId, String text) {
+        messages.computeIfAbsent(new MessageKey(chatId, messageId), k -> new MessageState()).pendingText = text;
+    }
+
+    // Drops any pending update so it cannot overwrite the message's final text
+    public synchronized void finish(String chatId, int messageId) {
+        messages.remove(new MessageKey(chatId, messageId));
+    }
+
+    private void flush() {
+        try {
+            MessageKey key;
+            String text;
+            while (true) {
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    if (now - windowStart >= 1000) {
+                        windowStart = now;
+                        editsInWindow = 0;
+                    }
+                    if (editsInWindow >= editsPerSecond) {
+                        return;
+                    }
+                    Map.Entry<MessageKey, MessageState> due = nextDue(now);
+                    if (due == null) {
+                        return;
+                    }
+                    key = due.getKey();
+                    MessageState state = due.getValue();
+                    text = state.pendingText;
+                    state.sentText = text;
+                    state.pendingText = null;
+                    state.lastSentAt = now;
+                    editsInWindow++;
+                    // Rotate so busy messages do not starve the rest
+                    messages.remove(key);
+                    messages.put(key, state);
+                }
+                editor.edit(key.chatId(), key.messageId(), text);
+            }
+        } catch (Exception e) {
+            log.warn("Status edit flush failed", e);
+        }
+    }
+
+    private Map.Entry<MessageKey, MessageState> nextDue(long now) {
+        Iterator<Map.Entry<MessageKey, MessageState>> it = messages.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<MessageKey, MessageState> entry = it.next();
+            MessageState state = entry.getValue();
+            if (state.pendingText == null || Objects.equals(state.pendingText, state.sentText)) {
+                state.pendingText = null;
+                continue;
+            }
+            if (now - state.lastSentAt >= perMessageIntervalMs) {
+                return entry;
+            }
+        }
+        return null;
+    }
+}
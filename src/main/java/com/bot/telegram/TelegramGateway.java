@@ -0,0 +1,336 @@
+package com.bot.telegram;
+
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single path for every outbound Bot API call. Calls wait in priority lanes until both the global
+ * and the per-chat token bucket allow them, queued edits of the same message are merged into the
+ * newest one, and flood-control (429) or network failures are retried asynchronously with jitter.
+ */
+public class TelegramGateway {
+
+    private static final Logger log = LoggerFactory.getLogger(TelegramGateway.class);
+    private static final long IDLE_WAIT_MS = 1000;
+    private static final long BUCKET_PRUNE_INTERVAL_MS = 60_000;
+
+    // Lanes are served in declaration order
+    public enum Lane { CALLBACK, INTERACTIVE, BULK }
+
+    public interface ApiCall<T> {
+        T call() throws TelegramApiException;
+    }
+
+    private static final class Call<T> {
+        final Lane lane;
+        final String chatId;
+        final String coalesceKey;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        ApiCall<T> action;
+        int attempts;
+        long notBefore;
+        boolean throttled;
+
+        Call(Lane lane, String chatId, String coalesceKey, ApiCall<T> action) {
+            this.lane = lane;
+            this.chatId = chatId;
+            this.coalesceKey = coalesceKey;
+            this.action = action;
+        }
+    }
+
+    private final double chatRatePerSecond;
+    private final int chatBurst;
+    private final int maxAttempts;
+    private final int laneCapacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<Lane, ArrayDeque<Call<?>>> lanes = new EnumMap<>(Lane.class);
+    private final Map<String, Call<?>> queuedByCoalesceKey = new HashMap<>();
+    private final Map<String, TokenBucket> chatBuckets = new HashMap<>();
+    private final TokenBucket globalBucket;
+    private long bucketsPrunedAt;
+
+    private final ExecutorService apiExecutor;
+    private final ExecutorService bulkExecutor;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public TelegramGateway(double globalRatePerSecond, int globalBurst, double chatRatePerSecond, int chatBurst,
+                           int apiThreads, int bulkThreads, int maxAttempts, int laneCapacity) {
+        this.chatRatePerSecond = chatRatePerSecond;
+        this.chatBurst = chatBurst;
+        this.maxAttempts = maxAttempts;
+        this.laneCapacity = laneCapacity;
+        this.globalBucket = new TokenBucket(globalRatePerSecond, globalBurst, System.currentTimeMillis());
+        for (Lane lane : Lane.values()) {
+            lanes.put(lane, new ArrayDeque<>());
+        }
+        apiExecutor = Executors.newFixedThreadPool(apiThreads, namedDaemon("telegram-api-"));
+        bulkExecutor = Executors.newFixedThreadPool(bulkThreads, namedDaemon("telegram-bulk-"));
+
+        Thread dispatcher = new Thread(this::dispatchLoop, "telegram-gateway");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    public static TelegramGateway fromEnv() {
+        return new TelegramGateway(
+                Env.getInt("TELEGRAM_GLOBAL_RATE", 25),
+                Env.getInt("TELEGRAM_GLOBAL_BURST", 30),
+                Env.getInt("TELEGRAM_CHAT_RATE", 1),
+                Env.getInt("TELEGRAM_CHAT_BURST", 3),
+                Env.getInt("TELEGRAM_API_THREADS", 8),
+                Env.getInt("TELEGRAM_BULK_THREADS", 4),
+                Env.getInt("TELEGRAM_MAX_ATTEMPTS", 4),
+                Env.getInt("TELEGRAM_LANE_CAPACITY", 10_000));
+    }
+
+    private static ThreadFactory namedDaemon(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Queues an API call. chatId may be null for calls that are not bound to a chat (callback
+     * answers); a non-null coalesceKey lets a newer call replace a still-queued older one, whose
+     * future then completes with null.
+     */
+    public <T> CompletableFuture<T> submit(Lane lane, String chatId, String coalesceKey, ApiCall<T> action) {
+        Call<T> call = new Call<>(lane, chatId, coalesceKey, action);
+        lock.lock();
+        try {
+            if (coalesceKey != null) {
+                @SuppressWarnings("unchecked")
+                Call<T> queued = (Call<T>) queuedByCoalesceKey.get(coalesceKey);
+                if (queued != null && queued.lane == lane) {
+                    // Keep the queue position, run the newest payload
+                    queued.action = action;
+                    coalesced.incrementAndGet();
+                    CompletableFuture<T> superseded = new CompletableFuture<>();
+                    superseded.complete(null);
+                    return superseded;
+                }
+            }
+            ArrayDeque<Call<?>> queue = lanes.get(lane);
+            if (queue.size() >= laneCapacity) {
+                failed.incrementAndGet();
+                call.result.completeExceptionally(new TelegramApiException("Outbound queue is full for lane " + lane));
+                return call.result;
+            }
+            queue.addLast(call);
+            if (coalesceKey != null) {
+                queuedByCoalesceKey.put(coalesceKey, call);
+            }
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        return call.result;
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            try {
+                Call<?> call = nextCall();
+                ExecutorService executor = call.lane == Lane.BULK ? bulkExecutor : apiExecutor;
+                executor.execute(() -> run(call));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Telegram gateway dispatcher error", e);
+            }
+        }
+    }
+
+    private Call<?> nextCall() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                pruneBuckets(now);
+                long wait = IDLE_WAIT_MS;
+                long globalWait = globalBucket.waitMs(now);
+
+                for (Lane lane : Lane.values()) {
+                    Iterator<Call<?>> it = lanes.get(lane).iterator();
+                    while (it.hasNext()) {
+                        Call<?> call = it.next();
+                        long callWait = Math.max(call.notBefore - now, 0);
+                        TokenBucket chatBucket = call.chatId != null ? chatBucket(call.chatId, now) : null;
+                        long rateWait = Math.max(globalWait, chatBucket != null ? chatBucket.waitMs(now) : 0);
+                        if (callWait == 0 && rateWait == 0) {
+                            it.remove();
+                            if (call.coalesceKey != null) {
+                                queuedByCoalesceKey.remove(call.coalesceKey, call);
+                            }
+                            globalBucket.take(now);
+                            if (chatBucket != null) {
+                                chatBucket.take(now);
+                            }
+                            return call;
+                        }
+                        if (callWait == 0 && !call.throttled) {
+                            call.throttled = true;
+                            throttled.incrementAndGet();
+                        }
+                        wait = Math.min(wait, Math.max(callWait, rateWait));
+                    }
+                }
+                changed.await(Math.max(wait, 1), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private TokenBucket chatBucket(String chatId, long now) {
+        return chatBuckets.computeIfAbsent(chatId, k -> new TokenBucket(chatRatePerSecond, chatBurst, now));
+    }
+
+    private void pruneBuckets(long now) {
+        if (now - bucketsPrunedAt < BUCKET_PRUNE_INTERVAL_MS) {
+            return;
+        }
+        bucketsPrunedAt = now;
+        chatBuckets.values().removeIf(bucket -> bucket.isIdle(now));
+    }
+
+    private <T> void run(Call<T> call) {
+        call.attempts++;
+        try {
+            T value = call.action.call();
+            sent.incrementAndGet();
+            call.result.complete(value);
+        } catch (TelegramApiException e) {
+            long delay = retryDelayMs(call, e);
+            if (delay < 0) {
+                failed.incrementAndGet();
+                call.result.completeExceptionally(e);
+                return;
+            }
+            retried.incrementAndGet();
+            log.warn("Telegram call in lane {} failed (attempt {}/{}), retrying in {} ms: {}",
+                    call.lane, call.attempts, maxAttempts, delay, e.getMessage());
+            requeue(call, delay);
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            call.result.completeExceptionally(e);
+        }
+    }
+
+    // Negative means the failure is permanent or attempts are exhausted
+    private long retryDelayMs(Call<?> call, TelegramApiException e) {
+        if (call.attempts >= maxAttempts) {
+            return -1;
+        }
+        long jitter = ThreadLocalRandom.current().nextLong(250);
+        if (e instanceof TelegramApiRequestException request) {
+            Integer code = request.getErrorCode();
+            if (code != null && code == 429) {
+                rateLimited.incrementAndGet();
+                Integer retryAfter = request.getParameters() != null ? request.getParameters().getRetryAfter() : null;
+                long delay = (retryAfter != null ? retryAfter : 1) * 1000L + jitter;
+                blockBucket(call.chatId, System.currentTimeMillis() + delay);
+                return delay;
+            }
+            if (code != null && code < 500) {
+                return -1;
+            }
+        }
+        // Network errors and 5xx: exponential backoff
+        return (1000L << (call.attempts - 1)) + jitter;
+    }
+
+    private void blockBucket(String chatId, long until) {
+        lock.lock();
+        try {
+            (chatId != null ? chatBucket(chatId, System.currentTimeMillis()) : globalBucket).blockUntil(until);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void requeue(Call<?> call, long delayMs) {
+        lock.lock();
+        try {
+            if (call.coalesceKey != null) {
+                if (queuedByCoalesceKey.containsKey(call.coalesceKey)) {
+                    // A newer edit of the same message is already queued
+                    coalesced.incrementAndGet();
+                    call.result.complete(null);
+                    return;
+                }
+                queuedByCoalesceKey.put(call.coalesceKey, call);
+            }
+            call.notBefore = System.currentTimeMillis() + delayMs;
+            lanes.get(call.lane).addFirst(call);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queueDepth(Lane lane) {
+        lock.lock();
+        try {
+            return lanes.get(lane).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long sentCount() {
+        return sent.get();
+    }
+
+    public long throttledCount() {
+        return throttled.get();
+    }
+
+    public long coalescedCount() {
+        return coalesced.get();
+    }
+
+    public long retriedCount() {
+        return retried.get();
+    }
+
+    public long rateLimitedCount() {
+        return rateLimited.get();
+    }
+
+    public long failedCount() {
+        return failed.get();
+    }
+}
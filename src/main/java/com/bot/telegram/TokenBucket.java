@@ -0,0 +1,52 @@
+package com.bot.telegram;
+
+// Not thread-safe; owned by the gateway dispatcher
+class TokenBucket {
+
+    private final double ratePerMs;
+    private final double capacity;
+    private double tokens;
+    private long refilledAt;
+    private long blockedUntil;
+
+    TokenBucket(double ratePerSecond, double capacity, long now) {
+        this.ratePerMs = ratePerSecond / 1000.0;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.refilledAt = now;
+    }
+
+    // Milliseconds until a token is available; 0 means one can be taken now
+    long waitMs(long now) {
+        refill(now);
+        if (now < blockedUntil) {
+            return blockedUntil - now;
+        }
+        if (tokens >= 1) {
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / ratePerMs);
+    }
+
+    void take(long now) {
+        refill(now);
+        tokens -= 1;
+    }
+
+    // Server-side flood control (retry_after) overrides the local rate
+    void blockUntil(long until) {
+        blockedUntil = Math.max(blockedUntil, until);
+    }
+
+    boolean isIdle(long now) {
+        refill(now);
+        return tokens >= capacity && now >= blockedUntil;
+    }
+
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * ratePerMs);
+            refilledAt = now;
+        }
+    }
+}
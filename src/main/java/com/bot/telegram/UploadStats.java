@@ -0,0 +1,119 @@
+package com.bot.telegram;
+
+import com.bot.util.Env;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Upload counters per send mode. Multipart throughput is the baseline used to estimate how much
+ * time a local path hand-off saved. A bot that only hands off paths never measures multipart, so
+ * until it does the baseline comes from UPLOAD_MULTIPART_BASELINE_KBPS or, failing that, from the
+ * rate the last multipart uploads on this volume were saved with.
+ */
+public class UploadStats {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadStats.class);
+
+    public enum Mode { MULTIPART, LOCAL_PATH }
+
+    private final AtomicLong multipartBytes = new AtomicLong();
+    private final AtomicLong multipartMillis = new AtomicLong();
+    private final AtomicLong localBytes = new AtomicLong();
+    private final AtomicLong localMillis = new AtomicLong();
+    private final AtomicLong estimatedSavedMillis = new AtomicLong();
+    private final double seedBytesPerMs;
+    private final Path baselineFile;
+
+    /**
+     * @param seedBytesPerMs multipart throughput to assume until one is measured, 0 if unknown
+     * @param baselineFile   where measured multipart throughput is saved for later runs, or null
+     */
+    public UploadStats(double seedBytesPerMs, Path baselineFile) {
+        this.seedBytesPerMs = seedBytesPerMs;
+        this.baselineFile = baselineFile;
+    }
+
+    // The saved baseline lives next to the file ID cache on the shared volume
+    public static UploadStats fromEnv(Path sharedRoot) {
+        Path file = sharedRoot.resolve("cache").resolve("upload-baseline");
+        long configuredKbps = Env.getLong("UPLOAD_MULTIPART_BASELINE_KBPS", 0);
+        double seed = configuredKbps > 0 ? configuredKbps * 1024 / 1000.0 : readBaseline(file);
+        if (seed > 0) {
+            log.info("Multipart upload baseline {} MB/s ({})", String.format("%.1f", seed * 1000 / (1024 * 1024)),
+                    configuredKbps > 0 ? "configured" : "saved in " + file);
+        }
+        return new UploadStats(seed, file);
+    }
+
+    // Returns the estimated milliseconds saved compared with a multipart upload, or -1 if unknown
+    public long record(Mode mode, long bytes, long millis) {
+        if (mode == Mode.MULTIPART) {
+            multipartBytes.addAndGet(bytes);
+            multipartMillis.addAndGet(millis);
+            saveBaseline();
+            return 0;
+        }
+        localBytes.addAndGet(bytes);
+        localMillis.addAndGet(millis);
+        double bytesPerMs = multipartBytesPerMs();
+        if (bytesPerMs <= 0) {
+            return -1;
+        }
+        long saved = Math.max(0, (long) (bytes / bytesPerMs) - millis);
+        estimatedSavedMillis.addAndGet(saved);
+        return saved;
+    }
+
+    // Measured in this process, otherwise the seed
+    public double multipartBytesPerMs() {
+        long millis = multipartMillis.get();
+        return millis > 0 ? (double) multipartBytes.get() / millis : seedBytesPerMs;
+    }
+
+    public long bytes(Mode mode) {
+        return mode == Mode.MULTIPART ? multipartBytes.get() : localBytes.get();
+    }
+
+    public long millis(Mode mode) {
+        return mode == Mode.MULTIPART ? multipartMillis.get() : localMillis.get();
+    }
+
+    public long estimatedSavedMillis() {
+        return estimatedSavedMillis.get();
+    }
+
+    public static double megabytesPerSecond(long bytes, long millis) {
+        return millis > 0 ? bytes / (1024.0 * 1024.0) / (millis / 1000.0) : 0;
+    }
+
+    // Written to a temp file and moved into place, so replicas sharing the volume never read half a number
+    private void saveBaseline() {
+        double bytesPerMs = multipartBytesPerMs();
+        if (baselineFile == null || bytesPerMs <= 0) {
+            return;
+        }
+        try {
+            Files.createDirectories(baselineFile.getParent());
+            Path temp = Files.createTempFile(baselineFile.getParent(), baselineFile.getFileName().toString(), ".tmp");
+            Files.writeString(temp, String.valueOf(bytesPerMs));
+            Files.move(temp, baselineFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.debug("Failed to save the multipart upload baseline to {}", baselineFile, e);
+        }
+    }
+
+    private static double readBaseline(Path file) {
+        try {
+            return Files.exists(file) ? Math.max(0, Double.parseDouble(Files.readString(file).trim())) : 0;
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Ignoring unreadable multipart upload baseline {}: {}", file, e.toString());
+            return 0;
+        }
+    }
+}
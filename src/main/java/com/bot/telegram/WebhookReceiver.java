@@ -0,0 +1,164 @@
+package com.bot.telegram;
+
+import com.bot.metrics.Metrics;
+import com.bot.util.Env;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Receives updates pushed by the Bot API (setWebhook) on an embedded HTTP server. Requests are
+ * checked against the secret token, parsed and put on a bounded queue; the HTTP threads never wait
+ * for update handling. A full queue answers 503 so Telegram redelivers the update later.
+ */
+public class WebhookReceiver implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WebhookReceiver.class);
+    public static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+    private static final int MAX_BODY_BYTES = 1024 * 1024;
+
+    private final String secret;
+    private final BlockingQueue<Update> queue;
+    private final Consumer<Update> handler;
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final HttpServer server;
+    private final ExecutorService httpExecutor;
+    private final Thread[] dispatchers;
+
+    public WebhookReceiver(int port, String path, String secret, int queueCapacity, int httpThreads,
+                           int dispatchThreads, Consumer<Update> handler) throws IOException {
+        this.secret = secret;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.handler = handler;
+
+        AtomicInteger counter = new AtomicInteger();
+        httpExecutor = Executors.newFixedThreadPool(httpThreads, r -> {
+            Thread t = new Thread(r, "webhook-http-" + counter.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.setExecutor(httpExecutor);
+        server.createContext(path, this::receive);
+
+        // One dispatcher keeps updates in delivery order, like the long polling session; more handle them concurrently
+        dispatchers = new Thread[dispatchThreads];
+        for (int i = 0; i < dispatchThreads; i++) {
+            dispatchers[i] = new Thread(this::dispatchLoop, "webhook-dispatch-" + i);
+            dispatchers[i].setDaemon(true);
+            dispatchers[i].start();
+        }
+        Metrics.gauge("webhook_queue_depth", "Webhook updates waiting to be handled", queue::size);
+        server.start();
+        log.info("Webhook receiver listening on port {} at {}, queue capacity {}", port, path, queueCapacity);
+    }
+
+    public static WebhookReceiver fromEnv(String secret, Consumer<Update> handler) throws IOException {
+        return new WebhookReceiver(
+                Env.getInt("WEBHOOK_PORT", 8443),
+                Env.get("WEBHOOK_PATH", "/telegram/webhook"),
+                secret,
+                Env.getInt("WEBHOOK_QUEUE_CAPACITY", 1000),
+                Env.getInt("WEBHOOK_HTTP_THREADS", 4),
+                Env.getInt("WEBHOOK_DISPATCH_THREADS", 1),
+                handler);
+    }
+
+    // The bound port, for a receiver started on port 0
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // Telegram allows 1-256 characters from A-Z, a-z, 0-9, _ and -
+    public static String randomSecret() {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789_-";
+        SecureRandom random = new SecureRandom();
+        StringBuilder sb = new StringBuilder(48);
+        for (int i = 0; i < 48; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    private void receive(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                reply(exchange, 405, "rejected_method");
+                return;
+            }
+            String token = exchange.getRequestHeaders().getFirst(SECRET_HEADER);
+            if (token == null || !MessageDigest.isEqual(
+                    token.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8))) {
+                reply(exchange, 401, "rejected_secret");
+                return;
+            }
+            Update update;
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] bytes = body.readNBytes(MAX_BODY_BYTES + 1);
+                if (bytes.length > MAX_BODY_BYTES) {
+                    reply(exchange, 413, "rejected_size");
+                    return;
+                }
+                update = mapper.readValue(bytes, Update.class);
+            } catch (IOException e) {
+                log.warn("Malformed webhook update: {}", e.getMessage());
+                reply(exchange, 400, "rejected_malformed");
+                return;
+            }
+            if (!queue.offer(update)) {
+                log.warn("Webhook queue is full, asking Telegram to redeliver update {}", update.getUpdateId());
+                reply(exchange, 503, "rejected_full");
+                return;
+            }
+            reply(exchange, 200, "accepted");
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int status, String result) throws IOException {
+        Metrics.counter("webhook_requests_total", "Webhook requests by outcome", "result", result).inc();
+        exchange.sendResponseHeaders(status, -1);
+    }
+
+    private void dispatchLoop() {
+        while (true) {
+            Update update;
+            try {
+                update = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                handler.accept(update);
+            } catch (Exception e) {
+                log.error("Failed to handle update {}", update.getUpdateId(), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        httpExecutor.shutdownNow();
+        for (Thread dispatcher : dispatchers) {
+            dispatcher.interrupt();
+        }
+    }
+}
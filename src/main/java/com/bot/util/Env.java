@@ -0,0 +1,47 @@
+package com.bot.util;
+
+public class Env {
+
+    // System properties win over the environment so embedded runs can override settings
+    public static String get(String name) {
+        String value = System.getProperty(name);
+        if (value == null || value.isBlank()) {
+            value = System.getenv(name);
+        }
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    public static String get(String name, String defaultValue) {
+        String value = get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Environment variable " + name + " is not an integer: " + value);
+        }
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Environment variable " + name + " is not a number: " + value);
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = get(name);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+}
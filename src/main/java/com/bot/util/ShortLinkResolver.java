@@ -0,0 +1,130 @@
+package com.bot.util;
+
+import com.bot.cache.SingleFlightCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Expands TikTok short links (vm.tiktok.com/CODE) to a video ID by following redirects until one
+ * points at a full video URL. Resolved IDs are kept in a bounded cache so one short link maps to
+ * the same key for the whole TTL. Failures, often a timeout or a transient HTTP error, are only
+ * remembered briefly, so repeated links do not each wait for a dead host but a blip does not pin
+ * the link to its unresolved key.
+ */
+class ShortLinkResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(ShortLinkResolver.class);
+    private static final int MAX_REDIRECTS = 5;
+    private static final String UNRESOLVED = "";
+
+    private static volatile ShortLinkResolver instance;
+
+    private final HttpClient client;
+    private final Duration timeout;
+    private final SingleFlightCache<String, String> cache;
+    private final int maxEntries;
+    private final long failureTtlMs;
+    // When resolving each short link last failed, oldest first
+    private final LinkedHashMap<String, Long> failedAt = new LinkedHashMap<>();
+
+    ShortLinkResolver(int maxEntries, long ttlMs, long failureTtlMs, long timeoutMs) {
+        this.maxEntries = maxEntries;
+        this.failureTtlMs = failureTtlMs;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(timeout)
+                .build();
+        this.cache = new SingleFlightCache<>(maxEntries, ttlMs, id -> !UNRESOLVED.equals(id));
+    }
+
+    static ShortLinkResolver instance() {
+        ShortLinkResolver resolver = instance;
+        if (resolver == null) {
+            synchronized (ShortLinkResolver.class) {
+                resolver = instance;
+                if (resolver == null) {
+                    resolver = new ShortLinkResolver(
+                            Env.getInt("TIKTOK_SHORT_LINK_CACHE_MAX_ENTRIES", 10_000),
+                            Env.getLong("TIKTOK_SHORT_LINK_CACHE_TTL_HOURS", 24) * 3_600_000,
+                            Env.getLong("TIKTOK_SHORT_LINK_FAILURE_TTL_SECONDS", 60) * 1000,
+                            Env.getLong("TIKTOK_SHORT_LINK_TIMEOUT_MS", 5000));
+                    instance = resolver;
+                }
+            }
+        }
+        return resolver;
+    }
+
+    // Video ID behind the short link, or null if it could not be resolved
+    String resolve(String shortLink) {
+        if (failedRecently(shortLink)) {
+            return null;
+        }
+        String id = cache.get(shortLink, () -> follow(shortLink));
+        if (UNRESOLVED.equals(id)) {
+            failed(shortLink);
+            return null;
+        }
+        return id;
+    }
+
+    private synchronized boolean failedRecently(String shortLink) {
+        Long at = failedAt.get(shortLink);
+        if (at != null && System.currentTimeMillis() - at >= failureTtlMs) {
+            failedAt.remove(shortLink);
+            return false;
+        }
+        return at != null;
+    }
+
+    private synchronized void failed(String shortLink) {
+        failedAt.remove(shortLink);
+        failedAt.put(shortLink, System.currentTimeMillis());
+        Iterator<String> it = failedAt.keySet().iterator();
+        while (failedAt.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private String follow(String shortLink) {
+        URI current = URI.create(shortLink);
+        try {
+            for (int hop = 0; hop < MAX_REDIRECTS; hop++) {
+                HttpResponse<Void> response = client.send(HttpRequest.newBuilder(current)
+                        .timeout(timeout)
+                        .header("User-Agent", "Mozilla/5.0")
+                        .GET()
+                        .build(), HttpResponse.BodyHandlers.discarding());
+                String location = response.headers().firstValue("Location").orElse(null);
+                if (response.statusCode() / 100 != 3 || location == null) {
+                    break;
+                }
+                current = current.resolve(location);
+                String id = UrlValidator.tiktokVideoId(current.toString());
+                if (id != null) {
+                    log.info("Resolved {} to TikTok video {}", shortLink, id);
+                    return id;
+                }
+            }
+            log.warn("Short link {} did not redirect to a TikTok video (stopped at {})", shortLink, current);
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Failed to resolve short link {}: {}", shortLink, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // Not cached, the next caller tries again
+            return null;
+        }
+        return UNRESOLVED;
+    }
+}
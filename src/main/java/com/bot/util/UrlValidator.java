@@ -1,39 +1,371 @@
 package com.bot.util;
 
-import java.util.regex.Pattern;
+import java.util.Locale;
 
+/**
+ * Finds supported video links in chat text and maps every spelling of a link to one
+ * (platform, video ID) key. The scanner walks the text once by index: no splitting, no regexes,
+ * and nothing is allocated until a match is returned.
+ */
 public class UrlValidator {
 
-    private static final Pattern YOUTUBE_PATTERN = Pattern.compile(
-            "https?://(www\\.)?(youtube\\.com/(watch|shorts)|youtu\\.be/)[\\w?=&/.-]+"
-    );
+    public enum Platform {
+        YOUTUBE("youtube"), TIKTOK("tiktok");
 
-    private static final Pattern TIKTOK_PATTERN = Pattern.compile(
-            "https?://(www\\.|vm\\.)?(tiktok\\.com/)[\\w@./?=&-]+"
-    );
+        private final String label;
+
+        Platform(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    public record VideoRef(Platform platform, String videoId) {
+        public String key() {
+            return platform.label() + ":" + videoId;
+        }
+    }
+
+    private static final int NONE = 0;
+    private static final int YOUTUBE = 1;
+    private static final int TIKTOK = 2;
+    private static final int TIKTOK_SHORT = 3;
+
+    private static final int YOUTUBE_ID_LENGTH = 11;
+    private static final int MAX_TIKTOK_ID_LENGTH = 25;
+
+    private static final String[] YOUTUBE_HOSTS = {"youtube.com", "www.youtube.com", "m.youtube.com", "music.youtube.com"};
+    private static final String[] YOUTU_BE_HOSTS = {"youtu.be", "www.youtu.be"};
+    private static final String[] TIKTOK_HOSTS = {"tiktok.com", "www.tiktok.com", "m.tiktok.com"};
+    private static final String[] TIKTOK_SHORT_HOSTS = {"vm.tiktok.com", "vt.tiktok.com"};
+    private static final String[] YOUTUBE_ID_PATHS = {"/shorts/", "/live/", "/embed/", "/v/"};
 
     public static boolean isYouTubeUrl(String url) {
-        return YOUTUBE_PATTERN.matcher(url).find();
+        return kind(firstMatch(url)) == YOUTUBE;
     }
 
     public static boolean isTikTokUrl(String url) {
-        return TIKTOK_PATTERN.matcher(url).find();
+        int kind = kind(firstMatch(url));
+        return kind == TIKTOK || kind == TIKTOK_SHORT;
     }
 
     public static boolean isSupportedUrl(String url) {
-        return isYouTubeUrl(url) || isTikTokUrl(url);
+        return firstMatch(url) != 0;
     }
 
+    // First supported link in the text, without surrounding punctuation
     public static String extractUrl(String text) {
         if (text == null || text.isBlank()) {
             return null;
         }
-        String[] words = text.trim().split("\\s+");
-        for (String word : words) {
-            if (isSupportedUrl(word)) {
-                return word;
+        long match = firstMatch(text);
+        return match != 0 ? text.substring(start(match), end(match)) : null;
+    }
+
+    /**
+     * Canonical reference for a supported link, or null. TikTok short links (vm.tiktok.com) are
+     * resolved through {@link ShortLinkResolver}, which may do a network round trip on a cache miss.
+     */
+    public static VideoRef parse(String url) {
+        long match = firstMatch(url);
+        switch (kind(match)) {
+            case YOUTUBE:
+                return new VideoRef(Platform.YOUTUBE, url.substring(idStart(match), idEnd(match)));
+            case TIKTOK:
+                return new VideoRef(Platform.TIKTOK, url.substring(idStart(match), idEnd(match)));
+            case TIKTOK_SHORT:
+                String id = ShortLinkResolver.instance().resolve(shortLink(url, match));
+                return id != null ? new VideoRef(Platform.TIKTOK, id) : null;
+            default:
+                return null;
+        }
+    }
+
+    // Stable cache key for a video; unresolved short links and unknown URLs fall back to themselves
+    public static String videoKey(String url) {
+        VideoRef ref = parse(url);
+        if (ref != null) {
+            return ref.key();
+        }
+        long match = firstMatch(url);
+        if (kind(match) == TIKTOK_SHORT) {
+            return "tiktok-short:" + url.substring(idStart(match), idEnd(match));
+        }
+        return url;
+    }
+
+    // Low-cardinality site label for metrics
+    public static String site(String url) {
+        return switch (kind(firstMatch(url))) {
+            case YOUTUBE -> "youtube";
+            case TIKTOK, TIKTOK_SHORT -> "tiktok";
+            default -> "other";
+        };
+    }
+
+    // https://<lower-case host and path prefix>/<code>/, so spellings of one short link share a cache entry
+    private static String shortLink(String url, long match) {
+        String prefix = url.substring(start(match), idStart(match)).toLowerCase(Locale.ROOT);
+        if (prefix.startsWith("http://")) {
+            prefix = "https://" + prefix.substring("http://".length());
+        }
+        return prefix + url.substring(idStart(match), idEnd(match)) + "/";
+    }
+
+    // TikTok video ID of a fully expanded link, used by the short link resolver
+    static String tiktokVideoId(String url) {
+        long match = firstMatch(url);
+        return kind(match) == TIKTOK ? url.substring(idStart(match), idEnd(match)) : null;
+    }
+
+    /*
+     * A match is packed into one long so scanning never allocates:
+     * bits 56-63 kind, 42-55 link start, 28-41 link end, 14-27 ID start, 0-13 ID end.
+     * Offsets are limited to 16383, well above Telegram's 4096-character message limit.
+     */
+    private static final int OFFSET_BITS = 14;
+    private static final int MAX_OFFSET = (1 << OFFSET_BITS) - 1;
+    private static final long OFFSET_MASK = MAX_OFFSET;
+
+    private static long pack(int kind, int start, int end, int idStart, int idEnd) {
+        return (long) kind << 56 | (long) start << 42 | (long) end << 28 | (long) idStart << 14 | idEnd;
+    }
+
+    private static int kind(long match) {
+        return (int) (match >>> 56);
+    }
+
+    private static int start(long match) {
+        return (int) (match >>> 42 & OFFSET_MASK);
+    }
+
+    private static int end(long match) {
+        return (int) (match >>> 28 & OFFSET_MASK);
+    }
+
+    private static int idStart(long match) {
+        return (int) (match >>> 14 & OFFSET_MASK);
+    }
+
+    private static int idEnd(long match) {
+        return (int) (match & OFFSET_MASK);
+    }
+
+    // 0 when the text holds no supported link
+    private static long firstMatch(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int n = Math.min(text.length(), MAX_OFFSET);
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (c == 'h' || c == 'H') {
+                int scheme = schemeLength(text, i, n);
+                if (scheme > 0) {
+                    int end = tokenEnd(text, i, n);
+                    long match = classify(text, i, i + scheme, end);
+                    if (match != 0) {
+                        return match;
+                    }
+                    i = Math.max(end, i + 1);
+                    continue;
+                }
             }
+            i++;
+        }
+        return 0;
+    }
+
+    private static int schemeLength(CharSequence s, int i, int n) {
+        if (!regionMatches(s, i, n, "http")) {
+            return 0;
+        }
+        int p = i + 4;
+        if (p < n && (s.charAt(p) == 's' || s.charAt(p) == 'S')) {
+            p++;
+        }
+        return regionMatches(s, p, n, "://") ? p + 3 - i : 0;
+    }
+
+    // Links end at whitespace; trailing punctuation from the sentence around them is dropped
+    private static int tokenEnd(CharSequence s, int start, int n) {
+        int end = start;
+        while (end < n && !isSpace(s.charAt(end))) {
+            end++;
+        }
+        while (end > start && ".,;:!?)]}>'\"".indexOf(s.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return end;
+    }
+
+    private static boolean isSpace(char c) {
+        return Character.isWhitespace(c) || Character.isSpaceChar(c);
+    }
+
+    private static long classify(CharSequence s, int start, int hostStart, int end) {
+        int hostEnd = hostStart;
+        while (hostEnd < end && s.charAt(hostEnd) != '/' && s.charAt(hostEnd) != '?' && s.charAt(hostEnd) != '#') {
+            hostEnd++;
         }
-        return null;
+        int portAt = indexOf(s, ':', hostStart, hostEnd);
+        int nameEnd = portAt >= 0 ? portAt : hostEnd;
+
+        if (hostIn(s, hostStart, nameEnd, YOUTUBE_HOSTS)) {
+            return youtubeId(s, start, hostEnd, end);
+        }
+        if (hostIn(s, hostStart, nameEnd, YOUTU_BE_HOSTS)) {
+            return hostEnd < end && s.charAt(hostEnd) == '/' ? youtubeIdAt(s, start, end, hostEnd + 1) : 0;
+        }
+        if (hostIn(s, hostStart, nameEnd, TIKTOK_HOSTS)) {
+            if (regionMatches(s, hostEnd, end, "/t/")) {
+                return shortCode(s, start, end, hostEnd + 3);
+            }
+            return tiktokId(s, start, hostEnd, end);
+        }
+        if (hostIn(s, hostStart, nameEnd, TIKTOK_SHORT_HOSTS)) {
+            return hostEnd < end && s.charAt(hostEnd) == '/' ? shortCode(s, start, end, hostEnd + 1) : 0;
+        }
+        return 0;
+    }
+
+    // /watch?v=ID (v may be any query parameter), /shorts/ID, /live/ID, /embed/ID, /v/ID
+    private static long youtubeId(CharSequence s, int start, int pathStart, int end) {
+        for (String prefix : YOUTUBE_ID_PATHS) {
+            if (regionMatches(s, pathStart, end, prefix)) {
+                return youtubeIdAt(s, start, end, pathStart + prefix.length());
+            }
+        }
+        int afterWatch = pathStart + "/watch".length();
+        if (!regionMatches(s, pathStart, end, "/watch")
+                || (afterWatch < end && s.charAt(afterWatch) != '?' && s.charAt(afterWatch) != '/')) {
+            return 0;
+        }
+        int query = indexOf(s, '?', pathStart, end);
+        if (query < 0) {
+            return 0;
+        }
+        int fragment = indexOf(s, '#', query, end);
+        int queryEnd = fragment >= 0 ? fragment : end;
+        for (int i = query; i + 2 < queryEnd; i++) {
+            char c = s.charAt(i);
+            if ((c == '?' || c == '&') && s.charAt(i + 1) == 'v' && s.charAt(i + 2) == '=') {
+                long match = youtubeIdAt(s, start, end, i + 3);
+                if (match != 0) {
+                    return match;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static long youtubeIdAt(CharSequence s, int start, int end, int idStart) {
+        int idEnd = idStart + YOUTUBE_ID_LENGTH;
+        if (idEnd > end) {
+            return 0;
+        }
+        for (int i = idStart; i < idEnd; i++) {
+            if (!isYouTubeIdChar(s.charAt(i))) {
+                return 0;
+            }
+        }
+        if (idEnd < end && isYouTubeIdChar(s.charAt(idEnd))) {
+            return 0;
+        }
+        return pack(YOUTUBE, start, end, idStart, idEnd);
+    }
+
+    // /@user/video/ID, /video/ID or m.tiktok.com/v/ID.html
+    private static long tiktokId(CharSequence s, int start, int pathStart, int end) {
+        int pathEnd = pathStart;
+        while (pathEnd < end && s.charAt(pathEnd) != '?' && s.charAt(pathEnd) != '#') {
+            pathEnd++;
+        }
+        int idStart = -1;
+        int video = indexOf(s, "/video/", pathStart, pathEnd);
+        if (video >= 0) {
+            idStart = video + "/video/".length();
+        } else if (regionMatches(s, pathStart, pathEnd, "/v/")) {
+            idStart = pathStart + 3;
+        }
+        if (idStart < 0) {
+            return 0;
+        }
+        int idEnd = idStart;
+        while (idEnd < pathEnd && s.charAt(idEnd) >= '0' && s.charAt(idEnd) <= '9') {
+            idEnd++;
+        }
+        if (idEnd == idStart || idEnd - idStart > MAX_TIKTOK_ID_LENGTH
+                || (idEnd < pathEnd && s.charAt(idEnd) != '/' && s.charAt(idEnd) != '.')) {
+            return 0;
+        }
+        return pack(TIKTOK, start, end, idStart, idEnd);
+    }
+
+    private static long shortCode(CharSequence s, int start, int end, int codeStart) {
+        int codeEnd = codeStart;
+        while (codeEnd < end && isAsciiLetterOrDigit(s.charAt(codeEnd))) {
+            codeEnd++;
+        }
+        if (codeEnd == codeStart || (codeEnd < end && "/?#".indexOf(s.charAt(codeEnd)) < 0)) {
+            return 0;
+        }
+        return pack(TIKTOK_SHORT, start, end, codeStart, codeEnd);
+    }
+
+    private static boolean hostIn(CharSequence s, int from, int to, String[] hosts) {
+        for (String host : hosts) {
+            if (to - from == host.length() && regionMatches(s, from, to, host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Case-insensitive for ASCII; prefix must be lower case
+    private static boolean regionMatches(CharSequence s, int from, int limit, String prefix) {
+        if (limit - from < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = s.charAt(from + i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            }
+            if (c != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence s, String needle, int from, int to) {
+        for (int i = from; i + needle.length() <= to; i++) {
+            if (regionMatches(s, i, to, needle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isYouTubeIdChar(char c) {
+        return isAsciiLetterOrDigit(c) || c == '-' || c == '_';
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
     }
 }
@@ -0,0 +1,133 @@
+"""Long-lived yt-dlp worker for YtDlpWorkerPool.
+
+Reads one JSON request per line on stdin and writes JSON events on stdout:
+  {"id": 1, "op": "ping"}                         -> {"id": 1, "type": "result"}
+  {"id": 2, "op": "probe", "args": [...]}         -> {"id": 2, "type": "result", "info": {"formats": [...]}}
+      (with "info_path", the full info JSON is also written to that file)
+  {"id": 3, "op": "download", "args": [...]}      -> {"id": 3, "type": "output", "data": "..."}*
+                                                     {"id": 3, "type": "exit", "code": 0}
+  {"id": 4, "op": "cancel", "target": 3}          -> the running download of request 3 stops with code 130
+Requests other than cancel are served one at a time. "args" are regular yt-dlp command line arguments.
+"""
+import json
+import os
+import queue
+import sys
+import threading
+
+import yt_dlp
+
+FORMAT_FIELDS = ("vcodec", "acodec", "height", "filesize", "filesize_approx")
+
+# Keep the protocol on a private copy of stdout so stray prints from yt-dlp or ffmpeg go to stderr
+out = os.fdopen(os.dup(1), "w", encoding="utf-8")
+os.dup2(2, 1)
+sys.stdout = sys.stderr
+out_lock = threading.Lock()
+requests = queue.Queue()
+cancelled = set()
+
+
+class Cancelled(Exception):
+    pass
+
+
+def emit(event):
+    line = json.dumps(event, separators=(",", ":"))
+    with out_lock:
+        out.write(line + "\n")
+        out.flush()
+
+
+class Logger:
+    def __init__(self, request_id):
+        self.request_id = request_id
+
+    def _line(self, msg):
+        emit({"id": self.request_id, "type": "output", "data": msg})
+
+    debug = info = warning = error = _line
+
+
+def read_requests():
+    for line in sys.stdin:
+        line = line.strip()
+        if not line:
+            continue
+        try:
+            request = json.loads(line)
+        except ValueError:
+            continue
+        if request.get("op") == "cancel":
+            cancelled.add(request.get("target"))
+        else:
+            requests.put(request)
+    requests.put(None)
+
+
+def build_options(request_id, args):
+    parsed = yt_dlp.parse_options(args)
+    opts = dict(parsed.ydl_opts)
+    opts["logger"] = Logger(request_id)
+
+    def check_cancel(_):
+        if request_id in cancelled:
+            raise Cancelled()
+
+    opts["progress_hooks"] = list(opts.get("progress_hooks") or []) + [check_cancel]
+    return opts, parsed
+
+
+def probe(request_id, args, info_path=None):
+    opts, parsed = build_options(request_id, args)
+    opts["skip_download"] = True
+    with yt_dlp.YoutubeDL(opts) as ydl:
+        info = ydl.sanitize_info(ydl.extract_info(parsed.urls[0], download=False))
+    if info_path:
+        with open(info_path, "w", encoding="utf-8") as f:
+            json.dump(info, f)
+    formats = [{k: f.get(k) for k in FORMAT_FIELDS} for f in info.get("formats") or []]
+    emit({"id": request_id, "type": "result", "info": {"formats": formats}})
+
+
+def download(request_id, args):
+    opts, parsed = build_options(request_id, args)
+    try:
+        with yt_dlp.YoutubeDL(opts) as ydl:
+            if parsed.options.load_info_filename is not None:
+                code = ydl.download_with_info_file(parsed.options.load_info_filename)
+            else:
+                code = ydl.download(parsed.urls)
+    except Cancelled:
+        code = 130
+    except yt_dlp.utils.DownloadError as e:
+        emit({"id": request_id, "type": "output", "data": str(e)})
+        code = 130 if request_id in cancelled else 1
+    emit({"id": request_id, "type": "exit", "code": code})
+
+
+def main():
+    threading.Thread(target=read_requests, daemon=True).start()
+    while True:
+        request = requests.get()
+        if request is None:
+            return
+        request_id = request.get("id")
+        op = request.get("op")
+        try:
+            if op == "ping":
+                emit({"id": request_id, "type": "result"})
+            elif op == "probe":
+                probe(request_id, request.get("args", []), request.get("info_path"))
+            elif op == "download":
+                download(request_id, request.get("args", []))
+            else:
+                emit({"id": request_id, "type": "error", "message": "unknown op: %s" % op})
+        except Exception as e:
+            emit({"id": request_id, "type": "error", "message": "%s: %s" % (type(e).__name__, e)})
+        finally:
+            cancelled.discard(request_id)
+
+
+if __name__ == "__main__":
+    main()
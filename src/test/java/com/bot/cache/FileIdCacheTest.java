@@ -0,0 +1,133 @@
+package com.bot.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Two caches on one log stand in for two replicas sharing the volume
+class FileIdCacheTest {
+
+    private static final long TTL_MS = 60_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replaysTheLogOnStartup() {
+        FileIdCache first = cache(100);
+        first.put("a|default", "file-a", 10);
+        first.put("b|default", "file-b", 20);
+        first.invalidate("a|default");
+
+        FileIdCache restarted = cache(100);
+
+        assertNull(restarted.get("a|default"));
+        assertEquals("file-b", restarted.get("b|default").fileId());
+        assertEquals(20L, restarted.get("b|default").sizeBytes());
+    }
+
+    // Lookups never touch the log; another replica's upload shows up with the next refresh
+    @Test
+    void seesOtherReplicasUploadsAfterRefresh() {
+        FileIdCache mine = cache(100);
+        FileIdCache other = cache(100);
+
+        other.put("a|default", "file-a", 10);
+
+        assertFalse(mine.contains("a|default"));
+        mine.refresh();
+        assertTrue(mine.contains("a|default"));
+    }
+
+    // Writing first catches up with the log, so this replica's append keeps the other's entry
+    @Test
+    void writesKeepOtherReplicasEntries() {
+        FileIdCache mine = cache(100);
+        FileIdCache other = cache(100);
+        other.put("a|default", "file-a", 10);
+
+        mine.put("b|default", "file-b", 20);
+
+        assertEquals("file-a", mine.get("a|default").fileId());
+        assertEquals(2, cache(100).size());
+    }
+
+    @Test
+    void rereadsTheLogAfterAnotherReplicaCompactsIt() throws Exception {
+        FileIdCache mine = cache(100);
+        FileIdCache other = cache(100);
+        mine.put("kept|default", "file-kept", 1);
+        // Enough churn for a compaction, which swaps in a new file
+        for (int i = 0; i < 600; i++) {
+            other.put("churn|default", "file-" + i, 1);
+            other.invalidate("churn|default");
+        }
+        other.put("late|default", "file-late", 1);
+        assertTrue(Files.readAllLines(log()).size() < 1000, "the log was not compacted");
+
+        mine.refresh();
+
+        assertEquals("file-kept", mine.get("kept|default").fileId());
+        assertEquals("file-late", mine.get("late|default").fileId());
+        assertNull(mine.get("churn|default"));
+    }
+
+    // A crash can leave half a line; it is skipped until a newline completes it
+    @Test
+    void skipsTornLastLine() throws Exception {
+        cache(100).put("a|default", "file-a", 10);
+        Files.writeString(log(), "PUT\tb|default\tfile-b\t20", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        FileIdCache restarted = cache(100);
+        assertNull(restarted.get("b|default"));
+
+        Files.writeString(log(), "\t" + System.currentTimeMillis() + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+        restarted.refresh();
+        assertEquals("file-b", restarted.get("b|default").fileId());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxEntries() {
+        FileIdCache cache = cache(2);
+        cache.put("a|default", "file-a", 1);
+        cache.put("b|default", "file-b", 1);
+        cache.get("a|default");
+
+        cache.put("c|default", "file-c", 1);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b|default"));
+        assertTrue(cache.contains("a|default"));
+        assertTrue(cache.contains("c|default"));
+        assertNull(cache(2).get("b|default"));
+    }
+
+    @Test
+    void expiredEntriesAreMisses() throws Exception {
+        long createdAt = System.currentTimeMillis() - TTL_MS - 1;
+        Files.createDirectories(dir);
+        Files.writeString(log(), "PUT\told|default\tfile-old\t1\t" + createdAt + "\n");
+        FileIdCache cache = cache(100);
+
+        assertNull(cache.get("old|default"));
+        assertEquals(1L, cache.misses());
+    }
+
+    private FileIdCache cache(int maxEntries) {
+        return new FileIdCache(log(), maxEntries, TTL_MS, 0);
+    }
+
+    private Path log() {
+        return dir.resolve("file-ids.log");
+    }
+}
@@ -0,0 +1,196 @@
+package com.bot.downloader;
+
+import com.bot.downloader.DownloadAccelerator.Plan;
+import com.bot.downloader.DownloadAccelerator.SiteProfile;
+import com.bot.downloader.DownloadAccelerator.Tuner;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DownloadAcceleratorTest {
+
+    // TikTok downloads use one connection, so the plan's limit is also the --limit-rate
+    private static final String SITE = "tiktok";
+
+    @Test
+    void climbsWhileTheNextLevelIsUntriedOrFaster() {
+        Tuner tuner = tuner(2, 4, true);
+
+        tuner.record(2, 1000);
+        assertEquals(3, tuner.current());
+        tuner.record(3, 2000);
+        assertEquals(4, tuner.current());
+        // Never above the site's maximum
+        tuner.record(4, 3000);
+        assertEquals(4, tuner.current());
+    }
+
+    @Test
+    void stepsBackWhenTheLevelBelowWasFaster() {
+        Tuner tuner = tuner(2, 4, true);
+        tuner.record(2, 1000);
+        tuner.record(3, 2000);
+
+        tuner.record(4, 1000);
+
+        assertEquals(3, tuner.current());
+    }
+
+    // Within MIN_GAIN a level is not faster, so noise does not flip the setting
+    @Test
+    void holdsWhenNeighboursAreNotClearlyFaster() {
+        Tuner tuner = tuner(2, 4, true);
+        tuner.record(2, 1000);
+        tuner.record(3, 1040);
+
+        tuner.record(4, 1000);
+        assertEquals(4, tuner.current());
+        tuner.record(4, 1000);
+
+        assertEquals(4, tuner.current());
+    }
+
+    @Test
+    void samplesFromOtherLevelsOnlyUpdateTheHistory() {
+        Tuner tuner = tuner(2, 4, true);
+        tuner.record(2, 1000);
+        tuner.record(3, 2000);
+        tuner.record(4, 1000);
+        assertEquals(3, tuner.current());
+
+        tuner.record(2, 5000);
+        assertEquals(3, tuner.current());
+        assertEquals(1000 * 0.7 + 5000 * 0.3, tuner.ewma[2], 0.001);
+
+        // The next sample at the current level sees level 2 as faster now
+        tuner.record(3, 2000);
+        assertEquals(2, tuner.current());
+    }
+
+    @Test
+    void backOffHalvesConcurrencyAndTheThrottledLevel() {
+        Tuner tuner = tuner(4, 8, true);
+        tuner.record(4, 1000);
+        assertEquals(5, tuner.current());
+        tuner.record(5, 2000);
+        tuner.record(6, 3000);
+        assertEquals(7, tuner.current());
+
+        tuner.backOff(6);
+
+        assertEquals(3, tuner.current());
+        assertEquals(1500.0, tuner.ewma[6]);
+        tuner.backOff(3);
+        assertEquals(1, tuner.current());
+        tuner.backOff(1);
+        assertEquals(1, tuner.current());
+    }
+
+    // A throttled download that ran with fewer fragments than the current level halves from its own
+    @Test
+    void backOffStartsFromTheThrottledDownloadsLevel() {
+        Tuner tuner = tuner(8, 8, true);
+
+        tuner.backOff(4);
+
+        assertEquals(2, tuner.current());
+    }
+
+    @Test
+    void pinnedProfileNeverMoves() {
+        Tuner tuner = tuner(3, 8, false);
+
+        tuner.record(3, 1000);
+        tuner.backOff(3);
+
+        assertEquals(3, tuner.current());
+    }
+
+    @Test
+    void noBudgetLeavesDownloadsUnlimited() {
+        DownloadAccelerator accelerator = new DownloadAccelerator(0, 2, 0);
+
+        try (Plan plan = accelerator.plan(SITE, 0); Plan capped = accelerator.plan(SITE, 300)) {
+            assertEquals(0L, plan.rateLimitKbps());
+            assertTrue(plan.args().stream().noneMatch(arg -> arg.equals("--limit-rate")), String.valueOf(plan.args()));
+            assertEquals(300L, capped.rateLimitKbps());
+        }
+        assertEquals(0L, accelerator.allocatedKbps());
+    }
+
+    // Shares are fixed per slot, so a download keeps its rate however many start after it
+    @Test
+    void everySlotGetsAnEqualShare() {
+        DownloadAccelerator accelerator = new DownloadAccelerator(4096, 2, 0);
+
+        try (Plan first = accelerator.plan(SITE, 0)) {
+            assertEquals(2048L, first.rateLimitKbps());
+            try (Plan second = accelerator.plan(SITE, 0)) {
+                assertEquals(2048L, second.rateLimitKbps());
+                assertEquals(List.of("--limit-rate", "2048K"), second.args());
+                assertEquals(4096L, accelerator.allocatedKbps());
+            }
+            assertEquals(2048L, accelerator.allocatedKbps());
+        }
+        assertEquals(0L, accelerator.allocatedKbps());
+    }
+
+    // Downloads beyond the slots, such as speculative ones, only get the minimum
+    @Test
+    void downloadsBeyondTheSlotsGetTheMinimum() {
+        DownloadAccelerator accelerator = new DownloadAccelerator(4096, 2, 0);
+
+        try (Plan first = accelerator.plan(SITE, 0); Plan second = accelerator.plan(SITE, 0);
+             Plan extra = accelerator.plan(SITE, 0)) {
+            assertEquals(128L, extra.rateLimitKbps());
+            assertEquals(4096L + 128, accelerator.allocatedKbps());
+        }
+        try (Plan next = accelerator.plan(SITE, 0)) {
+            assertEquals(2048L, next.rateLimitKbps());
+        }
+    }
+
+    @Test
+    void callersCapOnlyLowersTheShare() {
+        DownloadAccelerator accelerator = new DownloadAccelerator(4096, 2, 0);
+
+        try (Plan lower = accelerator.plan(SITE, 500); Plan higher = accelerator.plan(SITE, 10_000)) {
+            assertEquals(500L, lower.rateLimitKbps());
+            assertEquals(2048L, higher.rateLimitKbps());
+            // The share is held even when the caller's cap is lower
+            assertEquals(4096L, accelerator.allocatedKbps());
+        }
+    }
+
+    @Test
+    void closingTwiceReturnsTheShareOnce() {
+        DownloadAccelerator accelerator = new DownloadAccelerator(4096, 2, 0);
+        Plan plan = accelerator.plan(SITE, 0);
+        try (Plan other = accelerator.plan(SITE, 0)) {
+            plan.close();
+            plan.close();
+
+            assertEquals(2048L, accelerator.allocatedKbps());
+        }
+    }
+
+    // yt-dlp applies --limit-rate per connection, so the share is split between the fragments
+    @Test
+    void shareIsSplitBetweenFragments() {
+        DownloadAccelerator accelerator = new DownloadAccelerator(4096, 1, 0);
+
+        try (Plan plan = accelerator.plan("youtube", 0)) {
+            List<String> args = plan.args();
+            int at = args.indexOf("--limit-rate");
+            assertEquals(4096 / plan.fragments() + "K", args.get(at + 1));
+            assertEquals(String.valueOf(plan.fragments()), args.get(args.indexOf("--concurrent-fragments") + 1));
+        }
+    }
+
+    private static Tuner tuner(int initial, int max, boolean adaptive) {
+        return new Tuner("test", new SiteProfile(initial, max, adaptive, 0, null));
+    }
+}
@@ -0,0 +1,83 @@
+package com.bot.downloader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// scripts/fake_ytdlp.py and fake_ytdlp_worker.py, run with python3 from the project root like the load test does
+final class FakeYtDlp {
+
+    // The fake writes its file in ten chunks of the default 512 KiB
+    static final long CHUNK = 512 * 1024 / 10;
+    static final long SIZE = CHUNK * 10;
+
+    private FakeYtDlp() {
+    }
+
+    static void assumePython() throws InterruptedException {
+        try {
+            Process python = new ProcessBuilder("python3", "--version").redirectErrorStream(true).start();
+            python.getInputStream().readAllBytes();
+            assumeTrue(python.waitFor() == 0, "python3 does not run");
+        } catch (IOException e) {
+            assumeTrue(false, "python3 is not installed");
+        }
+    }
+
+    // An executable for YTDLP_BINARY that runs fake_ytdlp.py with the given FAKE_YTDLP_* settings
+    static Path binary(Path dir, Map<String, String> env) throws IOException {
+        StringBuilder sh = new StringBuilder("#!/bin/sh\n");
+        env.forEach((name, value) -> sh.append("export ").append(name).append("='").append(value).append("'\n"));
+        sh.append("exec python3 '").append(script("fake_ytdlp.py")).append("' \"$@\"\n");
+        Path binary = Files.createTempFile(dir, "yt-dlp-", ".sh");
+        Files.writeString(binary, sh);
+        Files.setPosixFilePermissions(binary, PosixFilePermissions.fromString("rwx------"));
+        return binary;
+    }
+
+    // A worker command for YtDlpWorkerPool that runs fake_ytdlp_worker.py with the given settings
+    static List<String> workerCommand(Map<String, String> env) {
+        List<String> command = new ArrayList<>();
+        command.add("env");
+        env.forEach((name, value) -> command.add(name + "=" + value));
+        command.add("python3");
+        command.add(script("fake_ytdlp_worker.py").toString());
+        return command;
+    }
+
+    // Runs the call on its own thread, interrupts it once started opens and returns what it threw
+    static Throwable interruptAfter(CountDownLatch started, Callable<?> call) throws InterruptedException {
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                call.call();
+            } catch (Throwable e) {
+                thrown.set(e);
+            }
+        }, "fake-ytdlp-call");
+        thread.start();
+        assertTrue(started.await(20, TimeUnit.SECONDS), "the call did not start");
+        thread.interrupt();
+        thread.join(20_000);
+        assertFalse(thread.isAlive(), "the call ignored the interrupt");
+        return thrown.get();
+    }
+
+    private static Path script(String name) {
+        Path script = Path.of("scripts", name).toAbsolutePath();
+        assumeTrue(Files.isRegularFile(script), script + " is missing");
+        return script;
+    }
+}
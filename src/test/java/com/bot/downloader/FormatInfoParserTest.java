@@ -0,0 +1,185 @@
+package com.bot.downloader;
+
+import com.bot.Fixtures;
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FormatInfoParserTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @ParameterizedTest
+    @MethodSource("recordedOutput")
+    void parsesRecordedOutput(String fixture, String expected) throws IOException {
+        assertEquals(expected, describe(parse(Fixtures.load(fixture))));
+    }
+
+    static Stream<Arguments> recordedOutput() {
+        return Stream.of(
+                Arguments.of("tiktok-small.json", "576=8 1024=8"),
+                Arguments.of("youtube-medium.json", "144=7 240=10 360=27 480=19 720=33 1080=54 1440=115 2160=245"),
+                Arguments.of("youtube-large.json", "144=8 240=9 360=27 480=16 720=33 1080=72 1440=123 2160=252"));
+    }
+
+    // The streaming parser replaced one built on org.json's tree; both must agree on real output
+    @ParameterizedTest
+    @ValueSource(strings = {"tiktok-small.json", "youtube-medium.json", "youtube-large.json"})
+    void matchesTreeParserOnRecordedOutput(String fixture) throws IOException {
+        String json = Fixtures.load(fixture);
+        assertEquals(describe(treeParse(json)), describe(parse(json)));
+    }
+
+    // Each case is one video stream at 720p next to whatever the case varies; sizes follow org.json's optInt/optLong
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("coercion")
+    void coercesFieldsLikeOrgJson(String name, String format, String expected) throws IOException {
+        assertEquals(expected, describe(parse("{\"formats\":[" + format + "]}")));
+    }
+
+    static Stream<Arguments> coercion() {
+        return Stream.of(
+                Arguments.of("numbers", "{\"vcodec\":\"avc1\",\"height\":720,\"filesize\":" + 3 * MB + "}", "720=3"),
+                Arguments.of("height as string", "{\"vcodec\":\"avc1\",\"height\":\"720\",\"filesize\":" + 3 * MB + "}", "720=3"),
+                Arguments.of("height as decimal string", "{\"vcodec\":\"avc1\",\"height\":\"720.9\"}", "720=0"),
+                Arguments.of("height as decimal", "{\"vcodec\":\"avc1\",\"height\":720.9}", "720=0"),
+                Arguments.of("height with a unit", "{\"vcodec\":\"avc1\",\"height\":\"720p\"}", ""),
+                Arguments.of("height as boolean", "{\"vcodec\":\"avc1\",\"height\":true}", ""),
+                Arguments.of("height null", "{\"vcodec\":\"avc1\",\"height\":null}", ""),
+                Arguments.of("height negative", "{\"vcodec\":\"avc1\",\"height\":-720}", ""),
+                Arguments.of("filesize as string", "{\"vcodec\":\"avc1\",\"height\":720,\"filesize\":\"" + 3 * MB + "\"}", "720=3"),
+                Arguments.of("filesize in exponent form", "{\"vcodec\":\"avc1\",\"height\":720,\"filesize\":3.5e6}", "720=3"),
+                Arguments.of("filesize as exponent string", "{\"vcodec\":\"avc1\",\"height\":720,\"filesize\":\"3.5E6\"}", "720=3"),
+                Arguments.of("filesize null falls back to approx",
+                        "{\"vcodec\":\"avc1\",\"height\":720,\"filesize\":null,\"filesize_approx\":" + 5 * MB + "}", "720=5"),
+                Arguments.of("filesize zero falls back to approx",
+                        "{\"vcodec\":\"avc1\",\"height\":720,\"filesize\":0,\"filesize_approx\":" + 5 * MB + "}", "720=5"),
+                Arguments.of("filesize negative falls back to approx",
+                        "{\"vcodec\":\"avc1\",\"height\":720,\"filesize\":-1,\"filesize_approx\":" + 5 * MB + "}", "720=5"),
+                Arguments.of("filesize not a number falls back to approx",
+                        "{\"vcodec\":\"avc1\",\"height\":720,\"filesize\":\"unknown\",\"filesize_approx\":" + 5 * MB + "}", "720=5"),
+                Arguments.of("filesize before approx wins",
+                        "{\"filesize_approx\":" + 5 * MB + ",\"vcodec\":\"avc1\",\"filesize\":" + 2 * MB + ",\"height\":720}", "720=2"),
+                Arguments.of("no size at all", "{\"vcodec\":\"avc1\",\"height\":720}", "720=0"),
+                Arguments.of("vcodec missing", "{\"height\":720,\"filesize\":" + 3 * MB + "}", ""),
+                Arguments.of("vcodec null", "{\"vcodec\":null,\"height\":720,\"filesize\":" + 3 * MB + "}", ""),
+                Arguments.of("vcodec none", "{\"vcodec\":\"none\",\"height\":720,\"filesize\":" + 3 * MB + "}", ""),
+                Arguments.of("escaped key", "{\"vcodec\":\"avc1\",\"h\\u0065ight\":720}", "720=0"));
+    }
+
+    @Test
+    void addsTheLargestAudioStreamToEveryHeight() throws IOException {
+        String json = "{\"formats\":["
+                + "{\"vcodec\":\"none\",\"acodec\":\"mp4a.40.2\",\"filesize\":" + MB + "},"
+                + "{\"vcodec\":\"none\",\"acodec\":\"opus\",\"filesize_approx\":" + 2 * MB + "},"
+                // Neither codec set: not an audio stream, so its size is ignored
+                + "{\"vcodec\":\"none\",\"acodec\":\"none\",\"filesize\":" + 50 * MB + "},"
+                + "{\"acodec\":null,\"filesize\":" + 50 * MB + "},"
+                + "{\"vcodec\":\"avc1\",\"acodec\":\"none\",\"height\":360,\"filesize\":" + 4 * MB + "},"
+                + "{\"vcodec\":\"vp9\",\"height\":1080,\"filesize\":" + 10 * MB + "}]}";
+        assertEquals("360=6 1080=12", describe(parse(json)));
+    }
+
+    @Test
+    void keepsTheLargestStreamPerHeight() throws IOException {
+        String json = "{\"formats\":["
+                + "{\"vcodec\":\"avc1\",\"height\":720,\"filesize\":" + 3 * MB + "},"
+                + "{\"vcodec\":\"vp9\",\"height\":720,\"filesize\":" + 7 * MB + "},"
+                + "{\"vcodec\":\"av01\",\"height\":720,\"filesize_approx\":" + 5 * MB + "}]}";
+        assertEquals("720=7", describe(parse(json)));
+    }
+
+    @Test
+    void skipsEverythingOutsideTheFormatFields() throws IOException {
+        String json = """
+                {
+                  "title": "a \\"quoted\\" title with } and ] inside",
+                  "thumbnails": [{"url": "https://i.ytimg.com/vi/x/0.jpg", "preference": -37}],
+                  "formats": [
+                    {
+                      "format_id": "22",
+                      "http_headers": {"Accept": "*/*", "nested": [1, {"deep": "]}"}, null, true]},
+                      "fragments": [],
+                      "vcodec": "avc1.64001F",
+                      "height": 720,
+                      "tbr": 1234.5,
+                      "filesize": 3145728
+                    },
+                    null,
+                    "not a format"
+                  ],
+                  "requested_formats": [{"vcodec": "avc1", "height": 4320, "filesize": 1}],
+                  "is_live": false
+                }
+                """;
+        assertEquals("720=3", describe(parse(json)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"{}", "{\"id\":\"x\"}", "{\"formats\":null}", "{\"formats\":{}}", "{\"formats\":[]}"})
+    void returnsNothingWithoutFormats(String json) throws IOException {
+        assertEquals(List.of(), parse(json));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "[]", "{\"formats\":[{\"vcodec\":\"avc1\",\"height\":72", "{\"formats\" 1}",
+            "{\"title\":\"unterminated}", "{\"formats\":[{\"vcodec\":nul}]}"})
+    void rejectsMalformedJson(String json) {
+        assertThrows(IOException.class, () -> parse(json));
+    }
+
+    private static List<FormatInfo> parse(String json) throws IOException {
+        return FormatInfoParser.parse(new StringReader(json));
+    }
+
+    private static String describe(List<FormatInfo> formats) {
+        return formats.stream()
+                .map(f -> f.height() + "=" + f.estimatedSizeMb())
+                .collect(Collectors.joining(" "));
+    }
+
+    // What YtDlpDownloader did before the streaming parser: the whole document through org.json
+    private static List<FormatInfo> treeParse(String output) {
+        JSONArray formats = new JSONObject(output).optJSONArray("formats");
+        long bestAudioBytes = 0;
+        TreeMap<Integer, Long> heightToSize = new TreeMap<>();
+        for (int i = 0; i < formats.length(); i++) {
+            JSONObject fmt = formats.getJSONObject(i);
+            String vcodec = fmt.optString("vcodec", "none");
+            String acodec = fmt.optString("acodec", "none");
+            long size = fmt.optLong("filesize", 0);
+            if (size <= 0) {
+                size = fmt.optLong("filesize_approx", 0);
+            }
+            if (!"none".equals(acodec) && "none".equals(vcodec)) {
+                bestAudioBytes = Math.max(bestAudioBytes, size);
+            }
+            int height = fmt.optInt("height", 0);
+            if (!"none".equals(vcodec) && height > 0) {
+                heightToSize.merge(height, size, Math::max);
+            }
+        }
+        List<FormatInfo> result = new ArrayList<>();
+        for (Map.Entry<Integer, Long> entry : heightToSize.entrySet()) {
+            result.add(new FormatInfo(entry.getKey(), (entry.getValue() + bestAudioBytes) / MB));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,158 @@
+package com.bot.downloader;
+
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Drives scripts/fake_ytdlp.py through the runner and a supervisor of its own
+class ProcessYtDlpRunnerTest {
+
+    private static final String URL = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void requirePython() throws InterruptedException {
+        FakeYtDlp.assumePython();
+    }
+
+    @AfterEach
+    void clearBinary() {
+        System.clearProperty("YTDLP_BINARY");
+    }
+
+    @Test
+    void downloadsAndPassesEveryLine() throws Exception {
+        ProcessYtDlpRunner runner = runner(Map.of("FAKE_YTDLP_DELAY_MS", "100"), 1024 * 1024,
+                new ProcessSupervisor.Limits(30_000, 5_000));
+        List<String> lines = new ArrayList<>();
+
+        assertEquals(0, runner.download(args(), lines::add));
+
+        assertEquals(10, lines.stream().filter(line -> DownloadProgress.parse(line) != null).count());
+        assertEquals(100.0, DownloadProgress.parse(lines.get(lines.size() - 1)).percent());
+        assertEquals(FakeYtDlp.SIZE, Files.size(dir.resolve("fake-video.mp4")));
+        assertFalse(Files.exists(dir.resolve("fake-video.mp4.part")));
+    }
+
+    @Test
+    void probeParsesFormatsAndKeepsInfoJson() throws Exception {
+        ProcessYtDlpRunner runner = runner(Map.of("FAKE_YTDLP_DELAY_MS", "50"), 1024 * 1024,
+                new ProcessSupervisor.Limits(30_000, 0));
+        Path infoJson = dir.resolve("info.json");
+
+        List<FormatInfo> formats = runner.probe(List.of(URL), infoJson);
+
+        // The fake offers 144p to 480p and, depending on the URL, up to 1080p
+        assertTrue(formats.size() >= 4, String.valueOf(formats));
+        assertEquals(144, formats.get(0).height());
+        assertTrue(Files.readString(infoJson).contains("\"webpage_url\": \"" + URL + "\""));
+    }
+
+    // stderr is merged into the lines, so the caller sees why yt-dlp failed
+    @Test
+    void failedDownloadReturnsExitCode() throws Exception {
+        ProcessYtDlpRunner runner = runner(Map.of("FAKE_YTDLP_DELAY_MS", "50", "FAKE_YTDLP_FAIL_RATE", "1"),
+                1024 * 1024, new ProcessSupervisor.Limits(30_000, 5_000));
+        List<String> lines = new ArrayList<>();
+
+        assertEquals(1, runner.download(args(), lines::add));
+
+        assertTrue(lines.stream().anyMatch(line -> line.contains("Video unavailable")), String.valueOf(lines));
+    }
+
+    @Test
+    void watchdogKillsSilentDownload() throws Exception {
+        ProcessYtDlpRunner runner = runner(Map.of("FAKE_YTDLP_BEHAVIOR", "stall"), 1024 * 1024,
+                new ProcessSupervisor.Limits(60_000, 1_000));
+        long started = System.currentTimeMillis();
+
+        ProcessTimeoutException e = assertThrows(ProcessTimeoutException.class,
+                () -> runner.download(args(), line -> {}));
+
+        assertTrue(e.getMessage().contains("no output for 1 s"), e.getMessage());
+        assertTrue(System.currentTimeMillis() - started < 10_000, "killed late");
+        // Cleaning up is the downloader's job; the runner leaves the half-written file
+        assertEquals(5 * FakeYtDlp.CHUNK, Files.size(dir.resolve("fake-video.mp4.part")));
+    }
+
+    @Test
+    void watchdogKillsHungProcessWithItsChildren() throws Exception {
+        ProcessYtDlpRunner runner = runner(Map.of("FAKE_YTDLP_BEHAVIOR", "hang"), 1024 * 1024,
+                new ProcessSupervisor.Limits(1_000, 0));
+        AtomicLong childPid = new AtomicLong();
+
+        ProcessTimeoutException e = assertThrows(ProcessTimeoutException.class, () -> runner.download(args(), line -> {
+            if (line.contains("ffmpeg pid ")) {
+                childPid.set(Long.parseLong(line.substring(line.lastIndexOf(' ') + 1, line.length() - 1)));
+            }
+        }));
+
+        assertTrue(e.getMessage().contains("ran longer than 1 s"), e.getMessage());
+        assertTrue(childPid.get() > 0, "the fake did not start its child");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (ProcessHandle.of(childPid.get()).map(ProcessHandle::isAlive).orElse(false)) {
+            assertTrue(System.currentTimeMillis() < deadline, "child " + childPid.get() + " survived");
+            Thread.sleep(100);
+        }
+    }
+
+    @Test
+    void watchdogStopsOutputFlood() throws Exception {
+        ProcessYtDlpRunner runner = runner(Map.of("FAKE_YTDLP_BEHAVIOR", "flood"), 1024 * 1024,
+                new ProcessSupervisor.Limits(60_000, 0));
+        AtomicLong lines = new AtomicLong();
+
+        ProcessTimeoutException e = assertThrows(ProcessTimeoutException.class,
+                () -> runner.download(args(), line -> lines.incrementAndGet()));
+
+        assertTrue(e.getMessage().contains("printed more than 1 MB"), e.getMessage());
+        assertTrue(lines.get() > 1024 * 1024 / 60, "stopped after " + lines.get() + " lines");
+    }
+
+    @Test
+    void interruptCancelsDownload() throws Exception {
+        ProcessYtDlpRunner runner = runner(Map.of("FAKE_YTDLP_BEHAVIOR", "stall"), 1024 * 1024,
+                new ProcessSupervisor.Limits(60_000, 0));
+        CountDownLatch halfway = new CountDownLatch(1);
+
+        Throwable thrown = FakeYtDlp.interruptAfter(halfway, () -> runner.download(args(), line -> {
+            DownloadProgress progress = DownloadProgress.parse(line);
+            if (progress != null && progress.percent() >= 50) {
+                halfway.countDown();
+            }
+        }));
+
+        assertTrue(thrown instanceof InterruptedException, String.valueOf(thrown));
+        // Cancelling keeps the .part file, which is what a resumed download continues from
+        assertEquals(5 * FakeYtDlp.CHUNK, Files.size(dir.resolve("fake-video.mp4.part")));
+    }
+
+    private ProcessYtDlpRunner runner(Map<String, String> env, long maxOutputBytes,
+                                      ProcessSupervisor.Limits downloadLimits) throws IOException {
+        System.setProperty("YTDLP_BINARY", FakeYtDlp.binary(dir, env).toString());
+        return new ProcessYtDlpRunner(new ProcessSupervisor(0, 0, maxOutputBytes),
+                new ProcessSupervisor.Limits(30_000, 0), downloadLimits);
+    }
+
+    private List<String> args() {
+        return List.of("--newline", "-o", dir.resolve("%(title).80s.%(ext)s").toString(), URL);
+    }
+}
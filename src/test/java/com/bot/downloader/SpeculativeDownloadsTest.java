@@ -0,0 +1,107 @@
+package com.bot.downloader;
+
+import com.bot.storage.StorageManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The fake takes four seconds for its file at the slot's 128 KB/s and a fraction of that unlimited
+class SpeculativeDownloadsTest {
+
+    private static final String URL = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+    private static final String FORMAT = YtDlpDownloader.buildFormatSelector(720);
+    private static final List<String> SETTINGS = List.of("YTDLP_MODE", "YTDLP_BINARY", "DOWNLOAD_ACCELERATION");
+
+    @TempDir
+    Path dir;
+
+    private StorageManager storage;
+    private YtDlpDownloader downloader;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        FakeYtDlp.assumePython();
+        storage = new StorageManager(dir.resolve("shared"), 0, 0, 1000, 60_000, 60_000, 1024 * 1024);
+        System.setProperty("YTDLP_MODE", "process");
+        // The accelerator would split the limit between fragments
+        System.setProperty("DOWNLOAD_ACCELERATION", "false");
+        System.setProperty("YTDLP_BINARY", FakeYtDlp.binary(dir, Map.of()).toString());
+        downloader = new YtDlpDownloader(storage);
+    }
+
+    @AfterEach
+    void clearSettings() {
+        SETTINGS.forEach(System::clearProperty);
+    }
+
+    @Test
+    void restartsAdoptedDownloadWithoutLimit() throws Exception {
+        SpeculativeDownloads speculative = new SpeculativeDownloads(downloader, storage, 1, 128, 60_000, 1_000);
+        assertTrue(speculative.start("t1", URL, "720", FORMAT, 1));
+        Thread.sleep(1_000);
+
+        long adoptedAt = System.currentTimeMillis();
+        try (SpeculativeDownloads.Adopted adopted = speculative.adopt("t1", "720", progress -> {})) {
+            assertNotNull(adopted);
+            File video = adopted.await();
+
+            assertTrue(System.currentTimeMillis() - adoptedAt < 2_000, "still rate-limited");
+            assertEquals(FakeYtDlp.SIZE, video.length());
+            downloader.cleanup(video);
+        }
+        assertEquals(List.of(), jobDirs());
+    }
+
+    @Test
+    void keepsLimitWhenTheRestIsShort() throws Exception {
+        SpeculativeDownloads speculative = new SpeculativeDownloads(downloader, storage, 1, 128, 60_000, 60_000);
+        assertTrue(speculative.start("t1", URL, "720", FORMAT, 1));
+        Thread.sleep(1_000);
+
+        long adoptedAt = System.currentTimeMillis();
+        try (SpeculativeDownloads.Adopted adopted = speculative.adopt("t1", "720", progress -> {})) {
+            File video = adopted.await();
+
+            assertTrue(System.currentTimeMillis() - adoptedAt >= 2_000, "the limit was lifted");
+            assertEquals(FakeYtDlp.SIZE, video.length());
+            downloader.cleanup(video);
+        }
+    }
+
+    // A discard after the restart must still stop the unlimited download and remove its directory
+    @Test
+    void discardAfterRestartRemovesJobDir() throws Exception {
+        SpeculativeDownloads speculative = new SpeculativeDownloads(downloader, storage, 1, 128, 60_000, 1_000);
+        assertTrue(speculative.start("t1", URL, "720", FORMAT, 1));
+        Thread.sleep(1_000);
+
+        SpeculativeDownloads.Adopted adopted = speculative.adopt("t1", "720", progress -> {});
+        Thread.sleep(600);
+        adopted.discard();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!jobDirs().isEmpty() || speculative.running() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "left " + jobDirs());
+            Thread.sleep(100);
+        }
+    }
+
+    private List<Path> jobDirs() throws Exception {
+        try (Stream<Path> dirs = Files.list(storage.root())) {
+            return dirs.filter(path -> path.getFileName().toString().startsWith(StorageManager.JOB_DIR_PREFIX))
+                    .toList();
+        }
+    }
+}
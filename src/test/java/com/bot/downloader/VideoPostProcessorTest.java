@@ -0,0 +1,89 @@
+package com.bot.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Synthetic files with just enough box headers for the top-level walk
+class VideoPostProcessorTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void moovBeforeMdatIsFaststart() throws IOException {
+        assertEquals(Boolean.TRUE, VideoPostProcessor.moovFirst(file(box("ftyp", 16), box("moov", 64),
+                box("mdat", 256))));
+    }
+
+    @Test
+    void moovAfterMdatNeedsMoving() throws IOException {
+        assertEquals(Boolean.FALSE, VideoPostProcessor.moovFirst(file(box("ftyp", 16), box("free", 8),
+                box("mdat", 256), box("moov", 64))));
+    }
+
+    @Test
+    void otherContainersAreLeftAlone() throws IOException {
+        // The EBML header webm and mkv files start with
+        byte[] webm = {0x1A, 0x45, (byte) 0xDF, (byte) 0xA3, 0, 0, 0, 0, 0, 0, 0, 0};
+        assertNull(VideoPostProcessor.moovFirst(file(webm)));
+        assertNull(VideoPostProcessor.moovFirst(file(new byte[3])));
+    }
+
+    // Size 1 means the real size follows the type as 64 bits, as for mdat boxes over 4 GB
+    @Test
+    void followsBoxesWithLargeSize() throws IOException {
+        assertEquals(Boolean.TRUE, VideoPostProcessor.moovFirst(file(box("ftyp", 16), largeBox("free", 40),
+                box("moov", 64), box("mdat", 256))));
+        assertEquals(Boolean.FALSE, VideoPostProcessor.moovFirst(file(box("ftyp", 16), largeBox("wide", 24),
+                largeBox("mdat", 256), box("moov", 64))));
+    }
+
+    // A box running to the end of the file, or a truncated one, ends the walk without an answer
+    @Test
+    void givesUpOnOpenEndedOrTruncatedBoxes() throws IOException {
+        assertNull(VideoPostProcessor.moovFirst(file(box("ftyp", 16), box("free", 0), box("moov", 64))));
+        byte[] truncated = box("ftyp", 16);
+        assertNull(VideoPostProcessor.moovFirst(file(truncated, new byte[] {0, 0, 0, 1, 'f', 'r', 'e', 'e'})));
+    }
+
+    private File file(byte[]... boxes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] box : boxes) {
+            bytes.write(box);
+        }
+        Path path = Files.createTempFile(dir, "video", ".mp4");
+        Files.write(path, bytes.toByteArray());
+        return path.toFile();
+    }
+
+    // A box of the given total size with a 32-bit header; size 0 writes only the header
+    private static byte[] box(String type, int size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(size);
+        out.write(type.getBytes(StandardCharsets.US_ASCII));
+        out.write(new byte[Math.max(0, size - 8)]);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] largeBox(String type, int size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(1);
+        out.write(type.getBytes(StandardCharsets.US_ASCII));
+        out.writeLong(size);
+        out.write(new byte[size - 16]);
+        return bytes.toByteArray();
+    }
+}
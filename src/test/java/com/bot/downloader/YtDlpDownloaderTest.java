@@ -0,0 +1,136 @@
+package com.bot.downloader;
+
+import com.bot.storage.StorageManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// What happens to a job directory and its .part files when a download fails, is killed or is interrupted
+class YtDlpDownloaderTest {
+
+    private static final String URL = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+    private static final List<String> SETTINGS = List.of(
+            "YTDLP_MODE", "YTDLP_BINARY", "YTDLP_DOWNLOAD_TIMEOUT_SECONDS", "YTDLP_DOWNLOAD_IDLE_SECONDS");
+
+    @TempDir
+    Path dir;
+
+    private StorageManager storage;
+
+    @BeforeEach
+    void setUp() throws InterruptedException {
+        FakeYtDlp.assumePython();
+        storage = new StorageManager(dir.resolve("shared"), 0, 0, 1000, 60_000, 60_000, 1024 * 1024);
+        System.setProperty("YTDLP_MODE", "process");
+        System.setProperty("YTDLP_DOWNLOAD_TIMEOUT_SECONDS", "60");
+        System.setProperty("YTDLP_DOWNLOAD_IDLE_SECONDS", "1");
+    }
+
+    @AfterEach
+    void clearSettings() {
+        SETTINGS.forEach(System::clearProperty);
+    }
+
+    @Test
+    void watchdogKillRemovesJobDir() throws Exception {
+        YtDlpDownloader downloader = downloader(Map.of("FAKE_YTDLP_BEHAVIOR", "stall"));
+        Path jobDir = storage.createJobDir();
+
+        assertThrows(ProcessTimeoutException.class,
+                () -> downloader.download(URL, null, 0, jobDir, progress -> {}));
+
+        assertFalse(Files.exists(jobDir), "the .part file of a killed download was left behind");
+        assertEquals(0, storage.activeJobDirs());
+    }
+
+    @Test
+    void failedDownloadRemovesJobDir() throws Exception {
+        YtDlpDownloader downloader = downloader(Map.of("FAKE_YTDLP_DELAY_MS", "50", "FAKE_YTDLP_FAIL_RATE", "1"));
+
+        IOException e = assertThrows(IOException.class, () -> downloader.download(URL));
+
+        assertTrue(e.getMessage().startsWith("yt-dlp exited with code 1"), e.getMessage());
+        assertEquals(List.of(), jobDirs());
+        assertEquals(0, storage.activeJobDirs());
+    }
+
+    // The caller owns the directory, so it stays leased for a later run to resume
+    @Test
+    void interruptKeepsJobDirForResume() throws Exception {
+        YtDlpDownloader downloader = downloader(Map.of("FAKE_YTDLP_DELAY_MS", "2000"));
+        Path jobDir = storage.createJobDir();
+        CountDownLatch started = new CountDownLatch(1);
+
+        Throwable thrown = FakeYtDlp.interruptAfter(started,
+                () -> downloader.download(URL, null, 0, jobDir, progress -> started.countDown()));
+
+        assertTrue(thrown instanceof InterruptedException, String.valueOf(thrown));
+        long kept = Files.size(jobDir.resolve("fake-video.mp4.part"));
+        assertTrue(kept >= FakeYtDlp.CHUNK, "kept " + kept + " bytes");
+        assertEquals(1, storage.activeJobDirs());
+
+        File video = downloader.download(URL, null, 0, jobDir, progress -> {});
+        assertEquals(FakeYtDlp.SIZE, video.length());
+        assertFalse(Files.exists(jobDir.resolve("fake-video.mp4.part")));
+
+        downloader.cleanup(video);
+        assertFalse(Files.exists(jobDir));
+        assertEquals(0, storage.activeJobDirs());
+    }
+
+    // Without a directory from the caller nobody could resume, so the .part file goes with it
+    @Test
+    void interruptRemovesOwnJobDir() throws Exception {
+        YtDlpDownloader downloader = downloader(Map.of("FAKE_YTDLP_DELAY_MS", "2000"));
+        CountDownLatch started = new CountDownLatch(1);
+
+        Throwable thrown = FakeYtDlp.interruptAfter(started,
+                () -> downloader.download(URL, null, progress -> started.countDown()));
+
+        assertTrue(thrown instanceof InterruptedException, String.valueOf(thrown));
+        assertEquals(List.of(), jobDirs());
+        assertEquals(0, storage.activeJobDirs());
+    }
+
+    @Test
+    void cleanupJobDirRemovesPartFiles() throws Exception {
+        YtDlpDownloader downloader = downloader(Map.of("FAKE_YTDLP_DELAY_MS", "2000"));
+        Path jobDir = storage.createJobDir();
+        CountDownLatch started = new CountDownLatch(1);
+        FakeYtDlp.interruptAfter(started,
+                () -> downloader.download(URL, null, 0, jobDir, progress -> started.countDown()));
+        assertTrue(Files.exists(jobDir.resolve("fake-video.mp4.part")));
+
+        downloader.cleanupJobDir(jobDir);
+
+        assertFalse(Files.exists(jobDir));
+        assertEquals(0, storage.activeJobDirs());
+    }
+
+    private YtDlpDownloader downloader(Map<String, String> env) throws IOException {
+        System.setProperty("YTDLP_BINARY", FakeYtDlp.binary(dir, env).toString());
+        return new YtDlpDownloader(storage);
+    }
+
+    private List<Path> jobDirs() throws IOException {
+        try (Stream<Path> dirs = Files.list(storage.root())) {
+            return dirs.filter(path -> path.getFileName().toString().startsWith(StorageManager.JOB_DIR_PREFIX))
+                    .toList();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.bot.downloader;
+
+import com.bot.downloader.YtDlpDownloader.FormatInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Drives scripts/fake_ytdlp_worker.py through a pool of one worker
+class YtDlpWorkerPoolTest {
+
+    private static final String URL = "https://www.youtube.com/watch?v=dQw4w9WgXcQ";
+    private static final ProcessSupervisor.Limits NO_LIMITS = new ProcessSupervisor.Limits(0, 0);
+
+    @TempDir
+    Path dir;
+
+    private YtDlpWorkerPool pool;
+
+    @BeforeEach
+    void requirePython() throws InterruptedException {
+        FakeYtDlp.assumePython();
+    }
+
+    @AfterEach
+    void closePool() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    void servesRequestsOnOneWorker() throws Exception {
+        pool = pool(Map.of("FAKE_YTDLP_DELAY_MS", "50"), NO_LIMITS, NO_LIMITS);
+        Path infoJson = dir.resolve("info.json");
+
+        List<FormatInfo> formats = pool.probe(List.of(URL), infoJson);
+        List<String> lines = new ArrayList<>();
+        int exitCode = pool.download(args(), lines::add);
+
+        // The audio stream's 3 MB is added to every height
+        assertEquals(List.of(new FormatInfo(360, 13), new FormatInfo(720, 43), new FormatInfo(1080, 93)), formats);
+        assertTrue(Files.readString(infoJson).contains("\"formats\""));
+        assertEquals(0, exitCode);
+        assertEquals(10, lines.size());
+        assertEquals(FakeYtDlp.SIZE, Files.size(dir.resolve("fake-video.mp4")));
+        assertFalse(Files.exists(dir.resolve("fake-video.mp4.part")));
+        assertEquals(1, pool.idleWorkers());
+        assertEquals(0, pool.restarts());
+    }
+
+    // The worker acknowledges the cancel, so it goes back to the pool instead of being replaced
+    @Test
+    void interruptCancelsDownloadAndKeepsWorker() throws Exception {
+        pool = pool(Map.of("FAKE_YTDLP_DELAY_MS", "2000"), NO_LIMITS, NO_LIMITS);
+        CountDownLatch started = new CountDownLatch(1);
+
+        Throwable thrown = FakeYtDlp.interruptAfter(started, () -> pool.download(args(), line -> started.countDown()));
+
+        assertTrue(thrown instanceof InterruptedException, String.valueOf(thrown));
+        assertEquals(1, pool.idleWorkers());
+        assertEquals(0, pool.restarts());
+        long kept = Files.size(dir.resolve("fake-video.mp4.part"));
+        assertTrue(kept >= FakeYtDlp.CHUNK && kept < FakeYtDlp.SIZE, "kept " + kept + " bytes");
+        assertFalse(Files.exists(dir.resolve("fake-video.mp4")));
+
+        List<String> lines = new ArrayList<>();
+        assertEquals(0, pool.download(args(), lines::add));
+        assertEquals("[download] Resuming download at byte " + kept, lines.get(0));
+        assertEquals(FakeYtDlp.SIZE, Files.size(dir.resolve("fake-video.mp4")));
+    }
+
+    @Test
+    void idleLimitCancelsSilentDownload() throws Exception {
+        // One progress line every two seconds
+        pool = pool(Map.of("FAKE_YTDLP_DELAY_MS", "20000"), NO_LIMITS, new ProcessSupervisor.Limits(0, 1_000));
+
+        ProcessTimeoutException e = assertThrows(ProcessTimeoutException.class,
+                () -> pool.download(args(), line -> {}));
+
+        assertTrue(e.getMessage().contains("no output for 1 s"), e.getMessage());
+        assertEquals(1, pool.idleWorkers());
+        assertEquals(0, pool.restarts());
+    }
+
+    // The fake's probe never looks at cancels, like a stuck extraction, so the worker is killed after the grace period
+    @Test
+    void wallClockLimitKillsStuckWorker() throws Exception {
+        pool = pool(Map.of("FAKE_YTDLP_DELAY_MS", "60000"), new ProcessSupervisor.Limits(1_000, 0), NO_LIMITS);
+
+        ProcessTimeoutException e = assertThrows(ProcessTimeoutException.class,
+                () -> pool.probe(List.of(URL), null));
+
+        assertTrue(e.getMessage().contains("ran longer than 1 s"), e.getMessage());
+        assertEquals(1, pool.restarts());
+        assertEquals(1, pool.idleWorkers());
+    }
+
+    @Test
+    void replacesCrashedWorker() throws Exception {
+        pool = pool(Map.of("FAKE_YTDLP_DELAY_MS", "50", "FAKE_YTDLP_CRASH_EVERY", "2"), NO_LIMITS, NO_LIMITS);
+
+        assertEquals(0, pool.download(args(), line -> {}));
+        IOException e = assertThrows(IOException.class, () -> pool.download(args(), line -> {}));
+        assertEquals("yt-dlp worker died during download", e.getMessage());
+        assertEquals(1, pool.restarts());
+        assertEquals(0, pool.download(args(), line -> {}));
+    }
+
+    private YtDlpWorkerPool pool(Map<String, String> env, ProcessSupervisor.Limits probeLimits,
+                                 ProcessSupervisor.Limits downloadLimits) {
+        return new YtDlpWorkerPool(FakeYtDlp.workerCommand(env), 1, 100, 60_000, probeLimits, downloadLimits);
+    }
+
+    private List<String> args() {
+        return List.of("-o", dir.resolve("%(title).80s.%(ext)s").toString(), URL);
+    }
+}
@@ -0,0 +1,164 @@
+package com.bot.job;
+
+import com.bot.job.JobJournal.Entry;
+import com.bot.job.JobJournal.State;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A second journal on the same directory stands in for the bot after a restart
+class JobJournalTest {
+
+    private static final long HOUR_MS = 3600 * 1000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replayKeepsTheLastStateOfUnfinishedJobs() throws Exception {
+        JobJournal journal = journal(3, 1000);
+        journal.queued("1", 10, "https://youtu.be/a");
+        journal.chosen("1", 10, "https://youtu.be/a", "best[height<=720]", 40, "Downloading 720p...");
+        journal.downloading("1", 10, dir.resolve("job-1"));
+        journal.queued("2", 20, "https://youtu.be/b");
+        journal.done("2", 20);
+
+        List<Entry> resumed = journal(3, 1000).takeInterrupted();
+
+        assertEquals(1, resumed.size());
+        Entry entry = resumed.get(0);
+        assertEquals("1", entry.chatId());
+        assertEquals(10, entry.messageId());
+        assertEquals(State.DOWNLOADING, entry.state());
+        assertTrue(entry.chosen());
+        assertEquals("best[height<=720]", entry.formatSelector());
+        assertEquals(40L, entry.estimatedSizeMb());
+        assertEquals("Downloading 720p...", entry.startText());
+        assertEquals(dir.resolve("job-1"), entry.jobDir());
+        assertEquals(1, entry.resumes());
+    }
+
+    // A crash while appending leaves half a record; replay skips it and keeps the rest
+    @Test
+    void skipsTornAndUnreadableLines() throws Exception {
+        journal(3, 1000).queued("1", 10, "https://youtu.be/a");
+        append("not json\n");
+        append("{\"chat\":\"1\",\"msg\":11,\"url\":\"https://youtu.be/b\",\"state\":\"somewhere\",\"ts\":1}\n");
+        append("{\"chat\":\"1\",\"msg\":12,\"url\":\"https://you");
+
+        JobJournal restarted = journal(3, 1000);
+
+        assertEquals(1, restarted.size());
+        assertTrue(restarted.isRunning("1", 10));
+        assertFalse(restarted.isRunning("1", 12));
+    }
+
+    // Opening the journal rewrites it with only the unfinished jobs
+    @Test
+    void compactsOnStartup() throws Exception {
+        JobJournal journal = journal(3, 1000);
+        for (int i = 0; i < 50; i++) {
+            journal.queued("1", i, "https://youtu.be/" + i);
+            journal.done("1", i);
+        }
+        journal.queued("1", 99, "https://youtu.be/kept");
+        assertEquals(101, records().size());
+
+        JobJournal restarted = journal(3, 1000);
+
+        assertEquals(1, records().size());
+        assertEquals(1, restarted.size());
+        assertTrue(restarted.isRunning("1", 99));
+    }
+
+    @Test
+    void compactsOnceEnoughRecordsPiledUp() throws Exception {
+        JobJournal journal = new JobJournal(dir, 20, HOUR_MS, 24 * HOUR_MS, 3, 10);
+        for (int i = 0; i < 20; i++) {
+            journal.queued("1", i, "https://youtu.be/" + i);
+            journal.done("1", i);
+        }
+        journal.queued("1", 99, "https://youtu.be/kept");
+
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (records().size() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertEquals(1, records().size(), "the journal was not compacted");
+        // Records written after the compaction still reach the new file
+        journal.queued("1", 100, "https://youtu.be/after");
+        assertEquals(2, journal(3, 1000).size());
+    }
+
+    // A job that keeps getting interrupted is resumed at most maxResumes times
+    @Test
+    void dropsJobsThatRanOutOfResumes() throws Exception {
+        journal(2, 1000).queued("1", 10, "https://youtu.be/a");
+
+        assertEquals(1, journal(2, 1000).takeInterrupted().get(0).resumes());
+        assertEquals(2, journal(2, 1000).takeInterrupted().get(0).resumes());
+        JobJournal exhausted = journal(2, 1000);
+        assertTrue(exhausted.takeInterrupted().isEmpty());
+        assertEquals(0, exhausted.size());
+
+        assertEquals(0, journal(2, 1000).size());
+    }
+
+    @Test
+    void dropsJobsThatGrewTooOld() throws Exception {
+        long now = System.currentTimeMillis();
+        Files.createDirectories(dir);
+        append(record(10, "downloading", now - 25 * HOUR_MS));
+        append(record(11, "downloading", now - HOUR_MS));
+
+        JobJournal journal = journal(3, 1000);
+        List<Entry> resumed = journal.takeInterrupted();
+
+        assertEquals(1, resumed.size());
+        assertEquals(11, resumed.get(0).messageId());
+        assertEquals(1, journal.size());
+    }
+
+    // An offered keyboard only resumes while its selection has not expired
+    @Test
+    void dropsOfferedJobsWhoseKeyboardExpired() throws Exception {
+        long now = System.currentTimeMillis();
+        Files.createDirectories(dir);
+        append(record(10, "offered", now - 2 * HOUR_MS));
+        append(record(11, "offered", now - 60_000));
+        append(record(12, "probing", now - 2 * HOUR_MS));
+
+        List<Entry> resumed = journal(3, 1000).takeInterrupted();
+
+        assertEquals(List.of(11, 12), resumed.stream().map(Entry::messageId).sorted().toList());
+    }
+
+    private JobJournal journal(int maxResumes, int compactAfter) throws IOException {
+        return new JobJournal(dir, 60_000, HOUR_MS, 24 * HOUR_MS, maxResumes, compactAfter);
+    }
+
+    private static String record(int messageId, String state, long updatedAt) {
+        return "{\"chat\":\"1\",\"msg\":%d,\"url\":\"https://youtu.be/%d\",\"state\":\"%s\",\"ts\":%d}\n"
+                .formatted(messageId, messageId, state, updatedAt);
+    }
+
+    private void append(String text) throws IOException {
+        Files.writeString(dir.resolve("jobs.log"), text, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    private List<String> records() throws IOException {
+        return Files.readAllLines(dir.resolve("jobs.log"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.bot.job;
+
+import com.bot.job.JobScheduler.Stage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobSchedulerTest {
+
+    private final CountDownLatch releaseDownloads = new CountDownLatch(1);
+    private JobScheduler scheduler;
+
+    @AfterEach
+    void stop() {
+        releaseDownloads.countDown();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    // Downloads waiting for the single download slot must not take the workers a probe needs
+    @Test
+    void probeRunsWhileDownloadsWaitForTheirSlot() throws Exception {
+        scheduler = new JobScheduler(2, 10, 1, 1, 1, 1);
+        AtomicInteger downloadsStarted = new AtomicInteger();
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit("download-" + i, Stage.DOWNLOAD, () -> inStage(Stage.DOWNLOAD, () -> {
+                downloadsStarted.incrementAndGet();
+                releaseDownloads.await();
+            }));
+        }
+        CountDownLatch probed = new CountDownLatch(1);
+
+        scheduler.submit("probe", Stage.PROBE, () -> inStage(Stage.PROBE, probed::countDown));
+
+        assertTrue(probed.await(5, TimeUnit.SECONDS), "the probe waited behind the downloads");
+        assertEquals(1, downloadsStarted.get());
+    }
+
+    // A job that ends without entering its stage, like a cache hit, hands the slot back
+    @Test
+    void unusedSlotIsReleased() throws Exception {
+        scheduler = new JobScheduler(1, 10, 1, 1, 1, 1);
+        scheduler.submit("a", Stage.DOWNLOAD, () -> {});
+        CountDownLatch downloaded = new CountDownLatch(1);
+
+        scheduler.submit("b", Stage.DOWNLOAD, () -> inStage(Stage.DOWNLOAD, downloaded::countDown));
+
+        assertTrue(downloaded.await(5, TimeUnit.SECONDS), "the slot of the first job was never released");
+    }
+
+    // The reserved slot counts once; a second stage entered by the same job still waits for its own slot
+    @Test
+    void reservedSlotIsUsedOnce() throws Exception {
+        scheduler = new JobScheduler(2, 10, 1, 1, 1, 1);
+        CountDownLatch uploading = new CountDownLatch(1);
+        scheduler.submit("a", Stage.UPLOAD, () -> inStage(Stage.UPLOAD, () -> {
+            uploading.countDown();
+            releaseDownloads.await();
+        }));
+        assertTrue(uploading.await(5, TimeUnit.SECONDS));
+        CountDownLatch downloaded = new CountDownLatch(1);
+        CountDownLatch uploaded = new CountDownLatch(1);
+
+        scheduler.submit("b", Stage.DOWNLOAD, () -> {
+            inStage(Stage.DOWNLOAD, downloaded::countDown);
+            inStage(Stage.UPLOAD, uploaded::countDown);
+        });
+
+        assertTrue(downloaded.await(5, TimeUnit.SECONDS));
+        assertFalse(uploaded.await(500, TimeUnit.MILLISECONDS), "the upload slot was taken twice");
+        releaseDownloads.countDown();
+        assertTrue(uploaded.await(5, TimeUnit.SECONDS));
+    }
+
+    // A job waiting for something else, such as disk space, lets another chat's download take its slot
+    @Test
+    void releasedSlotGoesToTheNextJob() throws Exception {
+        scheduler = new JobScheduler(2, 10, 1, 1, 1, 1);
+        CountDownLatch released = new CountDownLatch(1);
+        CountDownLatch spaceFreed = new CountDownLatch(1);
+        CountDownLatch firstDownloaded = new CountDownLatch(1);
+        scheduler.submit("waits-for-disk", Stage.DOWNLOAD, () -> {
+            scheduler.releaseReserved();
+            released.countDown();
+            try {
+                spaceFreed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inStage(Stage.DOWNLOAD, firstDownloaded::countDown);
+        });
+        assertTrue(released.await(5, TimeUnit.SECONDS));
+        CountDownLatch secondDownloading = new CountDownLatch(1);
+
+        scheduler.submit("fits", Stage.DOWNLOAD, () -> inStage(Stage.DOWNLOAD, () -> {
+            secondDownloading.countDown();
+            releaseDownloads.await();
+        }));
+
+        assertTrue(secondDownloading.await(5, TimeUnit.SECONDS), "the released slot was not handed on");
+        spaceFreed.countDown();
+        // The first job now waits for a slot like any other
+        assertFalse(firstDownloaded.await(300, TimeUnit.MILLISECONDS));
+        releaseDownloads.countDown();
+        assertTrue(firstDownloaded.await(5, TimeUnit.SECONDS));
+    }
+
+    private interface Step {
+        void run() throws Exception;
+    }
+
+    private void inStage(Stage stage, Step step) {
+        try {
+            scheduler.inStage(stage, () -> {
+                step.run();
+                return null;
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.bot.telegram;
+
+import com.bot.telegram.UploadStats.Mode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class UploadStatsTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void unknownWithoutBaseline() {
+        UploadStats stats = new UploadStats(0, null);
+
+        assertEquals(-1, stats.record(Mode.LOCAL_PATH, 100 * MB, 500));
+        assertEquals(0, stats.estimatedSavedMillis());
+    }
+
+    // A bot in local mode never measures multipart itself
+    @Test
+    void seedEstimatesLocalSavings() {
+        UploadStats stats = new UploadStats(MB / 1000.0, null);
+
+        assertEquals(9_500, stats.record(Mode.LOCAL_PATH, 10 * MB, 500));
+        assertEquals(9_500, stats.estimatedSavedMillis());
+    }
+
+    @Test
+    void measuredMultipartReplacesSeed() {
+        UploadStats stats = new UploadStats(MB / 1000.0, null);
+
+        stats.record(Mode.MULTIPART, 20 * MB, 10_000);
+
+        assertEquals(2 * MB / 1000.0, stats.multipartBytesPerMs());
+        assertEquals(4_500, stats.record(Mode.LOCAL_PATH, 10 * MB, 500));
+    }
+
+    @Test
+    void laterRunStartsFromSavedMeasurement() throws Exception {
+        UploadStats multipart = UploadStats.fromEnv(dir);
+        multipart.record(Mode.MULTIPART, 20 * MB, 10_000);
+
+        UploadStats local = UploadStats.fromEnv(dir);
+
+        assertEquals(2 * MB / 1000.0, local.multipartBytesPerMs());
+        assertEquals(4_500, local.record(Mode.LOCAL_PATH, 10 * MB, 500));
+        try (var files = Files.list(dir.resolve("cache"))) {
+            assertEquals(1, files.count(), "temp files were left behind");
+        }
+    }
+
+    @Test
+    void ignoresUnreadableSavedMeasurement() throws Exception {
+        Files.createDirectories(dir.resolve("cache"));
+        Files.writeString(dir.resolve("cache").resolve("upload-baseline"), "fast");
+
+        assertEquals(0.0, UploadStats.fromEnv(dir).multipartBytesPerMs());
+    }
+}
@@ -0,0 +1,124 @@
+package com.bot.telegram;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Posts updates the way the Bot API does after setWebhook
+class WebhookReceiverTest {
+
+    private static final String PATH = "/telegram/webhook";
+    private static final String SECRET = "test-secret_1";
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private WebhookReceiver receiver;
+
+    @AfterEach
+    void stop() {
+        if (receiver != null) {
+            receiver.close();
+        }
+    }
+
+    @Test
+    void dispatchesAcceptedUpdates() throws Exception {
+        BlockingQueue<Update> handled = new LinkedBlockingQueue<>();
+        receiver = receiver(1, 10, handled::add);
+
+        assertEquals(200, post(SECRET, update(1, "https://youtu.be/dQw4w9WgXcQ")));
+        assertEquals(200, post(SECRET, update(2, "second")));
+
+        Update first = handled.poll(5, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertEquals(1, first.getUpdateId());
+        assertEquals("https://youtu.be/dQw4w9WgXcQ", first.getMessage().getText());
+        assertEquals(100L, first.getMessage().getChatId());
+        assertEquals(2, handled.poll(5, TimeUnit.SECONDS).getUpdateId());
+    }
+
+    @Test
+    void rejectsWrongOrMissingSecret() throws Exception {
+        BlockingQueue<Update> handled = new LinkedBlockingQueue<>();
+        receiver = receiver(1, 10, handled::add);
+
+        assertEquals(401, post("other-secret", update(1, "hi")));
+        assertEquals(401, post(null, update(2, "hi")));
+
+        assertNull(handled.poll(300, TimeUnit.MILLISECONDS));
+    }
+
+    // Telegram redelivers after a 503, so a full queue must not drop the update silently
+    @Test
+    void answers503WhenQueueIsFull() throws Exception {
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        receiver = receiver(1, 1, update -> {
+            handling.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertEquals(200, post(SECRET, update(1, "taken by the dispatcher")));
+        assertTrue(handling.await(5, TimeUnit.SECONDS));
+        assertEquals(200, post(SECRET, update(2, "queued")));
+        assertEquals(503, post(SECRET, update(3, "no room")));
+
+        release.countDown();
+    }
+
+    @Test
+    void rejectsMalformedBodiesAndOtherMethods() throws Exception {
+        receiver = receiver(1, 10, update -> {});
+
+        assertEquals(400, post(SECRET, "{\"update_id\": "));
+        HttpResponse<Void> get = client.send(HttpRequest.newBuilder(uri()).GET()
+                .header(WebhookReceiver.SECRET_HEADER, SECRET).build(), HttpResponse.BodyHandlers.discarding());
+        assertEquals(405, get.statusCode());
+    }
+
+    private WebhookReceiver receiver(int dispatchThreads, int queueCapacity, Consumer<Update> handler)
+            throws Exception {
+        return new WebhookReceiver(0, PATH, SECRET, queueCapacity, 2, dispatchThreads, handler);
+    }
+
+    private int post(String secret, String body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri())
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (secret != null) {
+            request.header(WebhookReceiver.SECRET_HEADER, secret);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private URI uri() {
+        return URI.create("http://127.0.0.1:" + receiver.port() + PATH);
+    }
+
+    private static String update(int updateId, String text) {
+        return """
+                {"update_id": %d, "message": {"message_id": %d, "date": 1700000000,
+                 "chat": {"id": 100, "type": "private"},
+                 "from": {"id": 100, "is_bot": false, "first_name": "user"},
+                 "text": "%s"}}
+                """.formatted(updateId, updateId, text);
+    }
+}
@@ -0,0 +1,76 @@
+package com.bot.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// A local server stands in for vm.tiktok.com; the resolver stops at the first redirect to a video URL
+class ShortLinkResolverTest {
+
+    private static final String VIDEO_ID = "7234567890123456789";
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile int failuresLeft;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                exchange.sendResponseHeaders(503, -1);
+            } else {
+                exchange.getResponseHeaders().set("Location", "https://www.tiktok.com/@user/video/" + VIDEO_ID);
+                exchange.sendResponseHeaders(302, -1);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void cachesResolvedLinks() {
+        ShortLinkResolver resolver = new ShortLinkResolver(100, 60_000, 60_000, 5_000);
+
+        assertEquals(VIDEO_ID, resolver.resolve(link("ZMabc123")));
+        assertEquals(VIDEO_ID, resolver.resolve(link("ZMabc123")));
+
+        assertEquals(1, requests.get());
+    }
+
+    // A transient error must not pin the link to its unresolved key for the whole cache TTL
+    @Test
+    void retriesFailuresAfterTheirShortTtl() throws Exception {
+        ShortLinkResolver resolver = new ShortLinkResolver(100, 60_000, 200, 5_000);
+        failuresLeft = 1;
+
+        assertNull(resolver.resolve(link("ZMabc123")));
+        // Within the failure TTL the link is not tried again
+        assertNull(resolver.resolve(link("ZMabc123")));
+        assertEquals(1, requests.get());
+
+        Thread.sleep(300);
+
+        assertEquals(VIDEO_ID, resolver.resolve(link("ZMabc123")));
+        assertEquals(2, requests.get());
+    }
+
+    private String link(String code) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + code + "/";
+    }
+}
@@ -0,0 +1,270 @@
+package com.bot.util;
+
+import com.bot.Fixtures;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Short links are only checked up to the scanner; parse and videoKey would resolve them over the network
+class UrlValidatorTest {
+
+    private static final String YOUTUBE_KEY = "youtube:dQw4w9WgXcQ";
+    private static final String TIKTOK_KEY = "tiktok:7234567890123456789";
+    // Mirrors UrlValidator.MAX_OFFSET
+    private static final int MAX_OFFSET = 16383;
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "https://www.youtube.com/watch?v=dQw4w9WgXcQ",
+            "https://youtube.com/watch?v=dQw4w9WgXcQ",
+            "http://www.youtube.com/watch?v=dQw4w9WgXcQ",
+            "https://m.youtube.com/watch?v=dQw4w9WgXcQ",
+            "https://music.youtube.com/watch?v=dQw4w9WgXcQ&list=RDdQw4w9WgXcQ",
+            "https://www.youtube.com/watch?feature=share&v=dQw4w9WgXcQ",
+            "https://www.youtube.com/watch?v=dQw4w9WgXcQ&t=42s",
+            "https://www.youtube.com/watch/?v=dQw4w9WgXcQ",
+            "https://www.youtube.com/watch?v=dQw4w9WgXcQ#t=42",
+            "https://www.youtube.com/watch?vv=x&v=dQw4w9WgXcQ",
+            "HTTPS://WWW.YOUTUBE.COM/watch?v=dQw4w9WgXcQ",
+            "https://www.youtube.com:443/watch?v=dQw4w9WgXcQ",
+            "https://www.youtube.com/shorts/dQw4w9WgXcQ",
+            "https://youtube.com/shorts/dQw4w9WgXcQ?feature=share",
+            "https://www.youtube.com/live/dQw4w9WgXcQ",
+            "https://www.youtube.com/embed/dQw4w9WgXcQ?autoplay=1",
+            "https://www.youtube.com/v/dQw4w9WgXcQ",
+            "https://youtu.be/dQw4w9WgXcQ",
+            "https://youtu.be/dQw4w9WgXcQ?si=AbCdEfGh12345",
+            "https://www.youtu.be/dQw4w9WgXcQ",
+            "http://YOUTU.BE/dQw4w9WgXcQ#t=1"})
+    void youtubeVariantsShareOneKey(String url) {
+        assertTrue(UrlValidator.isYouTubeUrl(url), url);
+        assertEquals("youtube", UrlValidator.site(url));
+        assertEquals(YOUTUBE_KEY, UrlValidator.videoKey(url));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "https://www.tiktok.com/@someone/video/7234567890123456789",
+            "https://tiktok.com/@someone/video/7234567890123456789",
+            "https://www.tiktok.com/@some.one_2/video/7234567890123456789?is_from_webapp=1&sender_device=pc",
+            "https://www.tiktok.com/@someone/video/7234567890123456789/",
+            "https://www.tiktok.com/@someone/video/7234567890123456789#comments",
+            "https://www.tiktok.com/video/7234567890123456789",
+            "https://m.tiktok.com/v/7234567890123456789.html",
+            "https://m.tiktok.com/v/7234567890123456789",
+            "HTTP://WWW.TIKTOK.COM/@someone/video/7234567890123456789"})
+    void tiktokVariantsShareOneKey(String url) {
+        assertTrue(UrlValidator.isTikTokUrl(url), url);
+        assertFalse(UrlValidator.isYouTubeUrl(url), url);
+        assertEquals("tiktok", UrlValidator.site(url));
+        assertEquals(TIKTOK_KEY, UrlValidator.videoKey(url));
+        assertEquals("7234567890123456789", UrlValidator.tiktokVideoId(url));
+    }
+
+    // Random IDs in random spellings; every spelling must come back to the ID it was built from
+    @Test
+    void randomYouTubeIdsRoundTrip() {
+        String idChars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        String[] templates = {
+                "https://www.youtube.com/watch?v=%s", "https://m.youtube.com/watch?app=desktop&v=%s&t=3",
+                "https://youtu.be/%s?si=x", "https://www.youtube.com/shorts/%s", "https://youtube.com/embed/%s",
+                "see https://www.youtube.com/live/%s!", "(https://youtu.be/%s)"};
+        Random random = new Random(42);
+        for (int n = 0; n < 2000; n++) {
+            StringBuilder id = new StringBuilder();
+            for (int i = 0; i < 11; i++) {
+                id.append(idChars.charAt(random.nextInt(idChars.length())));
+            }
+            String text = String.format(templates[random.nextInt(templates.length)], id);
+            String url = UrlValidator.extractUrl(text);
+            assertEquals("youtube:" + id, UrlValidator.videoKey(url), text);
+            assertEquals(new UrlValidator.VideoRef(UrlValidator.Platform.YOUTUBE, id.toString()),
+                    UrlValidator.parse(text));
+        }
+    }
+
+    @Test
+    void randomTikTokIdsRoundTrip() {
+        String[] templates = {
+                "https://www.tiktok.com/@user/video/%s", "https://www.tiktok.com/@user/video/%s?lang=en",
+                "https://m.tiktok.com/v/%s.html", "look: https://tiktok.com/video/%s."};
+        Random random = new Random(7);
+        for (int n = 0; n < 2000; n++) {
+            String id = String.valueOf(1 + (random.nextLong() >>> 1));
+            String text = String.format(templates[random.nextInt(templates.length)], id);
+            assertEquals("tiktok:" + id, UrlValidator.videoKey(UrlValidator.extractUrl(text)), text);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "https://youtube.com.evil.com/watch?v=dQw4w9WgXcQ",
+            "https://notyoutube.com/watch?v=dQw4w9WgXcQ",
+            "https://evil-youtube.com/watch?v=dQw4w9WgXcQ",
+            "https://youtube.co/watch?v=dQw4w9WgXcQ",
+            "https://www.youtube.com.attacker.net/shorts/dQw4w9WgXcQ",
+            "https://youtu.be.evil.com/dQw4w9WgXcQ",
+            "https://xyoutu.be/dQw4w9WgXcQ",
+            "https://gaming.youtube.com/watch?v=dQw4w9WgXcQ",
+            "https://evil.com/youtube.com/watch?v=dQw4w9WgXcQ",
+            "https://evil.com/?u=https://youtu.be/dQw4w9WgXcQ",
+            "https://tiktok.com.attacker.net/@user/video/7234567890123456789",
+            "https://evil-tiktok.com/@user/video/7234567890123456789",
+            "https://tiktok.co/@user/video/7234567890123456789",
+            "https://vm.tiktok.com.evil.com/ZMabc123/",
+            "https://xvm.tiktok.com/ZMabc123/",
+            "ftp://www.youtube.com/watch?v=dQw4w9WgXcQ",
+            "https//www.youtube.com/watch?v=dQw4w9WgXcQ",
+            "www.youtube.com/watch?v=dQw4w9WgXcQ"})
+    void rejectsLookAlikes(String url) {
+        assertFalse(UrlValidator.isSupportedUrl(url), url);
+        assertNull(UrlValidator.parse(url), url);
+        assertNull(UrlValidator.extractUrl(url), url);
+        assertEquals("other", UrlValidator.site(url));
+        // Unknown links key on themselves, so they never collide with a real video
+        assertEquals(url, UrlValidator.videoKey(url));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "https://www.youtube.com/watch?v=dQw4w9WgXc",
+            "https://www.youtube.com/watch?v=dQw4w9WgXcQQ",
+            "https://youtu.be/dQw4w9WgXc",
+            "https://youtu.be/dQw4w9WgXcQQ",
+            "https://www.youtube.com/shorts/dQw4w9WgX.Q",
+            "https://www.youtube.com/watch?x=dQw4w9WgXcQ",
+            "https://www.youtube.com/watchlater?v=dQw4w9WgXcQ",
+            "https://www.youtube.com/watch?list=x#v=dQw4w9WgXcQ",
+            "https://www.youtube.com/",
+            "https://youtu.be/",
+            "https://www.tiktok.com/@user/video/72345678901234567a",
+            "https://www.tiktok.com/@user/video/",
+            "https://www.tiktok.com/@user/video/12345678901234567890123456",
+            "https://www.tiktok.com/@user",
+            "https://www.tiktok.com/t/",
+            "https://www.tiktok.com/t/ZM-abc/",
+            "https://vm.tiktok.com/",
+            "https://vm.tiktok.com/ZM_abc/"})
+    void rejectsMalformedIds(String url) {
+        assertFalse(UrlValidator.isSupportedUrl(url), url);
+        assertNull(UrlValidator.parse(url), url);
+    }
+
+    @Test
+    void acceptsLongestTikTokId() {
+        String id = "1234567890123456789012345";
+        assertEquals("tiktok:" + id, UrlValidator.videoKey("https://www.tiktok.com/@user/video/" + id));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', textBlock = """
+            https://www.tiktok.com/t/ZTRabc123/           | https://www.tiktok.com/t/ZTRabc123/
+            https://tiktok.com/t/ZTRabc123                | https://tiktok.com/t/ZTRabc123
+            https://www.tiktok.com/t/ZTRabc123/?k=1       | https://www.tiktok.com/t/ZTRabc123/?k=1
+            watch this https://www.tiktok.com/t/ZTRabc123 | https://www.tiktok.com/t/ZTRabc123
+            HTTPS://WWW.TIKTOK.COM/T/ZTRabc123/!          | HTTPS://WWW.TIKTOK.COM/T/ZTRabc123/
+            https://vm.tiktok.com/ZMabc123/               | https://vm.tiktok.com/ZMabc123/
+            (https://vt.tiktok.com/ZSxyz789#x)            | https://vt.tiktok.com/ZSxyz789#x
+            """)
+    void recognisesShortCodes(String text, String url) {
+        assertEquals(url, UrlValidator.extractUrl(text));
+        assertTrue(UrlValidator.isTikTokUrl(text), text);
+        assertEquals("tiktok", UrlValidator.site(text));
+        // Not a video ID yet; the resolver follows redirects until one is
+        assertNull(UrlValidator.tiktokVideoId(text));
+    }
+
+    @ParameterizedTest
+    @CsvSource(delimiter = '|', quoteCharacter = '`', textBlock = """
+            https://youtu.be/dQw4w9WgXcQ.                       | https://youtu.be/dQw4w9WgXcQ
+            https://youtu.be/dQw4w9WgXcQ,                       | https://youtu.be/dQw4w9WgXcQ
+            https://youtu.be/dQw4w9WgXcQ!?                      | https://youtu.be/dQw4w9WgXcQ
+            (https://youtu.be/dQw4w9WgXcQ)                      | https://youtu.be/dQw4w9WgXcQ
+            [https://youtu.be/dQw4w9WgXcQ];                     | https://youtu.be/dQw4w9WgXcQ
+            <https://youtu.be/dQw4w9WgXcQ>                      | https://youtu.be/dQw4w9WgXcQ
+            "https://youtu.be/dQw4w9WgXcQ"                      | https://youtu.be/dQw4w9WgXcQ
+            'https://youtu.be/dQw4w9WgXcQ':                     | https://youtu.be/dQw4w9WgXcQ
+            {https://youtu.be/dQw4w9WgXcQ}...                   | https://youtu.be/dQw4w9WgXcQ
+            look https://www.youtube.com/watch?v=dQw4w9WgXcQ).  | https://www.youtube.com/watch?v=dQw4w9WgXcQ
+            https://www.tiktok.com/@u/video/7234567890123456789?| https://www.tiktok.com/@u/video/7234567890123456789
+            https://m.tiktok.com/v/7234567890123456789.html.    | https://m.tiktok.com/v/7234567890123456789.html
+            """)
+    void stripsTrailingPunctuation(String text, String url) {
+        assertEquals(url, UrlValidator.extractUrl(text));
+        assertEquals(UrlValidator.videoKey(url), UrlValidator.videoKey(UrlValidator.extractUrl(text)));
+    }
+
+    @Test
+    void picksFirstSupportedLinkAfterUnsupportedOnes() {
+        String text = "https://example.com/a https://youtube.com.evil.com/watch?v=aaaaaaaaaaa\n"
+                + "and https://youtu.be/dQw4w9WgXcQ then https://www.tiktok.com/@u/video/1";
+        assertEquals("https://youtu.be/dQw4w9WgXcQ", UrlValidator.extractUrl(text));
+        assertEquals(YOUTUBE_KEY, UrlValidator.videoKey(text));
+    }
+
+    @Test
+    void findsLinksInRecordedChatMessages() {
+        int found = 0;
+        for (String line : Fixtures.load("chat-messages.txt").split("\n")) {
+            String url = UrlValidator.extractUrl(line);
+            if (url == null) {
+                assertFalse(UrlValidator.isSupportedUrl(line), line);
+                continue;
+            }
+            found++;
+            assertTrue(line.contains(url), line);
+            assertTrue(UrlValidator.isSupportedUrl(url), url);
+            assertEquals(UrlValidator.site(line), UrlValidator.site(url));
+        }
+        assertTrue(found > 0);
+    }
+
+    @Test
+    void findsLinkJustBeforeOffsetLimit() {
+        String url = "https://youtu.be/dQw4w9WgXcQ";
+        String text = "x".repeat(MAX_OFFSET - url.length() - 1) + " " + url + " trailing text";
+        assertEquals(url, UrlValidator.extractUrl(text));
+        assertEquals(YOUTUBE_KEY, UrlValidator.videoKey(UrlValidator.extractUrl(text)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {MAX_OFFSET, MAX_OFFSET + 1, 20_000, 100_000})
+    void ignoresLinksPastOffsetLimit(int padding) {
+        String text = " ".repeat(padding) + "https://youtu.be/dQw4w9WgXcQ";
+        assertNull(UrlValidator.extractUrl(text));
+        assertFalse(UrlValidator.isSupportedUrl(text));
+        assertEquals("other", UrlValidator.site(text));
+    }
+
+    // A link cut by the limit is scanned up to it only, so the ID is never read past the cut
+    @Test
+    void truncatesLinkStraddlingOffsetLimit() {
+        String url = "https://youtu.be/dQw4w9WgXcQ";
+        String text = " ".repeat(MAX_OFFSET - url.length() + 3) + url;
+        assertNull(UrlValidator.extractUrl(text));
+
+        String tiktok = "https://www.tiktok.com/@u/video/7234567890123456789";
+        String cut = " ".repeat(MAX_OFFSET - tiktok.length() + 4) + tiktok;
+        assertEquals(tiktok.substring(0, tiktok.length() - 4), UrlValidator.extractUrl(cut));
+    }
+
+    @Test
+    void handlesEmptyInput() {
+        assertNull(UrlValidator.extractUrl(null));
+        assertNull(UrlValidator.extractUrl(""));
+        assertNull(UrlValidator.extractUrl(" \n\t"));
+        assertNull(UrlValidator.parse(null));
+        assertFalse(UrlValidator.isSupportedUrl(null));
+        assertEquals("other", UrlValidator.site("hey"));
+        assertNull(UrlValidator.extractUrl("https://"));
+        assertNull(UrlValidator.extractUrl("http"));
+    }
+}